@@ -0,0 +1,212 @@
+package nls.minesongs.client;
+
+import java.util.List;
+
+import nls.minesongs.MusicLibrary;
+import nls.minesongs.MusicManager;
+import nls.minesongs.SearchIndex;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.font.TextRenderer;
+import net.minecraft.client.gui.DrawContext;
+import net.minecraft.client.gui.screen.Screen;
+import net.minecraft.client.gui.screen.narration.NarrationMessageBuilder;
+import net.minecraft.client.gui.screen.narration.NarrationPart;
+import net.minecraft.client.gui.widget.ClickableWidget;
+import net.minecraft.text.Text;
+
+// Scrollable view of the local music library, drawn the same way as the queue panel: only the rows on
+// screen get labels. Clicking a song adds it to the queue; shift-clicking plays it now. A new track list
+// from MusicManager means a scan finished and the labels are rebuilt. While a search is typed, the panel
+// lists the best matches from the library, the cache and the history instead, refreshed as the index changes.
+public class LibraryListWidget extends ClickableWidget {
+    private static final int ROW_HEIGHT = 12;
+    private static final int SCROLLBAR_WIDTH = 3;
+    private static final Text EMPTY = Text.literal("No songs in the music folders");
+    private static final Text SCANNING = Text.literal("Scanning music folders...");
+    private static final Text NO_MATCHES = Text.literal("No matching songs");
+
+    private final TextRenderer textRenderer;
+
+    private List<MusicLibrary.Track> tracks = List.of();
+    private double scroll = 0;
+
+    // Search results replace the tracks while the query is not empty
+    private String query = "";
+    private List<SearchIndex.Hit> hits = List.of();
+    private int hitsVersion = -1;
+
+    // Labels for the rows currently on screen, starting at labelsFirst, for the list in labelsRows
+    private Text[] labels = new Text[0];
+    private int labelsFirst = -1;
+    private List<?> labelsRows = null;
+
+    public LibraryListWidget(int x, int y, int width, int height) {
+        super(x, y, width, height, Text.literal("Library"));
+        this.textRenderer = MinecraftClient.getInstance().textRenderer;
+    }
+
+    private int visibleRows() {
+        return getHeight() / ROW_HEIGHT + 1;
+    }
+
+    private boolean searching() {
+        return !query.isBlank();
+    }
+
+    private int rowCount() {
+        return searching() ? hits.size() : tracks.size();
+    }
+
+    private int maxScroll() {
+        return Math.max(0, rowCount() * ROW_HEIGHT - getHeight());
+    }
+
+    // Called as the search box changes; results start from the top
+    public void setQuery(String query) {
+        if (!this.query.equals(query)) {
+            this.query = query;
+            hitsVersion = -1;
+            scroll = 0;
+        }
+    }
+
+    // The first match, which Enter in the search box queues; null if there is none
+    public SearchIndex.Hit topHit() {
+        refreshHits();
+        return searching() && !hits.isEmpty() ? hits.get(0) : null;
+    }
+
+    // The index is only asked again when the query or the index changed since the last frame
+    private void refreshHits() {
+        if (!searching()) {
+            hits = List.of();
+            return;
+        }
+        int version = MusicManager.getSearchVersion();
+        if (version != hitsVersion) {
+            hitsVersion = version;
+            hits = MusicManager.search(query);
+        }
+    }
+
+    private int rowAt(double mouseY) {
+        return (int) Math.floor((mouseY - getY() + scroll) / ROW_HEIGHT);
+    }
+
+    @Override
+    protected void renderWidget(DrawContext context, int mouseX, int mouseY, float delta) {
+        tracks = MusicManager.getLibraryTracks();
+        refreshHits();
+        scroll = Math.max(0, Math.min(scroll, maxScroll()));
+
+        int x = getX();
+        int y = getY();
+        int width = getWidth();
+        int height = getHeight();
+        context.fill(x, y, x + width, y + height, 0x80000000);
+
+        int rows = rowCount();
+        if (rows == 0) {
+            Text message = searching() ? NO_MATCHES : MusicManager.isLibraryScanning() ? SCANNING : EMPTY;
+            context.drawTextWithShadow(textRenderer, message, x + 4, y + 4, 0x888888);
+            return;
+        }
+
+        int first = (int) (scroll / ROW_HEIGHT);
+        int last = Math.min(rows, first + visibleRows());
+        updateLabels(first, last);
+
+        context.enableScissor(x, y, x + width, y + height);
+        for (int index = first; index < last; index++) {
+            int rowY = y + index * ROW_HEIGHT - (int) scroll;
+            if (mouseY >= rowY && mouseY < rowY + ROW_HEIGHT && mouseX >= x && mouseX < x + width) {
+                context.fill(x, rowY, x + width, rowY + ROW_HEIGHT, 0x30FFFFFF);
+            }
+            context.drawTextWithShadow(textRenderer, labels[index - first], x + 4, rowY + 2, 0xFFFFFF);
+        }
+        context.disableScissor();
+
+        int contentHeight = rows * ROW_HEIGHT;
+        if (contentHeight > height) {
+            int thumbHeight = Math.max(8, height * height / contentHeight);
+            int thumbY = y + (int) ((height - thumbHeight) * scroll / maxScroll());
+            context.fill(x + width - SCROLLBAR_WIDTH, thumbY, x + width, thumbY + thumbHeight, 0xFFAAAAAA);
+        }
+    }
+
+    // Tags never change between scans, and a search returns a new list for new results, so labels
+    // only follow the visible range and the list shown
+    private void updateLabels(int first, int last) {
+        List<?> rows = searching() ? hits : tracks;
+        if (labelsRows == rows && labelsFirst == first && labels.length == last - first) {
+            return;
+        }
+        labelsRows = rows;
+        labelsFirst = first;
+        labels = new Text[last - first];
+        int maxWidth = getWidth() - 8 - SCROLLBAR_WIDTH;
+        for (int index = first; index < last; index++) {
+            String label;
+            long durationSeconds;
+            if (searching()) {
+                SearchIndex.Hit hit = hits.get(index);
+                String title = hit.title().isEmpty() ? hit.url() : hit.title();
+                label = hit.artist().isEmpty() ? title : hit.artist() + " - " + title;
+                durationSeconds = hit.durationSeconds();
+            } else {
+                MusicLibrary.Track track = tracks.get(index);
+                label = track.displayTitle();
+                durationSeconds = track.durationSeconds();
+            }
+            if (durationSeconds > 0) {
+                label += String.format(" (%d:%02d)", durationSeconds / 60, durationSeconds % 60);
+            }
+            if (textRenderer.getWidth(label) > maxWidth) {
+                label = textRenderer.trimToWidth(label, maxWidth - textRenderer.getWidth("...")) + "...";
+            }
+            labels[index - first] = Text.literal(label);
+        }
+    }
+
+    @Override
+    public boolean mouseScrolled(double mouseX, double mouseY, double horizontalAmount, double verticalAmount) {
+        if (!isMouseOver(mouseX, mouseY)) {
+            return false;
+        }
+        scroll = Math.max(0, Math.min(maxScroll(), scroll - verticalAmount * ROW_HEIGHT * 3));
+        return true;
+    }
+
+    @Override
+    public boolean mouseClicked(double mouseX, double mouseY, int button) {
+        if (!active || !visible || button != 0 || !isMouseOver(mouseX, mouseY)) {
+            return false;
+        }
+        int index = rowAt(mouseY);
+        if (index < 0 || index >= rowCount()) {
+            return false;
+        }
+        if (searching()) {
+            SearchIndex.Hit hit = hits.get(index);
+            if (Screen.hasShiftDown()) {
+                MusicManager.playFromURL(hit.url());
+            } else {
+                MusicManager.addToQueue(hit);
+            }
+            return true;
+        }
+        MusicLibrary.Track track = tracks.get(index);
+        if (Screen.hasShiftDown()) {
+            MusicManager.playLibraryTrack(track);
+        } else {
+            MusicManager.addToQueue(track);
+        }
+        return true;
+    }
+
+    @Override
+    protected void appendClickableNarrations(NarrationMessageBuilder builder) {
+        builder.put(NarrationPart.TITLE, Text.literal(searching()
+                ? "Search: " + hits.size() + " songs" : "Library: " + tracks.size() + " songs"));
+    }
+}
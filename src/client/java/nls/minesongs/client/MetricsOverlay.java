@@ -0,0 +1,76 @@
+package nls.minesongs.client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nls.minesongs.PlaybackMetrics;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.gui.DrawContext;
+import net.minecraft.text.Text;
+
+// Debug overlay with live start-up latency percentiles and playback counters, toggled by a key
+public class MetricsOverlay {
+    private static final long REFRESH_MILLIS = 500;
+    private static final int LINE_HEIGHT = 10;
+
+    private static boolean visible = false;
+    private static long lastRefresh = 0;
+    // Rebuilt twice a second rather than formatting every frame
+    private static final List<Text> lines = new ArrayList<>();
+    private static int width = 0;
+
+    public static void toggle() {
+        visible = !visible;
+        lastRefresh = 0;
+    }
+
+    public static void render(DrawContext context) {
+        MinecraftClient client = MinecraftClient.getInstance();
+        if (!visible || client == null || client.textRenderer == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - lastRefresh >= REFRESH_MILLIS) {
+            lastRefresh = now;
+            refresh(client);
+        }
+
+        int x = 6;
+        int y = 6;
+        context.fill(x - 3, y - 3, x + width + 3, y + lines.size() * LINE_HEIGHT + 1, 0xA0000000);
+        for (Text line : lines) {
+            context.drawTextWithShadow(client.textRenderer, line, x, y, 0xFFFFFF);
+            y += LINE_HEIGHT;
+        }
+    }
+
+    private static void refresh(MinecraftClient client) {
+        lines.clear();
+        // The font is proportional, so columns are separated rather than padded
+        lines.add(Text.literal("MineSongs start-up, ms: count / p50 / p90 / p99"));
+        for (PlaybackMetrics.Stage stage : PlaybackMetrics.Stage.values()) {
+            long count = PlaybackMetrics.count(stage);
+            if (count == 0) {
+                lines.add(Text.literal(stage.label + ": -"));
+                continue;
+            }
+            lines.add(Text.literal(String.format("%s: %d / %d / %d / %d", stage.label, count,
+                    PlaybackMetrics.percentileMillis(stage, 50),
+                    PlaybackMetrics.percentileMillis(stage, 90),
+                    PlaybackMetrics.percentileMillis(stage, 99))));
+        }
+        lines.add(Text.literal(String.format("underruns %d   cache %d hit / %d miss",
+                PlaybackMetrics.get(PlaybackMetrics.Counter.UNDERRUNS),
+                PlaybackMetrics.get(PlaybackMetrics.Counter.CACHE_HITS),
+                PlaybackMetrics.get(PlaybackMetrics.Counter.CACHE_MISSES))));
+        lines.add(Text.literal(String.format("read %.1f MB   downloaded %.1f MB",
+                PlaybackMetrics.get(PlaybackMetrics.Counter.BYTES_READ) / (1024.0 * 1024),
+                PlaybackMetrics.get(PlaybackMetrics.Counter.BYTES_DOWNLOADED) / (1024.0 * 1024))));
+
+        width = 0;
+        for (Text line : lines) {
+            width = Math.max(width, client.textRenderer.getWidth(line));
+        }
+    }
+}
@@ -2,6 +2,7 @@ package nls.minesongs.client;
 
 import net.fabricmc.api.ClientModInitializer;
 import net.fabricmc.fabric.api.client.rendering.v1.HudRenderCallback;
+import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientLifecycleEvents;
 import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientTickEvents;
 import net.fabricmc.fabric.api.client.keybinding.v1.KeyBindingHelper;
 import net.minecraft.client.option.KeyBinding;
@@ -12,9 +13,14 @@ public class MinesongsClient implements ClientModInitializer {
     private static KeyBinding playPauseKey;
     private static KeyBinding skipKey;
     private static KeyBinding openGuiKey;
+    private static KeyBinding metricsKey;
+    private static KeyBinding miniPlayerKey;
 
     @Override
     public void onInitializeClient() {
+        nls.minesongs.MusicManager.initialize();
+        nls.minesongs.MusicManager.getEvents().addListener(MusicHud::onPlaybackEvent);
+
         // Register key bindings
         playPauseKey = KeyBindingHelper.registerKeyBinding(new KeyBinding(
                 "key.minesongs.play_pause",
@@ -37,13 +43,36 @@ public class MinesongsClient implements ClientModInitializer {
                 "category.minesongs.music"
         ));
 
+        metricsKey = KeyBindingHelper.registerKeyBinding(new KeyBinding(
+                "key.minesongs.metrics",
+                InputUtil.Type.KEYSYM,
+                GLFW.GLFW_KEY_F7,
+                "category.minesongs.music"
+        ));
+
+        // Unbound by default; hud.miniPlayer in the config sets the starting mode
+        miniPlayerKey = KeyBindingHelper.registerKeyBinding(new KeyBinding(
+                "key.minesongs.mini_player",
+                InputUtil.Type.KEYSYM,
+                GLFW.GLFW_KEY_UNKNOWN,
+                "category.minesongs.music"
+        ));
+
         // ✅ ADD THIS: Register HUD rendering
         HudRenderCallback.EVENT.register((drawContext, tickCounter) -> {
             MusicHud.render(drawContext, tickCounter.getTickDelta(true));
+            MetricsOverlay.render(drawContext);
         });
 
+        // Write out the rest of the session journal before the game exits
+        ClientLifecycleEvents.CLIENT_STOPPING.register(client -> nls.minesongs.MusicManager.shutdown());
+
         // Register tick event for key handling
         ClientTickEvents.END_CLIENT_TICK.register(client -> {
+            // Deliver what the audio engine reported since the last tick
+            nls.minesongs.MusicManager.getEvents().dispatch();
+            nls.minesongs.MusicManager.checkpointSession();
+
             while (playPauseKey.wasPressed()) {
                 nls.minesongs.MusicManager.togglePlayPause();
             }
@@ -53,6 +82,12 @@ public class MinesongsClient implements ClientModInitializer {
             while (openGuiKey.wasPressed()) {
                 client.setScreen(new MusicPlayerScreen());
             }
+            while (metricsKey.wasPressed()) {
+                MetricsOverlay.toggle();
+            }
+            while (miniPlayerKey.wasPressed()) {
+                MusicHud.toggleMiniPlayer();
+            }
         });
     }
 }
\ No newline at end of file
@@ -1,11 +1,18 @@
 package nls.minesongs.client;
 
+import nls.minesongs.MinesongsConfig;
+import nls.minesongs.MusicManager;
+import nls.minesongs.PlaybackEvent;
+import nls.minesongs.PlaybackState;
+import nls.minesongs.TrackMetadata;
 import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.font.TextRenderer;
 import net.minecraft.client.gui.DrawContext;
-import net.minecraft.client.util.math.MatrixStack;
 import net.minecraft.text.Text;
-import net.minecraft.util.math.MathHelper;
 
+// Now-playing widget. Text is built when the notification or the screen width changes, not per frame;
+// the position bar is drawn straight from the playback clock. In mini-player mode the widget stays on
+// screen for as long as a track is loaded.
 public class MusicHud {
     private static long notificationStartTime = 0;
     private static final long NOTIFICATION_DURATION = 5000; // 5 seconds
@@ -13,43 +20,74 @@ public class MusicHud {
     private static String lastAction = "";
     private static float animationProgress = 0f;
     private static final float ANIMATION_SPEED = 0.2f; // Smooth animation speed
+    static final int HIDDEN = Integer.MIN_VALUE;
 
     // Cache these to avoid recalculating every frame
     private static int lastScreenWidth = 0;
     private static int cachedWidth = 200;
     private static int cachedHeight = 40;
 
+    // Retained text, rebuilt when dirty
+    private static boolean dirty = true;
+    private static Text iconText = Text.empty();
+    private static Text statusText = Text.empty();
+    private static Text titleText = Text.empty();
+    private static int accentColor = 0xFF5555FF;
+
+    // Position label, rebuilt once per displayed second
+    private static String shownTrack = "";
+    private static long shownSecond = -1;
+    private static long durationMillis = 0;
+    private static Text timeText = Text.empty();
+    private static int timeWidth = 0;
+
     public static void render(DrawContext context, float tickDelta) {
         MinecraftClient client = MinecraftClient.getInstance();
         if (client == null || client.world == null) return;
 
-        long currentTime = System.currentTimeMillis();
+        PlaybackState state = MusicManager.getState();
+        boolean persistent = MinesongsConfig.hudMiniPlayer && state.hasTrack();
+        int x = updateLayout(System.currentTimeMillis(), client.getWindow().getScaledWidth(), persistent);
+        if (x == HIDDEN) {
+            return;
+        }
+        int y = 20;
+
+        if (dirty) {
+            rebuild(client.textRenderer);
+        }
+        renderNotificationBox(context, client.textRenderer, state, x, y);
+    }
+
+    // Per-frame bookkeeping without any drawing, so it can be benchmarked on its own.
+    // Returns the box's x position, or HIDDEN when there is nothing to show.
+    static int updateLayout(long currentTime, int screenWidth, boolean persistent) {
         long elapsed = currentTime - notificationStartTime;
+        boolean notifying = !currentNotification.isEmpty() && elapsed <= NOTIFICATION_DURATION;
 
-        // Don't render if no notification or time expired
-        if (currentNotification.isEmpty() || elapsed > NOTIFICATION_DURATION) {
+        // Don't render if no notification or time expired, unless the mini-player keeps it up
+        if (!notifying && !(persistent && !currentNotification.isEmpty())) {
             animationProgress = 0f;
-            return;
+            return HIDDEN;
         }
 
-        // Calculate animation progress
-        updateAnimationProgress(elapsed);
-
-        int screenWidth = client.getWindow().getScaledWidth();
-        int screenHeight = client.getWindow().getScaledHeight();
+        // Calculate animation progress; the mini-player slides in but never out
+        if (persistent) {
+            animationProgress = Math.min(1.0f, animationProgress + ANIMATION_SPEED);
+        } else {
+            updateAnimationProgress(elapsed);
+        }
 
         // Recalculate dimensions only if screen size changed
         if (screenWidth != lastScreenWidth) {
             cachedWidth = Math.min(250, screenWidth / 3);
             lastScreenWidth = screenWidth;
+            dirty = true;
         }
 
         // Calculate position with smooth animation
         int targetX = screenWidth - cachedWidth - 10;
-        int x = calculateAnimatedX(targetX, cachedWidth);
-        int y = 20;
-
-        renderNotificationBox(context, x, y, tickDelta);
+        return calculateAnimatedX(targetX, cachedWidth);
     }
 
     private static void updateAnimationProgress(long elapsed) {
@@ -68,9 +106,31 @@ public class MusicHud {
         return targetX + (int)(width * (1 - easedProgress));
     }
 
-    private static void renderNotificationBox(DrawContext context, int x, int y, float tickDelta) {
-        MinecraftClient client = MinecraftClient.getInstance();
+    // Filled width of a position bar; 0 when the length of the track is unknown
+    static int positionBarWidth(long positionMillis, long durationMillis, int barWidth) {
+        if (durationMillis <= 0) {
+            return 0;
+        }
+        return (int) (barWidth * Math.min(1.0, (double) positionMillis / durationMillis));
+    }
+
+    private static void rebuild(TextRenderer textRenderer) {
+        dirty = false;
+        accentColor = getAccentColor();
+        iconText = Text.literal(getStatusIcon());
+        statusText = Text.literal(getStatusText());
+
+        // Truncate song title to the measured width of the box
+        String title = currentNotification;
+        int maxWidth = cachedWidth - 16;
+        if (textRenderer.getWidth(title) > maxWidth) {
+            title = textRenderer.trimToWidth(title, maxWidth - textRenderer.getWidth("...")) + "...";
+        }
+        titleText = Text.literal(title);
+    }
 
+    private static void renderNotificationBox(DrawContext context, TextRenderer textRenderer, PlaybackState state,
+                                              int x, int y) {
         // Draw notification background with rounded corners effect
         int alpha = (int)(200 * animationProgress);
         int backgroundColor = (alpha << 24) | 0x202020; // Semi-transparent dark background
@@ -78,19 +138,58 @@ public class MusicHud {
         context.fill(x, y, x + cachedWidth, y + cachedHeight, backgroundColor);
 
         // Draw accent border
-        int accentColor = getAccentColor();
         context.fill(x, y, x + cachedWidth, y + 2, accentColor); // Top border
         context.fill(x, y + cachedHeight - 2, x + cachedWidth, y + cachedHeight, accentColor); // Bottom border
         context.fill(x, y, x + 3, y + cachedHeight, accentColor); // Left border
 
-        // Draw icon and status
-        renderIconAndStatus(context, x, y, accentColor);
+        // Draw icon, status and song title
+        context.drawTextWithShadow(textRenderer, iconText, x + 8, y + 8, accentColor);
+        context.drawTextWithShadow(textRenderer, statusText, x + 25, y + 8, 0xCCCCCC);
+        context.drawTextWithShadow(textRenderer, titleText, x + 8, y + 22, 0xFFFFFF);
 
-        // Draw song title
-        renderSongTitle(context, x, y);
+        // Draw track position
+        if (state.hasTrack() && animationProgress > 0.9f) { // Only show when fully visible
+            renderPositionBar(context, textRenderer, state.track(), x, y);
+        }
+    }
 
-        // Draw progress bar
-        renderProgressBar(context, x, y);
+    private static void renderPositionBar(DrawContext context, TextRenderer textRenderer, String track, int x, int y) {
+        long position = MusicManager.getPositionMillis();
+        updateTimeLabel(textRenderer, track, position);
+
+        int barWidth = cachedWidth - 16;
+        int barY = y + cachedHeight - 6;
+        if (durationMillis > 0) {
+            context.fill(x + 8, barY, x + 8 + barWidth, barY + 2, 0x40FFFFFF);
+            context.fill(x + 8, barY, x + 8 + positionBarWidth(position, durationMillis, barWidth), barY + 2, accentColor);
+        }
+        context.drawTextWithShadow(textRenderer, timeText, x + cachedWidth - 8 - timeWidth, y + 8, 0xAAAAAA);
+    }
+
+    // Only allocates when the shown second or the track changes
+    private static void updateTimeLabel(TextRenderer textRenderer, String track, long position) {
+        long second = position / 1000;
+        if (second == shownSecond && track.equals(shownTrack)) {
+            return;
+        }
+        if (!track.equals(shownTrack) || durationMillis <= 0) {
+            // Metadata can arrive after the track starts, so keep looking while it is unknown
+            TrackMetadata meta = MusicManager.getTrackMetadata(track);
+            durationMillis = meta != null ? meta.durationSeconds() * 1000L : 0;
+        }
+        shownTrack = track;
+        shownSecond = second;
+
+        String label = formatTime(second);
+        if (durationMillis > 0) {
+            label += " / " + formatTime(durationMillis / 1000);
+        }
+        timeText = Text.literal(label);
+        timeWidth = textRenderer.getWidth(timeText);
+    }
+
+    private static String formatTime(long seconds) {
+        return String.format("%d:%02d", seconds / 60, seconds % 60);
     }
 
     private static int getAccentColor() {
@@ -102,16 +201,6 @@ public class MusicHud {
         }
     }
 
-    private static void renderIconAndStatus(DrawContext context, int x, int y, int accentColor) {
-        MinecraftClient client = MinecraftClient.getInstance();
-
-        String icon = getStatusIcon();
-        String statusText = getStatusText();
-
-        context.drawTextWithShadow(client.textRenderer, Text.literal(icon), x + 8, y + 8, accentColor);
-        context.drawTextWithShadow(client.textRenderer, Text.literal(statusText), x + 25, y + 8, 0xCCCCCC);
-    }
-
     private static String getStatusIcon() {
         switch (lastAction) {
             case "paused": return "⏸";
@@ -130,31 +219,6 @@ public class MusicHud {
         }
     }
 
-    private static void renderSongTitle(DrawContext context, int x, int y) {
-        MinecraftClient client = MinecraftClient.getInstance();
-
-        // Truncate song title to fit
-        String displayTrack = currentNotification;
-        int maxLength = (cachedWidth - 16) / 6; // Approximate characters that fit
-        if (displayTrack.length() > maxLength) {
-            displayTrack = displayTrack.substring(0, maxLength - 3) + "...";
-        }
-
-        context.drawTextWithShadow(client.textRenderer, Text.literal(displayTrack), x + 8, y + 22, 0xFFFFFF);
-    }
-
-    private static void renderProgressBar(DrawContext context, int x, int y) {
-        long currentTime = System.currentTimeMillis();
-        long elapsed = currentTime - notificationStartTime;
-        float progress = 1.0f - (float)elapsed / NOTIFICATION_DURATION;
-
-        if (progress > 0 && animationProgress > 0.9f) { // Only show when fully visible
-            int progressWidth = (int)((cachedWidth - 16) * progress);
-            int progressColor = getAccentColor();
-            context.fill(x + 8, y + cachedHeight - 6, x + 8 + progressWidth, y + cachedHeight - 4, progressColor);
-        }
-    }
-
     // Public methods to show notifications
     public static void showNowPlaying(String songTitle) {
         setNotification(songTitle, "playing");
@@ -172,10 +236,26 @@ public class MusicHud {
         currentNotification = songTitle != null ? songTitle : "Unknown Song";
         lastAction = action;
         notificationStartTime = System.currentTimeMillis();
-        animationProgress = 0f; // Reset animation
+        dirty = true;
+        if (!MinesongsConfig.hudMiniPlayer) {
+            animationProgress = 0f; // Reset animation
+        }
+    }
+
+    public static void toggleMiniPlayer() {
+        MinesongsConfig.hudMiniPlayer = !MinesongsConfig.hudMiniPlayer;
+    }
+
+    // Registered on MusicManager's event bus; runs on the client thread
+    public static void onPlaybackEvent(PlaybackEvent event) {
+        switch (event.type()) {
+            case STARTED, RESUMED -> showNowPlaying(event.title());
+            case PAUSED -> showPaused(event.title());
+            case SKIPPED -> showStopped("Skipped: " + event.title());
+            case STOPPED, QUEUE_EMPTY -> showStopped(event.title());
+        }
     }
 
-    // Call this from your MusicManager when playback state changes
     public static void onPlaybackStateChanged(boolean isPlaying, String currentTrack) {
         if (currentTrack == null || currentTrack.isEmpty()) {
             showStopped("No track playing");
@@ -188,4 +268,4 @@ public class MusicHud {
             showPaused(currentTrack);
         }
     }
-}
\ No newline at end of file
+}
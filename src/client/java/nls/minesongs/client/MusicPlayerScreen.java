@@ -9,6 +9,10 @@ import net.minecraft.text.Text;
 public class MusicPlayerScreen extends Screen {
     private TextFieldWidget urlField;
     private VolumeSliderWidget volumeSlider;
+    private PositionSliderWidget positionSlider;
+    private QueueListWidget queueList;
+    private LibraryListWidget libraryList;
+    private TextFieldWidget searchField;
 
     public MusicPlayerScreen() {
         super(Text.literal("MineSongs Player"));
@@ -25,7 +29,7 @@ public class MusicPlayerScreen extends Screen {
                 Text.literal("Paste YouTube URL here")
         );
         urlField.setMaxLength(1000);
-        urlField.setPlaceholder(Text.literal("Paste full YouTube URL here..."));
+        urlField.setPlaceholder(Text.literal("Paste a YouTube song or playlist URL..."));
 
         // Add Enter key listener
         urlField.setChangedListener(text -> {
@@ -56,29 +60,28 @@ public class MusicPlayerScreen extends Screen {
             }
         }).dimensions(this.width / 2 - 100, 150, 200, 20).build());
 
-        // Play/Pause button - UPDATED with HUD notifications
+        // Play/Pause button
         this.addDrawableChild(ButtonWidget.builder(Text.literal("Play/Pause"), button -> {
-            boolean wasPlaying = nls.minesongs.MusicManager.isIsPlaying();
+            // Runs on the audio engine, which shows the HUD notification once the state has changed
             nls.minesongs.MusicManager.togglePlayPause();
-            boolean nowPlaying = nls.minesongs.MusicManager.isIsPlaying();
-            String currentTrack = nls.minesongs.MusicManager.getCurrentTrack();
-
-            // Show HUD notification
-            MusicHud.onPlaybackStateChanged(nowPlaying, currentTrack);
         }).dimensions(this.width / 2 - 100, 180, 200, 20).build());
 
-        // Stop button - UPDATED with HUD notifications
+        // Stop button
         this.addDrawableChild(ButtonWidget.builder(Text.literal("Stop"), button -> {
+            // The HUD hears about it through the playback event bus
             nls.minesongs.MusicManager.skipTrack();
-            // Show stopped notification
-            MusicHud.onPlaybackStateChanged(false, "Playback stopped");
         }).dimensions(this.width / 2 - 100, 210, 200, 20).build());
 
-        // Next Song button - UPDATED with HUD notifications
+        // Previous Song button, restarts the current song once it is a few seconds in
+        this.addDrawableChild(ButtonWidget.builder(Text.literal("Previous"), button -> {
+            nls.minesongs.MusicManager.playPrevious();
+        }).dimensions(this.width / 2 - 100, 240, 98, 20).build());
+
+        // Next Song button
         this.addDrawableChild(ButtonWidget.builder(Text.literal("Next Song"), button -> {
             nls.minesongs.MusicManager.skipToNext();
             // Notification will be triggered automatically when the next song starts
-        }).dimensions(this.width / 2 - 100, 240, 200, 20).build());
+        }).dimensions(this.width / 2 + 2, 240, 98, 20).build());
 
         // Clear Queue button
         this.addDrawableChild(ButtonWidget.builder(Text.literal("Clear Queue"), button -> {
@@ -89,7 +92,48 @@ public class MusicPlayerScreen extends Screen {
         this.addDrawableChild(ButtonWidget.builder(Text.literal("Loop: " + (nls.minesongs.MusicManager.isLooping() ? "ON" : "OFF")), button -> {
             nls.minesongs.MusicManager.toggleLoop();
             button.setMessage(Text.literal("Loop: " + (nls.minesongs.MusicManager.isLooping() ? "ON" : "OFF")));
-        }).dimensions(this.width / 2 - 100, 300, 200, 20).build());
+        }).dimensions(this.width / 2 - 100, 300, 98, 20).build());
+
+        // Shuffle toggle button; turning it off restores the queue's order
+        this.addDrawableChild(ButtonWidget.builder(Text.literal("Shuffle: " + (nls.minesongs.MusicManager.isShuffled() ? "ON" : "OFF")), button -> {
+            nls.minesongs.MusicManager.toggleShuffle();
+            button.setMessage(Text.literal("Shuffle: " + (nls.minesongs.MusicManager.isShuffled() ? "ON" : "OFF")));
+        }).dimensions(this.width / 2 + 2, 300, 98, 20).build());
+
+        // Position bar; drag it to seek within the current song
+        positionSlider = new PositionSliderWidget(this.width / 2 - 100, 325, 200, 20);
+        this.addDrawableChild(positionSlider);
+
+        // Queue panel to the right of the controls, when the window is wide enough
+        int queueX = this.width / 2 + 160;
+        int queueWidth = Math.min(220, this.width - queueX - 10);
+        if (queueWidth >= 100) {
+            queueList = new QueueListWidget(queueX, 60, queueWidth, 260);
+            this.addDrawableChild(queueList);
+        } else {
+            queueList = null;
+        }
+
+        // Library panel to the left, mirroring the queue; click a song to queue it, shift-click to play it
+        int libraryWidth = Math.min(220, this.width / 2 - 160 - 10);
+        if (libraryWidth >= 100) {
+            int libraryX = this.width / 2 - 160 - libraryWidth;
+            libraryList = new LibraryListWidget(libraryX, 60, libraryWidth, 260);
+            // Searches the library, the cache and the history as you type; Enter queues the best match
+            searchField = new TextFieldWidget(this.textRenderer, libraryX, 40, libraryWidth, 16,
+                    Text.literal("Search songs"));
+            searchField.setMaxLength(200);
+            searchField.setPlaceholder(Text.literal("Search songs..."));
+            searchField.setChangedListener(libraryList::setQuery);
+            this.addDrawableChild(searchField);
+            this.addDrawableChild(libraryList);
+            this.addDrawableChild(ButtonWidget.builder(Text.literal("Rescan Library"), button -> {
+                nls.minesongs.MusicManager.scanLibrary();
+            }).dimensions(libraryX, 325, libraryWidth, 20).build());
+        } else {
+            libraryList = null;
+            searchField = null;
+        }
 
         // Set initial focus to the URL field so user can type immediately
         this.setInitialFocus(urlField);
@@ -102,9 +146,31 @@ public class MusicPlayerScreen extends Screen {
             playCurrentURL();
             return true;
         }
+        if ((keyCode == 257 || keyCode == 335) && searchField != null && this.getFocused() == searchField) {
+            nls.minesongs.SearchIndex.Hit hit = libraryList.topHit();
+            if (hit != null) {
+                nls.minesongs.MusicManager.addToQueue(hit);
+            }
+            return true;
+        }
         return super.keyPressed(keyCode, scanCode, modifiers);
     }
 
+    @Override
+    public boolean mouseReleased(double mouseX, double mouseY, int button) {
+        // A row dropped outside the panel still has to finish its drag
+        if (queueList != null && queueList.isDraggingRow()) {
+            setDragging(false);
+            return queueList.mouseReleased(mouseX, mouseY, button);
+        }
+        // Same for the position bar, which seeks where it was let go
+        if (positionSlider != null && positionSlider.isGrabbed()) {
+            setDragging(false);
+            return positionSlider.mouseReleased(mouseX, mouseY, button);
+        }
+        return super.mouseReleased(mouseX, mouseY, button);
+    }
+
     private void playCurrentURL() {
         String url = urlField.getText();
         if (!url.isEmpty()) {
@@ -119,24 +185,31 @@ public class MusicPlayerScreen extends Screen {
         this.renderBackground(context, mouseX, mouseY, delta);
         context.drawCenteredTextWithShadow(this.textRenderer, this.title, this.width / 2, 20, 0xFFFFFF);
 
+        // One snapshot per frame, so the lines below never mix two different states
+        nls.minesongs.PlaybackState state = nls.minesongs.MusicManager.getState();
+
         // Display current track status
-        boolean playing = nls.minesongs.MusicManager.isIsPlaying();
         String status = "Stopped";
-        if (nls.minesongs.MusicManager.getCurrentTrack() != null && !nls.minesongs.MusicManager.getCurrentTrack().isEmpty()) {
-            status = playing ? "Now Playing" : "Paused";
+        if (state.hasTrack()) {
+            status = state.playing() ? "Now Playing" : "Paused";
+            // Titles come from the metadata cache and show up once resolved
+            status += ": " + nls.minesongs.MusicManager.getCurrentSongTitle();
+            nls.minesongs.TrackMetadata meta = nls.minesongs.MusicManager.getTrackMetadata(state.track());
+            if (meta != null && meta.durationSeconds() > 0) {
+                status += String.format(" (%d:%02d)", meta.durationSeconds() / 60, meta.durationSeconds() % 60);
+            }
         }
         context.drawTextWithShadow(this.textRenderer, Text.literal("Status: " + status), this.width / 2 - 150, 40, 0xFFFFFF);
 
-        // Display current volume
-        context.drawTextWithShadow(this.textRenderer, Text.literal("Volume: " + (int)nls.minesongs.MusicManager.getVolume() + "%"), this.width / 2 - 150, 320, 0xFFFFFF);
+        positionSlider.follow(state.hasTrack());
 
         // Display queue information
         int queueSize = nls.minesongs.MusicManager.getQueueSize();
-        context.drawTextWithShadow(this.textRenderer, Text.literal("Queue: " + queueSize + " songs"), this.width / 2 - 150, 340, 0xFFFFFF);
+        context.drawTextWithShadow(this.textRenderer, Text.literal("Queue: " + queueSize + " songs"), this.width / 2 - 150, 350, 0xFFFFFF);
 
         // Display loop status
-        String loopStatus = nls.minesongs.MusicManager.isLooping() ? "ON" : "OFF";
-        context.drawTextWithShadow(this.textRenderer, Text.literal("Loop: " + loopStatus), this.width / 2 - 150, 360, 0xFFFFFF);
+        String loopStatus = state.looping() ? "ON" : "OFF";
+        context.drawTextWithShadow(this.textRenderer, Text.literal("Loop: " + loopStatus), this.width / 2 - 150, 365, 0xFFFFFF);
 
         // Display "Press Enter to play" hint
         context.drawTextWithShadow(this.textRenderer, Text.literal("Press Enter to play"), this.width / 2 - 150, 380, 0xAAAAAA);
@@ -160,4 +233,77 @@ public class MusicPlayerScreen extends Screen {
             nls.minesongs.MusicManager.setVolume((float)(this.value * 100));
         }
     }
-}
\ No newline at end of file
+
+    // Follows the playing position; seeks once the handle is let go, or on every arrow key press
+    private static class PositionSliderWidget extends SliderWidget {
+        // How long the bar keeps showing a seek target before following the player again
+        private static final long SEEK_SETTLE_MILLIS = 500;
+
+        private boolean grabbed = false;
+        private long durationMillis = 0;
+        private long shownSecond = -1;
+        private long settleUntil = 0;
+
+        public PositionSliderWidget(int x, int y, int width, int height) {
+            super(x, y, width, height, Text.literal("0:00 / 0:00"), 0);
+        }
+
+        public boolean isGrabbed() {
+            return grabbed;
+        }
+
+        // Called every frame; the label is only rebuilt when the second shown changes
+        public void follow(boolean hasTrack) {
+            durationMillis = hasTrack ? nls.minesongs.MusicManager.getDurationMillis() : 0;
+            this.active = durationMillis > 0;
+            if (!grabbed && System.currentTimeMillis() >= settleUntil) {
+                long position = hasTrack ? nls.minesongs.MusicManager.getPositionMillis() : 0;
+                this.value = durationMillis > 0 ? Math.min(1, (double) position / durationMillis) : 0;
+            }
+            long second = (long) (this.value * durationMillis) / 1000;
+            if (second != shownSecond) {
+                updateMessage();
+            }
+        }
+
+        @Override
+        public void onClick(double mouseX, double mouseY) {
+            grabbed = true;
+            super.onClick(mouseX, mouseY);
+        }
+
+        @Override
+        public void onRelease(double mouseX, double mouseY) {
+            super.onRelease(mouseX, mouseY);
+            if (grabbed) {
+                grabbed = false;
+                seek();
+            }
+        }
+
+        @Override
+        protected void updateMessage() {
+            shownSecond = (long) (this.value * durationMillis) / 1000;
+            this.setMessage(Text.literal(format(shownSecond) + " / " + format(durationMillis / 1000)));
+        }
+
+        @Override
+        protected void applyValue() {
+            // While dragging only the label moves; the seek happens on release
+            if (!grabbed) {
+                seek();
+            }
+        }
+
+        private void seek() {
+            if (durationMillis > 0) {
+                settleUntil = System.currentTimeMillis() + SEEK_SETTLE_MILLIS;
+                nls.minesongs.MusicManager.seekTo((long) (this.value * durationMillis));
+            }
+        }
+
+        private static String format(long seconds) {
+            return String.format("%d:%02d", seconds / 60, seconds % 60);
+        }
+    }
+}
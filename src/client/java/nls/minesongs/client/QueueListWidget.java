@@ -0,0 +1,215 @@
+package nls.minesongs.client;
+
+import nls.minesongs.MusicManager;
+import nls.minesongs.SongQueue;
+import nls.minesongs.TrackMetadata;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.font.TextRenderer;
+import net.minecraft.client.gui.DrawContext;
+import net.minecraft.client.gui.screen.narration.NarrationMessageBuilder;
+import net.minecraft.client.gui.screen.narration.NarrationPart;
+import net.minecraft.client.gui.widget.ClickableWidget;
+import net.minecraft.text.Text;
+
+// Scrollable view of the queue that only builds and draws the rows on screen, so a queue of thousands
+// costs the same per frame as a short one. It reads MusicManager's immutable queue snapshot directly;
+// a new snapshot instance is the signal that labels need rebuilding. Rows can be dragged to reorder them,
+// and the cross at the end of a row removes it; both act on entry handles, so they cannot hit the wrong
+// row if the queue moves on in between.
+public class QueueListWidget extends ClickableWidget {
+    private static final int ROW_HEIGHT = 12;
+    private static final int REMOVE_WIDTH = 10;
+    private static final int SCROLLBAR_WIDTH = 3;
+    // Titles resolve in the background, so visible labels are refreshed this often even without changes
+    private static final long LABEL_REFRESH_MILLIS = 1000;
+    private static final Text EMPTY = Text.literal("Queue is empty");
+    private static final Text REMOVE = Text.literal("✕");
+
+    private final TextRenderer textRenderer;
+
+    private SongQueue.Snapshot queue = SongQueue.Snapshot.EMPTY;
+    private double scroll = 0;
+
+    // Labels for the rows currently on screen, starting at labelsFirst
+    private Text[] labels = new Text[0];
+    private int labelsFirst = -1;
+    private SongQueue.Snapshot labelsQueue = null;
+    private long labelsBuilt = 0;
+
+    private int dragIndex = -1;
+    private long dragHandle = 0;
+    private int dropIndex = -1;
+
+    public QueueListWidget(int x, int y, int width, int height) {
+        super(x, y, width, height, Text.literal("Queue"));
+        this.textRenderer = MinecraftClient.getInstance().textRenderer;
+    }
+
+    private int visibleRows() {
+        return getHeight() / ROW_HEIGHT + 1;
+    }
+
+    private int maxScroll() {
+        return Math.max(0, queue.size() * ROW_HEIGHT - getHeight());
+    }
+
+    private int rowAt(double mouseY) {
+        return (int) Math.floor((mouseY - getY() + scroll) / ROW_HEIGHT);
+    }
+
+    @Override
+    protected void renderWidget(DrawContext context, int mouseX, int mouseY, float delta) {
+        SongQueue.Snapshot current = MusicManager.getQueue();
+        if (current != queue) {
+            queue = current;
+            if (dragIndex >= queue.size() || (dragIndex >= 0 && queue.get(dragIndex).handle() != dragHandle)) {
+                cancelDrag();
+            }
+        }
+        scroll = Math.max(0, Math.min(scroll, maxScroll()));
+
+        int x = getX();
+        int y = getY();
+        int width = getWidth();
+        int height = getHeight();
+        context.fill(x, y, x + width, y + height, 0x80000000);
+
+        if (queue.isEmpty()) {
+            context.drawTextWithShadow(textRenderer, EMPTY, x + 4, y + 4, 0x888888);
+            return;
+        }
+
+        int first = (int) (scroll / ROW_HEIGHT);
+        int last = Math.min(queue.size(), first + visibleRows());
+        updateLabels(first, last);
+
+        context.enableScissor(x, y, x + width, y + height);
+        for (int index = first; index < last; index++) {
+            int rowY = y + index * ROW_HEIGHT - (int) scroll;
+            boolean hovered = mouseY >= rowY && mouseY < rowY + ROW_HEIGHT && mouseX >= x && mouseX < x + width;
+            if (index == dragIndex) {
+                context.fill(x, rowY, x + width, rowY + ROW_HEIGHT, 0x60FFFFFF);
+            } else if (hovered && dragIndex < 0) {
+                context.fill(x, rowY, x + width, rowY + ROW_HEIGHT, 0x30FFFFFF);
+            }
+            context.drawTextWithShadow(textRenderer, labels[index - first], x + 4, rowY + 2, 0xFFFFFF);
+            if (hovered && dragIndex < 0) {
+                context.drawTextWithShadow(textRenderer, REMOVE, x + width - REMOVE_WIDTH - SCROLLBAR_WIDTH, rowY + 2, 0xFF5555);
+            }
+        }
+        if (dragIndex >= 0 && dropIndex >= 0) {
+            // Where the dragged row will land
+            int lineY = y + (dropIndex > dragIndex ? dropIndex + 1 : dropIndex) * ROW_HEIGHT - (int) scroll;
+            context.fill(x, lineY - 1, x + width, lineY + 1, 0xFF55FF55);
+        }
+        context.disableScissor();
+
+        int contentHeight = queue.size() * ROW_HEIGHT;
+        if (contentHeight > height) {
+            int thumbHeight = Math.max(8, height * height / contentHeight);
+            int thumbY = y + (int) ((height - thumbHeight) * scroll / maxScroll());
+            context.fill(x + width - SCROLLBAR_WIDTH, thumbY, x + width, thumbY + thumbHeight, 0xFFAAAAAA);
+        }
+    }
+
+    // Rebuilds labels only when the queue, the visible range or the refresh interval changes
+    private void updateLabels(int first, int last) {
+        long now = System.currentTimeMillis();
+        if (labelsQueue == queue && labelsFirst == first && labels.length == last - first
+                && now - labelsBuilt < LABEL_REFRESH_MILLIS) {
+            return;
+        }
+        labelsQueue = queue;
+        labelsFirst = first;
+        labelsBuilt = now;
+        labels = new Text[last - first];
+        int maxWidth = getWidth() - 8 - REMOVE_WIDTH - SCROLLBAR_WIDTH;
+        for (int index = first; index < last; index++) {
+            String label = (index + 1) + ". " + titleOf(queue.get(index));
+            if (textRenderer.getWidth(label) > maxWidth) {
+                label = textRenderer.trimToWidth(label, maxWidth - textRenderer.getWidth("...")) + "...";
+            }
+            labels[index - first] = Text.literal(label);
+        }
+    }
+
+    private static String titleOf(SongQueue.Entry entry) {
+        TrackMetadata meta = MusicManager.getTrackMetadata(entry.url());
+        if (meta != null && meta.title() != null && !meta.title().isEmpty()) {
+            return meta.title();
+        }
+        return entry.title() != null && !entry.title().isEmpty() ? entry.title() : entry.url();
+    }
+
+    @Override
+    public boolean mouseScrolled(double mouseX, double mouseY, double horizontalAmount, double verticalAmount) {
+        if (!isMouseOver(mouseX, mouseY)) {
+            return false;
+        }
+        scroll = Math.max(0, Math.min(maxScroll(), scroll - verticalAmount * ROW_HEIGHT * 3));
+        return true;
+    }
+
+    @Override
+    public boolean mouseClicked(double mouseX, double mouseY, int button) {
+        if (!active || !visible || button != 0 || !isMouseOver(mouseX, mouseY)) {
+            return false;
+        }
+        int index = rowAt(mouseY);
+        if (index < 0 || index >= queue.size()) {
+            return false;
+        }
+        long handle = queue.get(index).handle();
+        if (mouseX >= getX() + getWidth() - REMOVE_WIDTH - SCROLLBAR_WIDTH) {
+            MusicManager.removeFromQueue(handle);
+            return true;
+        }
+        dragIndex = index;
+        dragHandle = handle;
+        dropIndex = index;
+        return true;
+    }
+
+    @Override
+    public boolean mouseDragged(double mouseX, double mouseY, int button, double deltaX, double deltaY) {
+        if (dragIndex < 0) {
+            return false;
+        }
+        // Scroll along when dragging past the top or bottom edge
+        if (mouseY < getY()) {
+            scroll = Math.max(0, scroll - ROW_HEIGHT / 2.0);
+        } else if (mouseY > getY() + getHeight()) {
+            scroll = Math.min(maxScroll(), scroll + ROW_HEIGHT / 2.0);
+        }
+        dropIndex = Math.max(0, Math.min(queue.size() - 1, rowAt(Math.max(getY(), Math.min(getY() + getHeight() - 1, mouseY)))));
+        return true;
+    }
+
+    // The screen forwards every release here, since it only reaches hovered widgets otherwise
+    @Override
+    public boolean mouseReleased(double mouseX, double mouseY, int button) {
+        if (dragIndex < 0) {
+            return false;
+        }
+        if (dropIndex >= 0 && dropIndex != dragIndex) {
+            MusicManager.moveInQueue(dragHandle, queue.get(dropIndex).handle(), dropIndex > dragIndex);
+        }
+        cancelDrag();
+        return true;
+    }
+
+    private void cancelDrag() {
+        dragIndex = -1;
+        dragHandle = 0;
+        dropIndex = -1;
+    }
+
+    public boolean isDraggingRow() {
+        return dragIndex >= 0;
+    }
+
+    @Override
+    protected void appendClickableNarrations(NarrationMessageBuilder builder) {
+        builder.put(NarrationPart.TITLE, Text.literal("Queue: " + queue.size() + " songs"));
+    }
+}
@@ -0,0 +1,79 @@
+package nls.minesongs;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.sampled.AudioInputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// Decoding recorded compressed files the way the player opens cached songs: mp3spi for MP3, FFmpeg
+// (-Dminesongs.ffmpeg, "ffmpeg" on the PATH by default) for the rest. The fixtures must be about 10
+// seconds long; setup fails when they were not supplied with -PjmhFixtures.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CompressedDecodeBenchmark {
+    private static final int SECONDS = 10;
+
+    @Param({"mp3-16-44100-2", "opus-16-48000-2", "aac-16-44100-2"})
+    public String fixture;
+
+    private Path file;
+    private String ffmpeg;
+    private ProcessSupervisor processes;
+    private final byte[] buffer = new byte[64 * 1024];
+
+    @Setup
+    public void setUp() throws IOException {
+        file = Fixtures.file(fixture, SECONDS);
+        ffmpeg = System.getProperty("minesongs.ffmpeg", "ffmpeg");
+        processes = new ProcessSupervisor(Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "jmh-ffmpeg");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    @Benchmark
+    public long decodeAll() throws IOException {
+        long total = 0;
+        try (AudioInputStream in = open()) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                total += read;
+            }
+        }
+        return total;
+    }
+
+    // Startup latency, which for FFmpeg includes starting the process
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int openToFirstChunk() throws IOException {
+        AudioInputStream in = open();
+        if (!in.getFormat().matches(AudioMixer.FORMAT)) {
+            in = PcmConverter.convert(in, AudioMixer.FORMAT);
+        }
+        try (AudioInputStream stream = in) {
+            return stream.read(buffer, 0, 4096 * AudioMixer.FORMAT.getFrameSize());
+        }
+    }
+
+    private AudioInputStream open() throws IOException {
+        AudioInputStream in = AudioDecoders.open(file, ffmpeg, processes);
+        if (in == null) {
+            throw new IOException("Could not decode " + file);
+        }
+        return in;
+    }
+}
@@ -0,0 +1,52 @@
+package nls.minesongs;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// PcmConverter from in-memory PCM to the mixer format; one op is 10 seconds of audio
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ConvertBenchmark {
+    private static final int SECONDS = 10;
+
+    @Param({"pcm-16-44100-1", "pcm-16-48000-2", "pcmbe-24-96000-2", "float-32-48000-2", "pcm-16-22050-6"})
+    public String source;
+
+    private AudioFormat format;
+    private byte[] pcm;
+    private final byte[] buffer = new byte[64 * 1024];
+
+    @Setup
+    public void setUp() {
+        format = Fixtures.format(source);
+        pcm = Fixtures.pcm(format, SECONDS);
+    }
+
+    @Benchmark
+    public long convert() throws IOException {
+        AudioInputStream in = new AudioInputStream(new ByteArrayInputStream(pcm), format,
+                pcm.length / format.getFrameSize());
+        long total = 0;
+        try (AudioInputStream converted = PcmConverter.convert(in, AudioMixer.FORMAT)) {
+            int read;
+            while ((read = converted.read(buffer)) >= 0) {
+                total += read;
+            }
+        }
+        return total;
+    }
+}
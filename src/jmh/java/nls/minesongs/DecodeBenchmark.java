@@ -0,0 +1,106 @@
+package nls.minesongs;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.sampled.AudioInputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// Decoding cached files through the Java Sound providers, or the memory mapping used for WAV and AIFF.
+// decodeAll reads a whole 10 second fixture, so its time per op divided by 10 is the CPU cost per
+// second of audio.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DecodeBenchmark {
+    private static final int SECONDS = 10;
+
+    @Param({"wav-16-44100-2", "wav-24-48000-2", "aiff-16-44100-2", "wav-8-22050-1"})
+    public String fixture;
+
+    // Where the seek benchmarks jump to, near the end so skipping has the most to read
+    private static final double SEEK_SECONDS = 8;
+
+    private Path file;
+    private SeekIndex index;
+    private final byte[] buffer = new byte[64 * 1024];
+
+    @Setup
+    public void setUp() throws IOException {
+        file = Fixtures.file(fixture, SECONDS);
+        index = SeekIndex.build(file);
+    }
+
+    @Benchmark
+    public long decodeAll() throws IOException {
+        long total = 0;
+        try (AudioInputStream in = AudioDecoders.openWithJava(file)) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                total += read;
+            }
+        }
+        return total;
+    }
+
+    // The same read through a memory mapping, copied straight from the mapped pages into the buffer
+    @Benchmark
+    public long decodeAllMapped() throws IOException {
+        long total = 0;
+        try (AudioInputStream in = MappedPcm.open(file, 0)) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                total += read;
+            }
+        }
+        return total;
+    }
+
+    // Startup latency: open the file and get the first mixer-sized chunk in the mixer format
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int openToFirstChunk() throws IOException {
+        AudioInputStream in = AudioDecoders.openWithJava(file);
+        if (!in.getFormat().matches(AudioMixer.FORMAT)) {
+            in = PcmConverter.convert(in, AudioMixer.FORMAT);
+        }
+        try (AudioInputStream stream = in) {
+            return stream.read(buffer, 0, 4096 * AudioMixer.FORMAT.getFrameSize());
+        }
+    }
+
+    // A seek through the index recorded at cache time: open at the target and read the first chunk
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int seekIndexed() throws IOException {
+        try (AudioInputStream in = AudioDecoders.openAt(file, index, SEEK_SECONDS, null, null)) {
+            return in.read(buffer, 0, 4096 * in.getFormat().getFrameSize());
+        }
+    }
+
+    // The same seek without an index: reopen and skip everything before the target
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int seekSkipping() throws IOException {
+        try (AudioInputStream in = AudioDecoders.openWithJava(file)) {
+            long skip = (long) (SEEK_SECONDS * in.getFormat().getFrameRate()) * in.getFormat().getFrameSize();
+            while (skip > 0) {
+                long skipped = in.skip(skip);
+                if (skipped <= 0) {
+                    break;
+                }
+                skip -= skipped;
+            }
+            return in.read(buffer, 0, 4096 * in.getFormat().getFrameSize());
+        }
+    }
+}
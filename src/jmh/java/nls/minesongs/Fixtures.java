@@ -0,0 +1,121 @@
+package nls.minesongs;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.Set;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+// Benchmark audio. Fixtures are named "<type>-<bits>-<rate>-<channels>", e.g. "wav-24-48000-2";
+// type is wav, aiff, pcm (raw little-endian), pcmbe (raw big-endian) or float (raw 32-bit float).
+// A recording named like the fixture in the -Dminesongs.fixtures folder replaces the synthesized one.
+// mp3, opus and aac fixtures can't be synthesized, so they must be recordings; bits, rate and channels
+// then describe the decoded PCM.
+public final class Fixtures {
+    private static final String FIXTURE_DIR_PROPERTY = "minesongs.fixtures";
+    private static final Set<String> RECORDED_ONLY = Set.of("mp3", "opus", "aac");
+    private static Path tempDir;
+
+    private Fixtures() {
+    }
+
+    public static AudioFormat format(String name) {
+        String[] parts = name.split("-");
+        String type = parts[0];
+        int bits = Integer.parseInt(parts[1]);
+        float rate = Float.parseFloat(parts[2]);
+        int channels = Integer.parseInt(parts[3]);
+        AudioFormat.Encoding encoding = type.equals("float") ? AudioFormat.Encoding.PCM_FLOAT
+                : bits == 8 && type.equals("wav") ? AudioFormat.Encoding.PCM_UNSIGNED
+                : AudioFormat.Encoding.PCM_SIGNED;
+        boolean bigEndian = type.equals("aiff") || type.equals("pcmbe");
+        return new AudioFormat(encoding, rate, bits, channels, channels * bits / 8, rate, bigEndian);
+    }
+
+    // A file to decode: the recording if one was supplied, otherwise a synthesized WAV or AIFF
+    public static Path file(String name, int seconds) throws IOException {
+        Path recorded = recorded(name);
+        if (recorded != null) {
+            return recorded;
+        }
+        // Falling back to PCM here would report WAV decoding under the name of a compressed format
+        if (RECORDED_ONLY.contains(name.split("-")[0])) {
+            throw new IllegalStateException("No recording for fixture " + name + ": run with -PjmhFixtures=<dir>"
+                    + " pointing at a folder that holds " + name + ".<ext>");
+        }
+        if (tempDir == null) {
+            tempDir = Files.createTempDirectory("minesongs-jmh");
+        }
+        boolean aiff = name.startsWith("aiff");
+        Path file = tempDir.resolve(name + (aiff ? ".aiff" : ".wav"));
+        if (!Files.exists(file)) {
+            AudioFormat format = format(name);
+            byte[] pcm = pcm(format, seconds);
+            AudioInputStream stream = new AudioInputStream(new ByteArrayInputStream(pcm), format,
+                    pcm.length / format.getFrameSize());
+            AudioSystem.write(stream, aiff ? AudioFileFormat.Type.AIFF : AudioFileFormat.Type.WAVE, file.toFile());
+        }
+        return file;
+    }
+
+    private static Path recorded(String name) throws IOException {
+        String dir = System.getProperty(FIXTURE_DIR_PROPERTY);
+        if (dir == null || dir.isEmpty()) {
+            return null;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Path.of(dir), name + ".*")) {
+            for (Path file : files) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    // Deterministic stand-in for music: a few detuned partials, a slow tremolo and some noise,
+    // at around -14 dBFS so nothing clips
+    public static byte[] pcm(AudioFormat format, int seconds) {
+        int channels = format.getChannels();
+        int bytes = format.getSampleSizeInBits() / 8;
+        float rate = format.getSampleRate();
+        int frames = (int) (rate * seconds);
+        boolean floating = format.getEncoding().equals(AudioFormat.Encoding.PCM_FLOAT);
+        boolean unsigned = format.getEncoding().equals(AudioFormat.Encoding.PCM_UNSIGNED);
+        Random random = new Random(42);
+        byte[] data = new byte[frames * channels * bytes];
+
+        for (int frame = 0; frame < frames; frame++) {
+            double t = frame / (double) rate;
+            double envelope = 0.6 + 0.4 * Math.sin(2 * Math.PI * 0.5 * t);
+            for (int channel = 0; channel < channels; channel++) {
+                double detune = 1 + channel * 0.002;
+                double sample = envelope * (0.10 * Math.sin(2 * Math.PI * 110 * detune * t)
+                        + 0.06 * Math.sin(2 * Math.PI * 440 * detune * t)
+                        + 0.03 * Math.sin(2 * Math.PI * 2637 * detune * t))
+                        + 0.01 * random.nextGaussian();
+                int value;
+                if (floating) {
+                    value = Float.floatToIntBits((float) sample);
+                } else {
+                    long max = (1L << (bytes * 8 - 1)) - 1;
+                    value = (int) Math.round(sample * max);
+                    if (unsigned) {
+                        value += (int) (max + 1);
+                    }
+                }
+                int i = (frame * channels + channel) * bytes;
+                for (int k = 0; k < bytes; k++) {
+                    int shift = format.isBigEndian() ? 8 * (bytes - 1 - k) : 8 * k;
+                    data[i + k] = (byte) (value >> shift);
+                }
+            }
+        }
+        return data;
+    }
+}
@@ -0,0 +1,71 @@
+package nls.minesongs;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// The per-chunk volume path of the mixer: track gain, then the DSP chain. One op is one mixer chunk
+// (4096 frames, about 93 ms of audio).
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GainBenchmark {
+    private static final int CHUNK_FRAMES = 4096;
+
+    @Param({"flat", "eq"})
+    public String equalizer;
+
+    private DspChain dsp;
+    private byte[] source;
+    private byte[] chunk;
+    private int volumeStep = 0;
+
+    @Setup
+    public void setUp() {
+        dsp = new DspChain(AudioMixer.FORMAT, CHUNK_FRAMES);
+        dsp.setVolume(70);
+        if (equalizer.equals("eq")) {
+            dsp.setEqualizer(4, -2, 3);
+        }
+        source = Fixtures.pcm(AudioMixer.FORMAT, 1);
+        chunk = new byte[CHUNK_FRAMES * AudioMixer.FORMAT.getFrameSize()];
+    }
+
+    @Benchmark
+    public byte[] dspChain() {
+        System.arraycopy(source, 0, chunk, 0, chunk.length);
+        dsp.process(chunk, chunk.length);
+        return chunk;
+    }
+
+    // Volume slider being dragged: the smoothed gain never settles
+    @Benchmark
+    public byte[] dspChainWhileRamping() {
+        dsp.setVolume((volumeStep++ & 1) == 0 ? 30 : 90);
+        System.arraycopy(source, 0, chunk, 0, chunk.length);
+        dsp.process(chunk, chunk.length);
+        return chunk;
+    }
+
+    @Benchmark
+    public byte[] trackGain() {
+        System.arraycopy(source, 0, chunk, 0, chunk.length);
+        DspChain.scale(chunk, 0, chunk.length, 0.71f);
+        return chunk;
+    }
+
+    // Loudness measurement of one second of audio, run once per newly cached song
+    @Benchmark
+    public LoudnessAnalyzer.Result loudnessPerSecond() throws IOException {
+        return LoudnessAnalyzer.analyze(new ByteArrayInputStream(source), AudioMixer.FORMAT, () -> false);
+    }
+}
@@ -0,0 +1,88 @@
+package nls.minesongs;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// Queue changes as MusicManager makes them, with the UI adding and reordering songs, the engine taking
+// them off the front and the screen reading snapshots at once
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class QueueBenchmark {
+    @Param({"10", "500", "5000"})
+    public int queueLength;
+
+    @Param({"false", "true"})
+    public boolean shuffled;
+
+    private SongQueue queue;
+    private final AtomicInteger counter = new AtomicInteger();
+
+    @Setup
+    public void setUp() {
+        queue = new SongQueue(MinesongsConfig.queueHistorySize);
+        for (int i = 0; i < queueLength; i++) {
+            queue.add(url(i), null, 0);
+        }
+        queue.setShuffled(shuffled);
+    }
+
+    private static String url(int i) {
+        return "https://www.youtube.com/watch?v=" + Integer.toString(i, 36);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(2)
+    public SongQueue.Entry add() {
+        // Keep the queue near its starting length so every iteration measures the same size
+        if (queue.size() >= queueLength * 2) {
+            return null;
+        }
+        return queue.add(url(counter.incrementAndGet()), null, 0);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public SongQueue.Entry poll() {
+        SongQueue.Entry entry = queue.poll();
+        if (entry != null) {
+            queue.pushHistory(entry.url());
+        }
+        return entry;
+    }
+
+    // A drag and drop from the queue panel: handles come from the snapshot the screen is showing
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public boolean move() {
+        SongQueue.Snapshot snapshot = queue.snapshot();
+        if (snapshot.size() < 2) {
+            return false;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return queue.move(snapshot.get(random.nextInt(snapshot.size())).handle(),
+                snapshot.get(random.nextInt(snapshot.size())).handle(), random.nextBoolean());
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public SongQueue.Snapshot snapshot() {
+        return queue.snapshot();
+    }
+}
@@ -0,0 +1,68 @@
+package nls.minesongs;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// The search box as it is typed into: every keystroke is one query, and each has to fit in a frame
+// next to everything else the screen draws. Broad one-letter queries are the slow case.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchBenchmark {
+    private static final String[] WORDS = ("love night heart dream fire rain blue summer dance light moon star "
+            + "road home time wild gold river shadow ocean").split(" ");
+
+    @Param({"1000", "10000", "50000"})
+    public int songs;
+
+    @Param({"l", "lo", "love", "love ni", "ight", "river gold"})
+    public String query;
+
+    private SearchIndex index;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        index = new SearchIndex();
+        for (int i = 0; i < songs; i++) {
+            index.add(url(i), url(i), title(random, i), "Artist " + random.nextInt(songs / 20 + 1),
+                    "Album " + i / 12, 200, SearchIndex.LIBRARY);
+        }
+        next = songs;
+    }
+
+    private static String url(int i) {
+        return "file:///home/player/Music/" + i + ".mp3";
+    }
+
+    private static String title(Random random, int i) {
+        return WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " "
+                + Integer.toString(i, 36);
+    }
+
+    @Benchmark
+    public List<SearchIndex.Hit> search() {
+        return index.search(query, 100);
+    }
+
+    // A title resolved in the background while the box is in use
+    @Benchmark
+    public int describe() {
+        int i = next++;
+        index.add("yt-" + i, "https://www.youtube.com/watch?v=" + i, "", "", "", 0, SearchIndex.CACHE);
+        index.describe("yt-" + i, "Downloaded " + Integer.toString(i, 36), 180);
+        index.remove("yt-" + i, SearchIndex.CACHE);
+        return index.size();
+    }
+}
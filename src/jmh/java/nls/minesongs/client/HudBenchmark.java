@@ -0,0 +1,38 @@
+package nls.minesongs.client;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// What MusicHud does every frame besides drawing: animation, layout and the position bar.
+// Simulated 60 fps clock, cycling through the whole notification lifetime.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HudBenchmark {
+    private static final long FRAME_MILLIS = 16;
+    private static final long NOTIFICATION_MILLIS = 5000;
+    private static final long TRACK_MILLIS = 215_000;
+
+    private long start;
+    private long frame = 0;
+
+    @Setup
+    public void setUp() {
+        MusicHud.showNowPlaying("A fairly long song title that has to be cut down to fit in the notification box");
+        start = System.currentTimeMillis();
+    }
+
+    @Benchmark
+    public int frame() {
+        long now = start + (frame++ * FRAME_MILLIS) % NOTIFICATION_MILLIS;
+        int x = MusicHud.updateLayout(now, 640, false);
+        return x == MusicHud.HIDDEN ? x : x + MusicHud.positionBarWidth(now - start, TRACK_MILLIS, 197);
+    }
+}
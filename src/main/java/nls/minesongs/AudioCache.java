@@ -0,0 +1,489 @@
+package nls.minesongs;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+// Persistent audio cache keyed by YouTube video ID or a hash of the URL.
+// Entries are kept in least-recently-used order and evicted by size and age.
+public class AudioCache {
+    private static final String INDEX_FILE = "index.tsv";
+    private static final String PART_SUFFIX = ".part";
+    // Seek index of a cached file, kept next to it as "<file name>.seek"
+    private static final String SEEK_SUFFIX = ".seek";
+    private static final long TAIL_DRAIN_BYTES = 64 * 1024;
+
+    private final Path dir;
+    private final long maxBytes;
+    private final long maxAgeMillis;
+
+    // Access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalBytes = 0;
+    // Access times changed since the index was last written; they go out with the next write
+    private boolean accessesUnsaved = false;
+    private Consumer<String> addedListener;
+    private Consumer<String> removedListener;
+
+    private static class Entry {
+        final String key;
+        final String fileName;
+        final long size;
+        long lastAccess;
+        // Measured after the file is added; null until then
+        LoudnessAnalyzer.Result loudness;
+
+        Entry(String key, String fileName, long size, long lastAccess) {
+            this.key = key;
+            this.fileName = fileName;
+            this.size = size;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    public AudioCache(Path dir, long maxBytes, long maxAgeMillis) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    public Path getDirectory() {
+        return dir;
+    }
+
+    // Cache key for a song URL: the video ID for YouTube, a content hash of the URL otherwise
+    public static String keyFor(String url) {
+        String videoId = extractVideoId(url);
+        if (videoId != null) {
+            return "yt-" + videoId;
+        }
+        return "url-" + sha256(url.trim()).substring(0, 32);
+    }
+
+    public static String extractVideoId(String url) {
+        if (!url.contains("youtube.com") && !url.contains("youtu.be")) {
+            return null;
+        }
+        String id = null;
+        if (url.contains("v=")) {
+            id = url.substring(url.indexOf("v=") + 2);
+        } else if (url.contains("youtu.be/")) {
+            id = url.substring(url.indexOf("youtu.be/") + 9);
+        } else if (url.contains("/shorts/")) {
+            id = url.substring(url.indexOf("/shorts/") + 8);
+        }
+        if (id == null) {
+            return null;
+        }
+        int end = 0;
+        while (end < id.length() && isVideoIdChar(id.charAt(end))) {
+            end++;
+        }
+        return end > 0 ? id.substring(0, end) : null;
+    }
+
+    private static boolean isVideoIdChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_';
+    }
+
+    private static String sha256(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Reads the index written by the last session and drops anything that no longer matches the disk
+    public synchronized void load() {
+        long start = System.nanoTime();
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException e) {
+            Minesongs.LOGGER.warn("Failed to create cache directory: {}", e.getMessage());
+            return;
+        }
+
+        entries.clear();
+        totalBytes = 0;
+        Path index = dir.resolve(INDEX_FILE);
+        if (Files.exists(index)) {
+            try (BufferedReader reader = Files.newBufferedReader(index, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] parts = line.split("\t");
+                    if (parts.length < 4) {
+                        continue;
+                    }
+                    try {
+                        Entry entry = new Entry(parts[0], parts[1], Long.parseLong(parts[2]), Long.parseLong(parts[3]));
+                        if (parts.length >= 6) {
+                            entry.loudness = new LoudnessAnalyzer.Result(Double.parseDouble(parts[4]), Double.parseDouble(parts[5]));
+                        }
+                        if (Files.isRegularFile(dir.resolve(entry.fileName))) {
+                            entries.put(entry.key, entry);
+                            totalBytes += entry.size;
+                        }
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            } catch (IOException e) {
+                Minesongs.LOGGER.warn("Failed to read cache index: {}", e.getMessage());
+            }
+        }
+
+        removeUnindexedFiles();
+        evict();
+        Minesongs.LOGGER.info("Audio cache loaded: {} entries, {} MB in {} ms",
+                entries.size(), totalBytes / (1024 * 1024), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // Leftovers from interrupted downloads
+    private void removeUnindexedFiles() {
+        Set<String> known = new HashSet<>();
+        for (Entry entry : entries.values()) {
+            known.add(entry.fileName);
+            known.add(entry.fileName + SEEK_SUFFIX);
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (!name.equals(INDEX_FILE) && !known.contains(name) && Files.isRegularFile(file)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            Minesongs.LOGGER.warn("Failed to scan cache directory: {}", e.getMessage());
+        }
+    }
+
+    // Returns the cached file for this key and marks it as recently used, or null on a miss
+    public synchronized Path lookup(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        Path file = dir.resolve(entry.fileName);
+        if (!Files.isRegularFile(file)) {
+            entries.remove(key);
+            totalBytes -= entry.size;
+            saveIndex();
+            if (removedListener != null) {
+                removedListener.accept(key);
+            }
+            return null;
+        }
+        // Hits only move the access time, which is not worth a rewrite of the whole index each time
+        entry.lastAccess = System.currentTimeMillis();
+        accessesUnsaved = true;
+        return file;
+    }
+
+    public synchronized List<String> keys() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    public synchronized boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    // The cached file without touching its last access time or the index, or null on a miss
+    public synchronized Path peek(String key) {
+        Entry entry = entries.get(key);
+        return entry != null ? dir.resolve(entry.fileName) : null;
+    }
+
+    // Called with the key of every file added to the cache, while the cache is locked
+    public synchronized void setAddedListener(Consumer<String> listener) {
+        this.addedListener = listener;
+    }
+
+    // Called with the key of every entry dropped from the cache, while the cache is locked
+    public synchronized void setRemovedListener(Consumer<String> listener) {
+        this.removedListener = listener;
+    }
+
+    public synchronized LoudnessAnalyzer.Result getLoudness(String key) {
+        Entry entry = entries.get(key);
+        return entry != null ? entry.loudness : null;
+    }
+
+    // Stored with the entry, unless the file was replaced while it was being measured
+    public synchronized void setLoudness(String key, Path file, LoudnessAnalyzer.Result loudness) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.fileName.equals(file.getFileName().toString())) {
+            entry.loudness = loudness;
+            saveIndex();
+        }
+    }
+
+    // Read from the file written when the song was cached; null for files outside the cache, or cached
+    // before seek indexes were recorded
+    public SeekIndex getSeekIndex(Path file) {
+        if (!dir.equals(file.getParent())) {
+            return null;
+        }
+        return SeekIndex.read(file.resolveSibling(file.getFileName() + SEEK_SUFFIX));
+    }
+
+    // Stored next to the file, unless the file was replaced while it was being indexed
+    public synchronized void setSeekIndex(String key, Path file, SeekIndex index) {
+        Entry entry = entries.get(key);
+        if (entry == null || !entry.fileName.equals(file.getFileName().toString())) {
+            return;
+        }
+        try {
+            index.write(dir.resolve(entry.fileName + SEEK_SUFFIX));
+        } catch (IOException e) {
+            Minesongs.LOGGER.warn("Failed to write seek index for {}: {}", key, e.getMessage());
+        }
+    }
+
+    // Finds a freshly downloaded file named "<key>.<ext>" in the cache folder and adds it to the index.
+    // If an older copy in another format is still around, the newest file wins.
+    public synchronized Path registerDownloaded(String key) {
+        Path newest = null;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, key + ".*")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(PART_SUFFIX) || name.endsWith(SEEK_SUFFIX) || name.endsWith(".tmp")) {
+                    continue;
+                }
+                if (newest == null || Files.getLastModifiedTime(file).compareTo(Files.getLastModifiedTime(newest)) > 0) {
+                    newest = file;
+                }
+            }
+            return newest != null ? put(key, newest) : null;
+        } catch (IOException e) {
+            Minesongs.LOGGER.warn("Failed to find downloaded file for {}: {}", key, e.getMessage());
+        }
+        return null;
+    }
+
+    public synchronized Path put(String key, Path file) throws IOException {
+        Entry previous = entries.remove(key);
+        if (previous != null) {
+            totalBytes -= previous.size;
+            if (!previous.fileName.equals(file.getFileName().toString())) {
+                Files.deleteIfExists(dir.resolve(previous.fileName));
+            }
+            Files.deleteIfExists(dir.resolve(previous.fileName + SEEK_SUFFIX));
+        }
+
+        Entry entry = new Entry(key, file.getFileName().toString(), Files.size(file), System.currentTimeMillis());
+        entries.put(key, entry);
+        totalBytes += entry.size;
+        Minesongs.LOGGER.info("Cached {} ({} KB)", entry.fileName, entry.size / 1024);
+
+        evict();
+        saveIndex();
+        if (addedListener != null) {
+            addedListener.accept(key);
+        }
+        return file;
+    }
+
+    // Drops entries past the age limit, then least recently used entries until the size budget fits
+    public synchronized void evict() {
+        long oldest = System.currentTimeMillis() - maxAgeMillis;
+        int evicted = 0;
+
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            boolean tooOld = entry.lastAccess < oldest;
+            boolean overBudget = totalBytes > maxBytes;
+            if (!tooOld && !overBudget) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists(dir.resolve(entry.fileName));
+                Files.deleteIfExists(dir.resolve(entry.fileName + SEEK_SUFFIX));
+            } catch (IOException e) {
+                // Still open for playback (Windows), try again next time
+                continue;
+            }
+            it.remove();
+            totalBytes -= entry.size;
+            evicted++;
+            if (removedListener != null) {
+                removedListener.accept(entry.key);
+            }
+        }
+
+        if (evicted > 0) {
+            Minesongs.LOGGER.info("Evicted {} cached songs, {} MB in use", evicted, totalBytes / (1024 * 1024));
+            saveIndex();
+        }
+    }
+
+    // Writes out access times that only changed in memory; called as the game closes
+    public synchronized void flush() {
+        if (accessesUnsaved) {
+            saveIndex();
+        }
+    }
+
+    // Written to a temp file and moved into place so a crash never leaves a half-written index
+    private void saveIndex() {
+        accessesUnsaved = false;
+        Path index = dir.resolve(INDEX_FILE);
+        Path temp = dir.resolve(INDEX_FILE + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Entry entry : entries.values()) {
+                writer.write(entry.key + "\t" + entry.fileName + "\t" + entry.size + "\t" + entry.lastAccess);
+                if (entry.loudness != null) {
+                    writer.write("\t" + entry.loudness.integratedLufs() + "\t" + entry.loudness.peakDb());
+                }
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            Minesongs.LOGGER.warn("Failed to write cache index: {}", e.getMessage());
+            return;
+        }
+        try {
+            Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Minesongs.LOGGER.warn("Failed to replace cache index: {}", e.getMessage());
+        }
+    }
+
+    // Copies a remote stream into the cache while it is being read; the entry is only
+    // committed once the whole stream has been seen. expectedLength is -1 when unknown.
+    public InputStream cachingStream(String key, String extension, InputStream source, long expectedLength) throws IOException {
+        Files.createDirectories(dir);
+        // Unique per stream, so a loop or seek can reopen the URL while the previous copy is still open
+        Path part = Files.createTempFile(dir, key + "-", PART_SUFFIX);
+        Path target = dir.resolve(key + "." + extension);
+        return new CachingInputStream(source, part, target, key, expectedLength);
+    }
+
+    private class CachingInputStream extends FilterInputStream {
+        private final Path part;
+        private final Path target;
+        private final String key;
+        private final long expectedLength;
+        private final OutputStream out;
+        private long copied = 0;
+        private boolean complete = false;
+        private boolean failed = false;
+        private boolean closed = false;
+
+        CachingInputStream(InputStream source, Path part, Path target, String key, long expectedLength) throws IOException {
+            super(source);
+            this.part = part;
+            this.target = target;
+            this.key = key;
+            this.expectedLength = expectedLength;
+            this.out = Files.newOutputStream(part);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b < 0) {
+                complete = true;
+            } else {
+                copy(new byte[] {(byte) b}, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read < 0) {
+                complete = true;
+            } else {
+                copy(buffer, offset, read);
+            }
+            return read;
+        }
+
+        // Skipped bytes would leave a hole in the copy, so the copy is given up
+        @Override
+        public long skip(long n) throws IOException {
+            failed = true;
+            return super.skip(n);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void copy(byte[] buffer, int offset, int length) {
+            if (failed) {
+                return;
+            }
+            try {
+                out.write(buffer, offset, length);
+                copied += length;
+                PlaybackMetrics.add(PlaybackMetrics.Counter.BYTES_DOWNLOADED, length);
+            } catch (IOException e) {
+                failed = true;
+            }
+        }
+
+        // Decoders often stop at the end of the audio data and leave trailing chunks unread;
+        // pull in a small remainder so the copy still completes
+        private void drainTail() {
+            if (complete || failed || expectedLength < 0 || expectedLength - copied > TAIL_DRAIN_BYTES) {
+                return;
+            }
+            byte[] buffer = new byte[8192];
+            try {
+                while (read(buffer, 0, buffer.length) >= 0) {
+                    // copy() keeps the bytes
+                }
+            } catch (IOException e) {
+                failed = true;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            drainTail();
+            if (expectedLength >= 0 && copied != expectedLength) {
+                complete = false;
+            }
+            try {
+                super.close();
+            } finally {
+                out.close();
+                if (complete && !failed) {
+                    Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+                    put(key, target);
+                } else {
+                    Files.deleteIfExists(part);
+                }
+            }
+        }
+    }
+}
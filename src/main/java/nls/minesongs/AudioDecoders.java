@@ -0,0 +1,207 @@
+package nls.minesongs;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+// Turns cached files into PCM without converting them on disk: WAV and AIFF are read through a memory
+// mapping, then the Java Sound providers bundled with the mod (AU, MP3 through mp3spi) are tried, and
+// a streaming FFmpeg decode comes last
+public class AudioDecoders {
+    // What FFmpeg is asked to produce when it decodes for us
+    public static final AudioFormat FFMPEG_PCM_FORMAT = new AudioFormat(44100, 16, 2, true, false);
+    private static final int MPEG_PREROLL_FRAMES = 2 * 1152;
+
+    // Returns null when neither a Java decoder nor FFmpeg can handle the file
+    public static AudioInputStream open(Path file, String ffmpegExe, ProcessSupervisor processes) throws IOException {
+        if (MinesongsConfig.memoryMappedFiles) {
+            AudioInputStream mapped = MappedPcm.open(file, 0);
+            if (mapped != null) {
+                return toPcm(mapped);
+            }
+        }
+        AudioInputStream stream = openWithJava(file);
+        if (stream != null) {
+            return stream;
+        }
+        if (ffmpegExe != null) {
+            Minesongs.LOGGER.info("No Java decoder for {}, decoding with FFmpeg", file.getFileName());
+            return openWithFfmpeg(processes, ffmpegExe, file.toAbsolutePath().toString(), 0);
+        }
+        return null;
+    }
+
+    public static AudioInputStream openWithJava(Path file) throws IOException {
+        try {
+            return toPcm(AudioSystem.getAudioInputStream(file.toFile()));
+        } catch (UnsupportedAudioFileException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // Compressed encodings (e.g. MPEG from mp3spi) are decoded to 16-bit PCM at their native rate
+    public static AudioInputStream toPcm(AudioInputStream stream) {
+        AudioFormat format = stream.getFormat();
+        AudioFormat.Encoding encoding = format.getEncoding();
+        if (encoding.equals(AudioFormat.Encoding.PCM_SIGNED) || encoding.equals(AudioFormat.Encoding.PCM_UNSIGNED)) {
+            return stream;
+        }
+        AudioFormat pcm = new AudioFormat(
+                AudioFormat.Encoding.PCM_SIGNED,
+                format.getSampleRate(),
+                16,
+                format.getChannels(),
+                format.getChannels() * 2,
+                format.getSampleRate(),
+                false);
+        return AudioSystem.getAudioInputStream(pcm, stream);
+    }
+
+    // FFmpeg command that decodes input (a path, or "pipe:0" for stdin) into FFMPEG_PCM_FORMAT on stdout
+    public static List<String> ffmpegDecodeCommand(String ffmpegExe, String input) {
+        return ffmpegDecodeCommand(ffmpegExe, input, 0);
+    }
+
+    // Starting at startSeconds; before the input, so FFmpeg jumps there with the container's own index
+    public static List<String> ffmpegDecodeCommand(String ffmpegExe, String input, double startSeconds) {
+        List<String> command = new ArrayList<>(List.of(ffmpegExe,
+                "-hide_banner",
+                "-loglevel", "error"));
+        if (startSeconds > 0) {
+            command.add("-ss");
+            command.add(String.format(Locale.ROOT, "%.3f", startSeconds));
+        }
+        command.addAll(List.of(
+                "-i", input,
+                "-vn",
+                "-f", "s16le",
+                "-acodec", "pcm_s16le",
+                "-ar", Integer.toString((int) FFMPEG_PCM_FORMAT.getSampleRate()),
+                "-ac", Integer.toString(FFMPEG_PCM_FORMAT.getChannels()),
+                "pipe:1"));
+        return command;
+    }
+
+    // Closing the returned stream kills the FFmpeg process. It is read at playback speed, so it has no
+    // time limit; its errors go to the log.
+    public static AudioInputStream openWithFfmpeg(ProcessSupervisor processes, String ffmpegExe, String input,
+                                                  double startSeconds) throws IOException {
+        Process process = processes.start("ffmpeg", ffmpegDecodeCommand(ffmpegExe, input, startSeconds), 0);
+        process.getOutputStream().close();
+
+        InputStream pcm = new FilterInputStream(process.getInputStream()) {
+            @Override
+            public void close() throws IOException {
+                ProcessSupervisor.killTree(process);
+                super.close();
+            }
+        };
+        return new AudioInputStream(pcm, FFMPEG_PCM_FORMAT, AudioSystem.NOT_SPECIFIED);
+    }
+
+    // Opens the file already positioned at the given time, in constant time for PCM, within a second of
+    // decoding for MPEG audio and through FFmpeg for other containers. Null if that is not possible,
+    // e.g. with no FFmpeg for a container format.
+    public static AudioInputStream openAt(Path file, SeekIndex index, double seconds, String ffmpegExe,
+                                          ProcessSupervisor processes) throws IOException {
+        switch (index.kind()) {
+            case PCM -> {
+                if (MinesongsConfig.memoryMappedFiles) {
+                    AudioInputStream mapped = MappedPcm.open(file, (long) (seconds * index.sampleRate()));
+                    if (mapped != null) {
+                        return toPcm(mapped);
+                    }
+                }
+                AudioFileFormat fileFormat;
+                try {
+                    fileFormat = AudioSystem.getAudioFileFormat(file.toFile());
+                } catch (UnsupportedAudioFileException e) {
+                    return null;
+                }
+                AudioFormat format = fileFormat.getFormat();
+                long frame = (long) (seconds * format.getFrameRate());
+                long frames = fileFormat.getFrameLength() == AudioSystem.NOT_SPECIFIED
+                        ? AudioSystem.NOT_SPECIFIED : Math.max(0, fileFormat.getFrameLength() - frame);
+                return toPcm(new AudioInputStream(openFrom(file, index.pcmOffset(frame)), format, frames));
+            }
+            case MPEG -> {
+                long frame = (long) (seconds * index.sampleRate());
+                // Start a couple of frames early, since a frame can borrow bits from the one before it
+                int point = index.pointFor(Math.max(0, frame - MPEG_PREROLL_FRAMES));
+                AudioInputStream pcm;
+                try {
+                    pcm = toPcm(AudioSystem.getAudioInputStream(openFrom(file, index.offsetAt(point))));
+                } catch (UnsupportedAudioFileException e) {
+                    return null;
+                }
+                long skip = (frame - index.frameAt(point)) * pcm.getFormat().getFrameSize();
+                while (skip > 0) {
+                    long skipped = pcm.skip(skip);
+                    if (skipped <= 0) {
+                        break;
+                    }
+                    skip -= skipped;
+                }
+                return pcm;
+            }
+            default -> {
+                return ffmpegExe != null
+                        ? openWithFfmpeg(processes, ffmpegExe, file.toAbsolutePath().toString(), seconds) : null;
+            }
+        }
+    }
+
+    private static InputStream openFrom(Path file, long offset) throws IOException {
+        SeekableByteChannel channel = Files.newByteChannel(file);
+        try {
+            channel.position(offset);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024);
+    }
+
+    // Guesses a file extension from the first bytes of a download, so yt-dlp output piped
+    // through stdout can still be stored under a meaningful name
+    public static String sniffExtension(byte[] head, int length) {
+        if (length >= 4 && (head[0] & 0xFF) == 0x1A && (head[1] & 0xFF) == 0x45
+                && (head[2] & 0xFF) == 0xDF && (head[3] & 0xFF) == 0xA3) {
+            return "webm";
+        }
+        if (length >= 8 && head[4] == 'f' && head[5] == 't' && head[6] == 'y' && head[7] == 'p') {
+            return "m4a";
+        }
+        if (length >= 4 && head[0] == 'O' && head[1] == 'g' && head[2] == 'g' && head[3] == 'S') {
+            return "ogg";
+        }
+        if (length >= 4 && head[0] == 'f' && head[1] == 'L' && head[2] == 'a' && head[3] == 'C') {
+            return "flac";
+        }
+        if (length >= 12 && head[0] == 'R' && head[1] == 'I' && head[2] == 'F' && head[3] == 'F'
+                && head[8] == 'W' && head[9] == 'A' && head[10] == 'V' && head[11] == 'E') {
+            return "wav";
+        }
+        if (length >= 3 && head[0] == 'I' && head[1] == 'D' && head[2] == '3') {
+            return "mp3";
+        }
+        if (length >= 2 && (head[0] & 0xFF) == 0xFF && (head[1] & 0xE0) == 0xE0) {
+            return "mp3";
+        }
+        return "bin";
+    }
+}
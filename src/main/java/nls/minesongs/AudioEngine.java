@@ -0,0 +1,82 @@
+package nls.minesongs;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+// One long-lived thread that owns playback. Commands (play, pause, skip, seek, volume) are queued
+// and run in order; play requests are jobs with their own cancellation token, so a newer request
+// stops an older one mid-download instead of racing it. Decoders and download pumps run on a shared
+// pool of reusable worker threads.
+public class AudioEngine {
+    private final BlockingQueue<Runnable> commands = new LinkedBlockingQueue<>();
+    private final AtomicReference<CancellationToken> currentJob = new AtomicReference<>(new CancellationToken());
+    private final ExecutorService workers;
+    private final Thread thread;
+
+    public AudioEngine() {
+        AtomicInteger workerCount = new AtomicInteger();
+        workers = Executors.newCachedThreadPool(runnable -> {
+            Thread worker = new Thread(runnable, "MineSongs-Worker-" + workerCount.incrementAndGet());
+            worker.setDaemon(true);
+            return worker;
+        });
+
+        thread = new Thread(this::run, "MineSongs-Audio");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        while (true) {
+            Runnable command;
+            try {
+                command = commands.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            try {
+                command.run();
+            } catch (Throwable t) {
+                Minesongs.LOGGER.error("Audio command failed: {}", t.getMessage());
+            }
+        }
+    }
+
+    public void submit(Runnable command) {
+        commands.add(command);
+    }
+
+    // Cancels the job in progress straight away (from any thread) and queues the new one
+    public void submitJob(Consumer<CancellationToken> job) {
+        CancellationToken token = new CancellationToken();
+        currentJob.getAndSet(token).cancel();
+        commands.add(() -> {
+            if (!token.isCancelled()) {
+                job.accept(token);
+            }
+        });
+    }
+
+    // Cancels the job in progress without starting another one
+    public void cancelCurrentJob() {
+        currentJob.getAndSet(new CancellationToken()).cancel();
+    }
+
+    // Token of the job that is running or queued last; cancelled by the next job or a skip
+    public CancellationToken currentJobToken() {
+        return currentJob.get();
+    }
+
+    public ExecutorService workers() {
+        return workers;
+    }
+
+    public boolean isEngineThread() {
+        return Thread.currentThread() == thread;
+    }
+}
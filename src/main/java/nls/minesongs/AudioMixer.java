@@ -0,0 +1,330 @@
+package nls.minesongs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+// Keeps one output line open for the whole session and feeds it from the current track. The next
+// track can be lined up ahead of time: it takes over at the exact frame the current one runs out,
+// or fades in over the current one's last crossfadeMillis when the track length is known.
+public class AudioMixer {
+    // Every voice is decoded to this
+    public static final AudioFormat FORMAT = AudioDecoders.FFMPEG_PCM_FORMAT;
+    private static final int CHUNK_FRAMES = 4096;
+    private static final float LINE_BUFFER_SECONDS = 0.5f;
+
+    public interface Listener {
+        // Runs on the mixer thread when a track plays out; next is the track that took over, or null
+        void onTrackEnded(StreamingPlayer finished, StreamingPlayer next);
+    }
+
+    private final Executor executor;
+    private final Listener listener;
+    private final int frameSize = FORMAT.getFrameSize();
+    private final DspChain dsp = new DspChain(FORMAT, CHUNK_FRAMES);
+
+    private final Object lock = new Object();
+    private StreamingPlayer current;
+    private StreamingPlayer next;
+    private boolean paused = false;
+    // Set when the audio already in the line belongs to a dropped track or an old position. The
+    // mixer thread empties the line between two writes, since a flush from another thread cannot
+    // stop a write that is already blocked.
+    private boolean flushPending = false;
+    // Voices dropped by other threads; closed by the mixer thread, which may still be reading them
+    private final List<StreamingPlayer> retired = new ArrayList<>();
+
+    private volatile SourceDataLine line;
+    private volatile int crossfadeFrames = 0;
+    // Set when the line is emptied on purpose, so the next write is not counted as an underrun; mixer thread
+    private boolean lineReset = true;
+
+    public AudioMixer(Executor executor, Listener listener) {
+        this.executor = executor;
+        this.listener = listener;
+    }
+
+    public void setCrossfadeMillis(int millis) {
+        crossfadeFrames = (int) (Math.max(0, millis) * FORMAT.getFrameRate() / 1000);
+    }
+
+    // Opens the session line and starts the mixing loop on first use; later calls return the open line
+    public synchronized SourceDataLine openLine() throws LineUnavailableException {
+        if (line == null) {
+            DataLine.Info info = new DataLine.Info(SourceDataLine.class, FORMAT);
+            if (!AudioSystem.isLineSupported(info)) {
+                throw new LineUnavailableException("No audio line supported for format " + FORMAT);
+            }
+            SourceDataLine opened = (SourceDataLine) AudioSystem.getLine(info);
+            int bufferFrames = (int) (FORMAT.getFrameRate() * LINE_BUFFER_SECONDS);
+            opened.open(FORMAT, bufferFrames * frameSize);
+            opened.start();
+            line = opened;
+            executor.execute(this::run);
+            Minesongs.LOGGER.info("Session audio line opened");
+        }
+        return line;
+    }
+
+    // Starts a track right away, dropping whatever was playing or lined up
+    public void play(StreamingPlayer player) throws LineUnavailableException {
+        SourceDataLine output = openLine();
+        if (!player.attach()) {
+            return;
+        }
+        synchronized (lock) {
+            retire(current);
+            retire(next);
+            current = player;
+            next = null;
+            paused = false;
+            // Cut off the previous track instead of letting its buffered tail play first
+            flushPending = true;
+            lock.notifyAll();
+        }
+        output.start();
+    }
+
+    // Lines a track up to follow the current one; false if there is nothing playing to follow
+    public boolean setNext(StreamingPlayer player) {
+        if (!player.attach()) {
+            return false;
+        }
+        synchronized (lock) {
+            if (current == null) {
+                retire(player);
+                return false;
+            }
+            retire(next);
+            next = player;
+            lock.notifyAll();
+            return true;
+        }
+    }
+
+    public void clearNext() {
+        synchronized (lock) {
+            retire(next);
+            next = null;
+            lock.notifyAll();
+        }
+    }
+
+    // Silences the line and drops every track
+    public void stopAll() {
+        synchronized (lock) {
+            retire(current);
+            retire(next);
+            current = null;
+            next = null;
+            flushPending = true;
+            lock.notifyAll();
+        }
+    }
+
+    public void pause() {
+        synchronized (lock) {
+            paused = true;
+        }
+        SourceDataLine output = line;
+        if (output != null) {
+            output.stop();
+        }
+    }
+
+    public void resume() {
+        SourceDataLine output = line;
+        if (output != null) {
+            output.start();
+        }
+        synchronized (lock) {
+            paused = false;
+            lock.notifyAll();
+        }
+    }
+
+    public boolean isPaused() {
+        synchronized (lock) {
+            return paused;
+        }
+    }
+
+    // Switches a track to a position made ready by prepareSeek() and drops the audio already queued from
+    // the old one
+    public void seek(StreamingPlayer player, StreamingPlayer.SeekPoint seek) {
+        player.seek(seek);
+        synchronized (lock) {
+            flushPending = true;
+            lock.notifyAll();
+        }
+    }
+
+    public SourceDataLine getLine() {
+        return line;
+    }
+
+    // Volume and EQ for everything the mixer plays
+    public DspChain getDsp() {
+        return dsp;
+    }
+
+    // How far the line's output lags behind what has been read from the current track
+    public long getLatencyMillis() {
+        SourceDataLine output = line;
+        if (output == null) {
+            return 0;
+        }
+        int queuedFrames = (output.getBufferSize() - output.available()) / frameSize;
+        return (long) (queuedFrames * 1000 / FORMAT.getFrameRate());
+    }
+
+    private void retire(StreamingPlayer player) {
+        if (player != null) {
+            player.stop();
+            retired.add(player);
+        }
+    }
+
+    private void releaseRetired() {
+        for (StreamingPlayer player : retired) {
+            player.release();
+        }
+        retired.clear();
+    }
+
+    private void run() {
+        byte[] mix = new byte[CHUNK_FRAMES * frameSize];
+        byte[] incoming = new byte[CHUNK_FRAMES * frameSize];
+
+        while (true) {
+            StreamingPlayer voice;
+            StreamingPlayer following;
+            boolean flush;
+            try {
+                synchronized (lock) {
+                    releaseRetired();
+                    while (paused || current == null) {
+                        if (current == null && flushPending) {
+                            flushPending = false;
+                            line.flush();
+                            lineReset = true;
+                        }
+                        lock.wait();
+                        releaseRetired();
+                    }
+                    voice = current;
+                    following = next;
+                    flush = flushPending;
+                    flushPending = false;
+                }
+            } catch (InterruptedException e) {
+                continue;
+            }
+            // Before the chunk is read, so a seek handed over with the flush is applied to it
+            if (flush) {
+                line.flush();
+                lineReset = true;
+            }
+
+            int read;
+            try {
+                read = voice.read(mix, 0, mix.length);
+            } catch (Exception e) {
+                if (!voice.isStopped()) {
+                    Minesongs.LOGGER.error("Streaming playback failed: {}", e.getMessage());
+                }
+                voice.stop();
+                read = -1;
+            }
+
+            if (read < 0) {
+                endVoice(voice);
+                continue;
+            }
+            if (voice.isStopped()) {
+                // Replaced while this chunk was being read; don't let it play over the new track
+                continue;
+            }
+
+            int fade = crossfadeFrames;
+            long remaining = voice.framesRemaining();
+            if (following != null && fade > 0 && remaining >= 0 && remaining < fade) {
+                crossfade(mix, incoming, read, following, remaining, fade);
+            }
+            dsp.process(mix, read);
+            PlaybackMetrics.add(PlaybackMetrics.Counter.BYTES_READ, read);
+            // Nothing left queued means the output ran dry before this chunk arrived
+            if (!lineReset && line.available() >= line.getBufferSize()) {
+                PlaybackMetrics.increment(PlaybackMetrics.Counter.UNDERRUNS);
+            }
+            lineReset = false;
+            line.write(mix, 0, read);
+        }
+    }
+
+    // The exact frame a voice ran out: the lined-up track continues in the same chunk loop
+    private void endVoice(StreamingPlayer voice) {
+        StreamingPlayer promoted = null;
+        boolean natural;
+        synchronized (lock) {
+            if (current != voice) {
+                // Already replaced; play() or stopAll() retired it
+                return;
+            }
+            natural = !voice.isStopped();
+            voice.stop();
+            voice.release();
+            if (natural && next != null) {
+                promoted = next;
+            } else {
+                retire(next);
+            }
+            current = promoted;
+            next = null;
+        }
+        if (natural) {
+            listener.onTrackEnded(voice, promoted);
+        }
+    }
+
+    // Mixes the head of the next track under the tail of the current one. remaining is how many frames
+    // of the current track are left after this chunk; gains follow an equal-power curve. The next track
+    // is only read from the frame where the fade begins, so none of its opening is played at zero gain.
+    private void crossfade(byte[] mix, byte[] incoming, int length, StreamingPlayer following, long remaining, int fade) {
+        int frames = length / frameSize;
+        int fadeStart = (int) Math.max(0, remaining + frames - fade + 1);
+        if (fadeStart >= frames) {
+            return;
+        }
+        int start = fadeStart * frameSize;
+        int end;
+        try {
+            int read = following.read(incoming, start, (frames - fadeStart) * frameSize);
+            end = read < 0 ? start : start + read;
+        } catch (Exception e) {
+            end = start;
+        }
+        int channels = FORMAT.getChannels();
+        for (int frame = fadeStart; frame < frames; frame++) {
+            long left = remaining + (frames - frame);
+            double progress = 1.0 - Math.min(1.0, (double) left / fade);
+            double outGain = Math.cos(progress * Math.PI / 2);
+            double inGain = Math.sin(progress * Math.PI / 2);
+            for (int channel = 0; channel < channels; channel++) {
+                int i = frame * frameSize + channel * 2;
+                int out = (short) ((mix[i] & 0xFF) | (mix[i + 1] << 8));
+                int in = i + 1 < end ? (short) ((incoming[i] & 0xFF) | (incoming[i + 1] << 8)) : 0;
+                int mixed = (int) Math.round(out * outGain + in * inGain);
+                mixed = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mixed));
+                mix[i] = (byte) mixed;
+                mix[i + 1] = (byte) (mixed >> 8);
+            }
+        }
+    }
+}
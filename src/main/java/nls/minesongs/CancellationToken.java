@@ -0,0 +1,53 @@
+package nls.minesongs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Cancellation flag for one unit of audio work. Whatever a job is blocked on (a child process,
+// a download, a decoder) registers a callback here so cancelling stops it right away.
+public class CancellationToken {
+    private final List<Runnable> callbacks = new ArrayList<>();
+    private volatile boolean cancelled = false;
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void cancel() {
+        List<Runnable> toRun;
+        synchronized (callbacks) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            toRun = new ArrayList<>(callbacks);
+            callbacks.clear();
+        }
+        for (Runnable callback : toRun) {
+            try {
+                callback.run();
+            } catch (Exception e) {
+                Minesongs.LOGGER.warn("Cancellation callback failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    // Runs immediately if the token is already cancelled
+    public void onCancel(Runnable callback) {
+        synchronized (callbacks) {
+            if (!cancelled) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+        callback.run();
+    }
+
+    // For a callback whose work is over before the token is; long-lived tokens would otherwise keep
+    // every callback, and whatever it refers to, alive
+    public void removeOnCancel(Runnable callback) {
+        synchronized (callbacks) {
+            callbacks.remove(callback);
+        }
+    }
+}
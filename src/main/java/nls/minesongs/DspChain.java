@@ -0,0 +1,191 @@
+package nls.minesongs;
+
+import javax.sound.sampled.AudioFormat;
+
+// Volume, EQ and a peak limiter applied in software to the mixer output, so they work on every
+// output line. Settings may change from any thread; the audio thread picks them up at the start of
+// the next block. Processing only touches buffers allocated up front.
+public class DspChain {
+    // Time for the gain to cover most of the way to a new volume, so slider drags don't click
+    private static final float GAIN_SMOOTHING_MILLIS = 30;
+    private static final float LIMITER_THRESHOLD = 0.977f; // About -0.2 dBFS
+    private static final float LIMITER_RELEASE_MILLIS = 80;
+
+    private static final float LOW_SHELF_HZ = 100;
+    private static final float MID_PEAK_HZ = 1000;
+    private static final float HIGH_SHELF_HZ = 8000;
+    private static final float SHELF_SLOPE = 1.0f;
+    private static final float MID_Q = 0.9f;
+
+    private final int channels;
+    private final float sampleRate;
+    private final float[] samples;
+    private final float gainSmoothing;
+    private final float limiterRelease;
+
+    private volatile float targetGain = 1.0f;
+    private float gain = 1.0f;
+    private float limiterEnvelope = 1.0f;
+
+    // Three biquads in series: b0, b1, b2, a1, a2 per band, normalized by a0
+    private final float[][] eq = new float[3][5];
+    // Direct form I history per band and channel: x1, x2, y1, y2
+    private final float[][] eqState;
+    private volatile float[][] pendingEq;
+    private boolean eqFlat = true;
+
+    public DspChain(AudioFormat format, int maxFrames) {
+        channels = format.getChannels();
+        sampleRate = format.getSampleRate();
+        samples = new float[maxFrames * channels];
+        eqState = new float[3 * channels][4];
+        gainSmoothing = 1.0f - (float) Math.exp(-1.0 / (GAIN_SMOOTHING_MILLIS / 1000.0 * sampleRate));
+        limiterRelease = 1.0f - (float) Math.exp(-1.0 / (LIMITER_RELEASE_MILLIS / 1000.0 * sampleRate));
+    }
+
+    // 0-100 slider value; squared so equal slider steps sound like equal loudness steps
+    public void setVolume(float percent) {
+        float level = Math.max(0, Math.min(100, percent)) / 100.0f;
+        targetGain = level * level;
+    }
+
+    // Low shelf, mid peak and high shelf gains in dB; all zero bypasses the EQ
+    public void setEqualizer(float lowDb, float midDb, float highDb) {
+        float[][] bands = {
+                shelf(LOW_SHELF_HZ, lowDb, false),
+                peak(MID_PEAK_HZ, midDb, MID_Q),
+                shelf(HIGH_SHELF_HZ, highDb, true)
+        };
+        pendingEq = lowDb == 0 && midDb == 0 && highDb == 0 ? new float[0][] : bands;
+    }
+
+    // Processes 16-bit signed little-endian PCM in place
+    public void process(byte[] pcm, int length) {
+        float[][] update = pendingEq;
+        if (update != null) {
+            pendingEq = null;
+            eqFlat = update.length == 0;
+            if (!eqFlat) {
+                for (int band = 0; band < 3; band++) {
+                    System.arraycopy(update[band], 0, eq[band], 0, 5);
+                }
+            }
+        }
+
+        int count = Math.min(length / 2, samples.length);
+        count -= count % channels;
+        for (int i = 0; i < count; i++) {
+            samples[i] = (short) ((pcm[2 * i] & 0xFF) | (pcm[2 * i + 1] << 8)) * (1.0f / 32768);
+        }
+
+        if (!eqFlat) {
+            for (int band = 0; band < 3; band++) {
+                for (int channel = 0; channel < channels; channel++) {
+                    biquad(eq[band], eqState[band * channels + channel], channel, count);
+                }
+            }
+        }
+
+        applyGainAndLimit(count);
+
+        for (int i = 0; i < count; i++) {
+            int value = Math.round(samples[i] * 32767);
+            value = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+            pcm[2 * i] = (byte) value;
+            pcm[2 * i + 1] = (byte) (value >> 8);
+        }
+    }
+
+    // Fixed gain on 16-bit signed little-endian PCM, clipped at full scale
+    public static void scale(byte[] pcm, int offset, int length, float gain) {
+        for (int i = offset; i + 1 < offset + length; i += 2) {
+            int value = Math.round((short) ((pcm[i] & 0xFF) | (pcm[i + 1] << 8)) * gain);
+            value = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+            pcm[i] = (byte) value;
+            pcm[i + 1] = (byte) (value >> 8);
+        }
+    }
+
+    private void biquad(float[] c, float[] state, int channel, int count) {
+        float b0 = c[0], b1 = c[1], b2 = c[2], a1 = c[3], a2 = c[4];
+        float x1 = state[0], x2 = state[1], y1 = state[2], y2 = state[3];
+        for (int i = channel; i < count; i += channels) {
+            float x = samples[i];
+            float y = b0 * x + b1 * x1 + b2 * x2 - a1 * y1 - a2 * y2;
+            x2 = x1;
+            x1 = x;
+            y2 = y1;
+            y1 = y;
+            samples[i] = y;
+        }
+        state[0] = x1;
+        state[1] = x2;
+        // Flush denormals so a long silence doesn't slow the filter down
+        state[2] = Math.abs(y1) < 1e-20f ? 0 : y1;
+        state[3] = Math.abs(y2) < 1e-20f ? 0 : y2;
+    }
+
+    // Per-frame smoothed gain followed by a peak limiter with instant attack and smooth release
+    private void applyGainAndLimit(int count) {
+        float target = targetGain;
+        float g = gain;
+        float envelope = limiterEnvelope;
+        for (int frame = 0; frame < count; frame += channels) {
+            g += (target - g) * gainSmoothing;
+
+            float peak = 0;
+            for (int channel = 0; channel < channels; channel++) {
+                peak = Math.max(peak, Math.abs(samples[frame + channel] * g));
+            }
+            if (peak * envelope > LIMITER_THRESHOLD) {
+                envelope = LIMITER_THRESHOLD / peak;
+            } else {
+                envelope += (1.0f - envelope) * limiterRelease;
+            }
+
+            float total = g * envelope;
+            for (int channel = 0; channel < channels; channel++) {
+                samples[frame + channel] *= total;
+            }
+        }
+        gain = Math.abs(g - target) < 1e-6f ? target : g;
+        limiterEnvelope = envelope;
+    }
+
+    // Audio EQ Cookbook (R. Bristow-Johnson) filters
+    private float[] peak(float frequency, float gainDb, float q) {
+        double a = Math.pow(10, gainDb / 40.0);
+        double w0 = 2 * Math.PI * frequency / sampleRate;
+        double alpha = Math.sin(w0) / (2 * q);
+        double cos = Math.cos(w0);
+        return normalize(1 + alpha * a, -2 * cos, 1 - alpha * a, 1 + alpha / a, -2 * cos, 1 - alpha / a);
+    }
+
+    private float[] shelf(float frequency, float gainDb, boolean high) {
+        double a = Math.pow(10, gainDb / 40.0);
+        double w0 = 2 * Math.PI * frequency / sampleRate;
+        double cos = Math.cos(w0);
+        double alpha = Math.sin(w0) / 2 * Math.sqrt((a + 1 / a) * (1 / SHELF_SLOPE - 1) + 2);
+        double sqrtA = 2 * Math.sqrt(a) * alpha;
+        if (high) {
+            return normalize(
+                    a * ((a + 1) + (a - 1) * cos + sqrtA),
+                    -2 * a * ((a - 1) + (a + 1) * cos),
+                    a * ((a + 1) + (a - 1) * cos - sqrtA),
+                    (a + 1) - (a - 1) * cos + sqrtA,
+                    2 * ((a - 1) - (a + 1) * cos),
+                    (a + 1) - (a - 1) * cos - sqrtA);
+        }
+        return normalize(
+                a * ((a + 1) - (a - 1) * cos + sqrtA),
+                2 * a * ((a - 1) - (a + 1) * cos),
+                a * ((a + 1) - (a - 1) * cos - sqrtA),
+                (a + 1) + (a - 1) * cos + sqrtA,
+                -2 * ((a - 1) + (a + 1) * cos),
+                (a + 1) + (a - 1) * cos - sqrtA);
+    }
+
+    private static float[] normalize(double b0, double b1, double b2, double a0, double a1, double a2) {
+        return new float[]{(float) (b0 / a0), (float) (b1 / a0), (float) (b2 / a0), (float) (a1 / a0), (float) (a2 / a0)};
+    }
+}
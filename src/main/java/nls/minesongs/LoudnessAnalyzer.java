@@ -0,0 +1,180 @@
+package nls.minesongs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+
+import javax.sound.sampled.AudioFormat;
+
+// Integrated loudness (ITU-R BS.1770 / EBU R128) and sample peak of a decoded track, measured in one
+// pass over the PCM. K-weighted power is gated in 400 ms blocks that overlap by 75%.
+public class LoudnessAnalyzer {
+    private static final double BLOCK_SECONDS = 0.4;
+    private static final int STEPS_PER_BLOCK = 4;
+    private static final double ABSOLUTE_GATE_LUFS = -70;
+    private static final double RELATIVE_GATE_LU = -10;
+    // Headroom kept below full scale when a quiet track is turned up
+    private static final double PEAK_CEILING_DB = -1;
+    private static final double MAX_BOOST_DB = 12;
+
+    public record Result(double integratedLufs, double peakDb) {
+        // Gain that brings the track to the target loudness without pushing its peak past the ceiling;
+        // 0 for silence
+        public double gainDb(double targetLufs) {
+            if (Double.isInfinite(integratedLufs) || Double.isNaN(integratedLufs)) {
+                return 0;
+            }
+            double gain = targetLufs - integratedLufs;
+            if (gain > 0) {
+                gain = Math.min(Math.min(gain, MAX_BOOST_DB), Math.max(0, PEAK_CEILING_DB - peakDb));
+            }
+            return gain;
+        }
+    }
+
+    private final int channels;
+    private final int stepFrames;
+    // Two K-weighting stages per channel: b0, b1, b2, a1, a2
+    private final double[] shelf;
+    private final double[] highPass;
+    // Direct form I history per channel and stage: x1, x2, y1, y2
+    private final double[][] state;
+
+    // Mean square of each 100 ms step, summed over channels
+    private double[] steps = new double[1024];
+    private int stepCount = 0;
+    private double stepSum = 0;
+    private int stepFill = 0;
+    private int peak = 0;
+
+    private LoudnessAnalyzer(AudioFormat format) {
+        channels = format.getChannels();
+        double rate = format.getSampleRate();
+        stepFrames = Math.max(1, (int) Math.round(rate * BLOCK_SECONDS / STEPS_PER_BLOCK));
+        state = new double[channels * 2][4];
+
+        // Stage 1: high shelf modelling the head, +4 dB above about 1.7 kHz
+        double k = Math.tan(Math.PI * 1681.974450955533 / rate);
+        double q = 0.7071752369554196;
+        double vh = Math.pow(10, 3.999843853973347 / 20);
+        double vb = Math.pow(vh, 0.4996667741545416);
+        double a0 = 1 + k / q + k * k;
+        shelf = new double[]{
+                (vh + vb * k / q + k * k) / a0,
+                2 * (k * k - vh) / a0,
+                (vh - vb * k / q + k * k) / a0,
+                2 * (k * k - 1) / a0,
+                (1 - k / q + k * k) / a0};
+
+        // Stage 2: RLB high-pass at about 38 Hz
+        k = Math.tan(Math.PI * 38.13547087602444 / rate);
+        q = 0.5003270373238773;
+        a0 = 1 + k / q + k * k;
+        highPass = new double[]{1, -2, 1, 2 * (k * k - 1) / a0, (1 - k / q + k * k) / a0};
+    }
+
+    // Reads the stream to the end; it must be 16-bit signed PCM. Returns null if cancelled.
+    public static Result analyze(InputStream in, AudioFormat format, BooleanSupplier cancelled) throws IOException {
+        if (format.getEncoding() != AudioFormat.Encoding.PCM_SIGNED || format.getSampleSizeInBits() != 16) {
+            throw new IOException("Loudness analysis needs 16-bit signed PCM, got " + format);
+        }
+        LoudnessAnalyzer analyzer = new LoudnessAnalyzer(format);
+        boolean bigEndian = format.isBigEndian();
+        int frameSize = format.getFrameSize();
+        byte[] buffer = new byte[frameSize * 8192];
+        int carry = 0;
+        int read;
+        while ((read = in.read(buffer, carry, buffer.length - carry)) >= 0) {
+            if (cancelled.getAsBoolean()) {
+                return null;
+            }
+            int available = carry + read;
+            int whole = available - available % frameSize;
+            analyzer.process(buffer, whole, bigEndian);
+            carry = available - whole;
+            System.arraycopy(buffer, whole, buffer, 0, carry);
+        }
+        return analyzer.result();
+    }
+
+    private void process(byte[] pcm, int length, boolean bigEndian) {
+        int frames = length / (channels * 2);
+        for (int frame = 0; frame < frames; frame++) {
+            double power = 0;
+            for (int channel = 0; channel < channels; channel++) {
+                int i = (frame * channels + channel) * 2;
+                int sample = bigEndian
+                        ? (short) ((pcm[i] << 8) | (pcm[i + 1] & 0xFF))
+                        : (short) ((pcm[i] & 0xFF) | (pcm[i + 1] << 8));
+                peak = Math.max(peak, Math.abs(sample));
+                double x = sample / 32768.0;
+                x = filter(shelf, state[channel * 2], x);
+                x = filter(highPass, state[channel * 2 + 1], x);
+                power += x * x;
+            }
+            stepSum += power;
+            if (++stepFill == stepFrames) {
+                endStep();
+            }
+        }
+    }
+
+    private static double filter(double[] c, double[] s, double x) {
+        double y = c[0] * x + c[1] * s[0] + c[2] * s[1] - c[3] * s[2] - c[4] * s[3];
+        s[1] = s[0];
+        s[0] = x;
+        s[3] = s[2];
+        s[2] = Math.abs(y) < 1e-30 ? 0 : y;
+        return y;
+    }
+
+    private void endStep() {
+        if (stepCount == steps.length) {
+            steps = Arrays.copyOf(steps, steps.length * 2);
+        }
+        steps[stepCount++] = stepSum / stepFrames;
+        stepSum = 0;
+        stepFill = 0;
+    }
+
+    private Result result() {
+        int blocks = stepCount - STEPS_PER_BLOCK + 1;
+        double[] powers = new double[Math.max(0, blocks)];
+        for (int block = 0; block < powers.length; block++) {
+            double sum = 0;
+            for (int step = 0; step < STEPS_PER_BLOCK; step++) {
+                sum += steps[block + step];
+            }
+            powers[block] = sum / STEPS_PER_BLOCK;
+        }
+
+        double absoluteGate = toPower(ABSOLUTE_GATE_LUFS);
+        double ungated = gatedMean(powers, absoluteGate);
+        double relativeGate = ungated * Math.pow(10, RELATIVE_GATE_LU / 10);
+        double integrated = toLufs(gatedMean(powers, Math.max(absoluteGate, relativeGate)));
+        double peakDb = peak > 0 ? 20 * Math.log10(peak / 32768.0) : Double.NEGATIVE_INFINITY;
+        return new Result(integrated, peakDb);
+    }
+
+    // Mean power of the blocks strictly above the gate, or 0 if none are
+    private static double gatedMean(double[] powers, double gate) {
+        double sum = 0;
+        int count = 0;
+        for (double power : powers) {
+            if (power > gate) {
+                sum += power;
+                count++;
+            }
+        }
+        return count > 0 ? sum / count : 0;
+    }
+
+    private static double toPower(double lufs) {
+        return Math.pow(10, (lufs + 0.691) / 10);
+    }
+
+    private static double toLufs(double power) {
+        return power > 0 ? -0.691 + 10 * Math.log10(power) : Double.NEGATIVE_INFINITY;
+    }
+}
@@ -0,0 +1,245 @@
+package nls.minesongs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+// WAV and AIFF files read through a memory mapping. The header is parsed from the mapping itself,
+// and the player's reads copy straight from the mapped pages into its chunk buffer, with no stream
+// buffers in between. Files the parser does not understand are left to Java Sound.
+public final class MappedPcm {
+    // Where the samples are and what they look like
+    public record Header(AudioFormat format, long dataOffset, long frames) {
+    }
+
+    private static final int WAVE_PCM = 1;
+    private static final int WAVE_FLOAT = 3;
+    private static final int WAVE_ALAW = 6;
+    private static final int WAVE_ULAW = 7;
+    private static final int WAVE_EXTENSIBLE = 0xFFFE;
+
+    private MappedPcm() {
+    }
+
+    // A stream starting at the given frame, or null if this is not a WAV or AIFF file it can read
+    public static AudioInputStream open(Path file, long frame) throws IOException {
+        ByteBuffer mapped = map(file);
+        if (mapped == null) {
+            return null;
+        }
+        Header header = parse(mapped);
+        if (header == null) {
+            return null;
+        }
+        int frameSize = header.format().getFrameSize();
+        long start = Math.max(0, Math.min(frame, header.frames()));
+        ByteBuffer data = mapped.slice((int) (header.dataOffset() + start * frameSize),
+                (int) ((header.frames() - start) * frameSize));
+        return new AudioInputStream(new MappedInputStream(data), header.format(), header.frames() - start);
+    }
+
+    public static Header readHeader(Path file) throws IOException {
+        ByteBuffer mapped = map(file);
+        return mapped != null ? parse(mapped) : null;
+    }
+
+    // Null for files a single mapping cannot hold; the channel can be closed once mapped
+    private static ByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 12 || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    static Header parse(ByteBuffer file) {
+        try {
+            if (is(file, 0, "RIFF") && is(file, 8, "WAVE")) {
+                return parseWave(file.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+            }
+            if (is(file, 0, "FORM") && (is(file, 8, "AIFF") || is(file, 8, "AIFC"))) {
+                return parseAiff(file.duplicate().order(ByteOrder.BIG_ENDIAN), is(file, 8, "AIFC"));
+            }
+        } catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+            // Truncated header
+        }
+        return null;
+    }
+
+    private static Header parseWave(ByteBuffer file) {
+        AudioFormat format = null;
+        long position = 12;
+        while (position + 8 <= file.limit()) {
+            int at = (int) position;
+            long size = file.getInt(at + 4) & 0xFFFFFFFFL;
+            if (is(file, at, "fmt ")) {
+                int tag = file.getShort(at + 8) & 0xFFFF;
+                int channels = file.getShort(at + 10) & 0xFFFF;
+                int rate = file.getInt(at + 12);
+                int blockAlign = file.getShort(at + 20) & 0xFFFF;
+                int bits = file.getShort(at + 22) & 0xFFFF;
+                if (tag == WAVE_EXTENSIBLE && size >= 40) {
+                    // The real format tag starts the sub-format GUID
+                    tag = file.getShort(at + 32) & 0xFFFF;
+                }
+                if (channels == 0 || rate <= 0 || blockAlign == 0 || blockAlign % channels != 0) {
+                    return null;
+                }
+                // Samples padded to a whole container (e.g. 20 bits in 3 bytes) are read as the container
+                int containerBits = blockAlign / channels * 8;
+                AudioFormat.Encoding encoding = switch (tag) {
+                    case WAVE_PCM -> containerBits == 8 ? AudioFormat.Encoding.PCM_UNSIGNED : AudioFormat.Encoding.PCM_SIGNED;
+                    case WAVE_FLOAT -> AudioFormat.Encoding.PCM_FLOAT;
+                    case WAVE_ALAW -> AudioFormat.Encoding.ALAW;
+                    case WAVE_ULAW -> AudioFormat.Encoding.ULAW;
+                    default -> null;
+                };
+                if (encoding == null || bits == 0) {
+                    return null;
+                }
+                format = new AudioFormat(encoding, rate, containerBits, channels, blockAlign, rate, false);
+            } else if (is(file, at, "data")) {
+                if (format == null) {
+                    return null;
+                }
+                return header(file, format, position + 8, size);
+            }
+            position += 8 + size + (size & 1);
+        }
+        return null;
+    }
+
+    private static Header parseAiff(ByteBuffer file, boolean compressed) {
+        AudioFormat format = null;
+        long position = 12;
+        while (position + 8 <= file.limit()) {
+            int at = (int) position;
+            long size = file.getInt(at + 4) & 0xFFFFFFFFL;
+            if (is(file, at, "COMM")) {
+                int channels = file.getShort(at + 8) & 0xFFFF;
+                int bits = file.getShort(at + 14) & 0xFFFF;
+                double rate = extended(file, at + 16);
+                boolean bigEndian = true;
+                if (compressed) {
+                    // Only uncompressed AIFF-C, in either byte order
+                    if (is(file, at + 26, "sowt")) {
+                        bigEndian = false;
+                    } else if (!is(file, at + 26, "NONE") && !is(file, at + 26, "twos")) {
+                        return null;
+                    }
+                }
+                int containerBits = (bits + 7) / 8 * 8;
+                if (channels == 0 || containerBits == 0 || rate <= 0) {
+                    return null;
+                }
+                format = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, (float) rate, containerBits, channels,
+                        channels * containerBits / 8, (float) rate, bigEndian);
+            } else if (is(file, at, "SSND")) {
+                if (format == null) {
+                    return null;
+                }
+                // The chunk starts with its own offset to the first sample, then a block size
+                long skip = file.getInt(at + 8) & 0xFFFFFFFFL;
+                return header(file, format, position + 16 + skip, size - 8 - skip);
+            }
+            position += 8 + size + (size & 1);
+        }
+        return null;
+    }
+
+    // Sizes of 0 or past the end, as left by writers that never went back to fill them in, mean
+    // "up to the end of the file"
+    private static Header header(ByteBuffer file, AudioFormat format, long offset, long size) {
+        long available = file.limit() - offset;
+        if (available < 0) {
+            return null;
+        }
+        if (size <= 0 || size > available) {
+            size = available;
+        }
+        return new Header(format, offset, size / format.getFrameSize());
+    }
+
+    // The 80-bit extended float AIFF stores its sample rate in
+    private static double extended(ByteBuffer file, int at) {
+        int exponent = file.getShort(at) & 0x7FFF;
+        long mantissa = file.getLong(at + 2);
+        return (mantissa >>> 11) * Math.pow(2, exponent - 16383 - 52);
+    }
+
+    private static boolean is(ByteBuffer file, int at, String id) {
+        for (int i = 0; i < 4; i++) {
+            if (file.get(at + i) != id.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Reads are bulk copies out of the mapping. A file cut short while mapped faults on access,
+    // which surfaces here as an InternalError.
+    private static final class MappedInputStream extends InputStream {
+        private ByteBuffer data;
+
+        MappedInputStream(ByteBuffer data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            ByteBuffer current = data;
+            if (current == null) {
+                throw new IOException("Stream closed");
+            }
+            if (!current.hasRemaining()) {
+                return length == 0 ? 0 : -1;
+            }
+            int count = Math.min(length, current.remaining());
+            try {
+                current.get(buffer, offset, count);
+            } catch (InternalError e) {
+                throw new IOException("File changed while it was being played", e);
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long count) {
+            ByteBuffer current = data;
+            if (current == null || count <= 0) {
+                return 0;
+            }
+            int skipped = (int) Math.min(count, current.remaining());
+            current.position(current.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            ByteBuffer current = data;
+            return current != null ? current.remaining() : 0;
+        }
+
+        // The mapping goes away once the buffer is collected
+        @Override
+        public void close() {
+            data = null;
+        }
+    }
+}
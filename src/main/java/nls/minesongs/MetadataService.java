@@ -0,0 +1,236 @@
+package nls.minesongs;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+// Titles, durations and thumbnails for YouTube songs. Lookups never block: unknown songs are queued
+// and resolved in the background, many at a time, with a single "yt-dlp --dump-json" call per batch.
+// Results are kept in metadata.tsv so each song is only ever resolved once.
+public class MetadataService {
+    private static final int MAX_BATCH = 25;
+
+    private final Path indexFile;
+    private final String ytDlpPath;
+    private final ProcessSupervisor processes;
+    private final Executor executor;
+    private final long timeoutMillis;
+
+    // Keyed by AudioCache.keyFor(url)
+    private final Map<String, TrackMetadata> entries = new ConcurrentHashMap<>();
+    // Keys queued or being resolved, so a song is not asked for twice at once
+    private final Set<String> requested = ConcurrentHashMap.newKeySet();
+    private final Queue<String> wanted = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean resolving = new AtomicBoolean(false);
+    private volatile Consumer<TrackMetadata> resolvedListener;
+
+    public MetadataService(Path indexFile, String ytDlpPath, ProcessSupervisor processes, Executor executor,
+                           long timeoutMillis) {
+        this.indexFile = indexFile;
+        this.ytDlpPath = ytDlpPath;
+        this.processes = processes;
+        this.executor = executor;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public void load() {
+        if (!Files.exists(indexFile)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", -1);
+                if (parts.length != 5) {
+                    continue;
+                }
+                try {
+                    entries.put(parts[0], new TrackMetadata(parts[0], parts[1], Long.parseLong(parts[2]), parts[3], parts[4]));
+                } catch (NumberFormatException ignored) {
+                    // Skip damaged lines
+                }
+            }
+            Minesongs.LOGGER.info("Metadata cache loaded: {} songs", entries.size());
+        } catch (IOException e) {
+            Minesongs.LOGGER.warn("Failed to read metadata cache: {}", e.getMessage());
+        }
+    }
+
+    // Called with every song learned after load(), from whichever thread learned it
+    public void setResolvedListener(Consumer<TrackMetadata> listener) {
+        this.resolvedListener = listener;
+    }
+
+    // Null until the song has been resolved; call request() to get it resolved
+    public TrackMetadata get(String url) {
+        return AudioCache.extractVideoId(url) != null ? entries.get(AudioCache.keyFor(url)) : null;
+    }
+
+    // Records what a playlist listing already told us, so those songs need no lookup of their own
+    public void seed(String url, String title, long durationSeconds) {
+        if (AudioCache.extractVideoId(url) == null || title.isEmpty()) {
+            return;
+        }
+        String key = AudioCache.keyFor(url);
+        TrackMetadata metadata = new TrackMetadata(key, clean(title), durationSeconds, "", "");
+        if (entries.putIfAbsent(key, metadata) == null) {
+            resolved(metadata);
+        }
+    }
+
+    // Queues every YouTube URL that is not known yet and starts a background batch if none is running
+    public void request(Collection<String> urls) {
+        for (String url : urls) {
+            if (AudioCache.extractVideoId(url) == null) {
+                continue;
+            }
+            String key = AudioCache.keyFor(url);
+            if (!entries.containsKey(key) && requested.add(key)) {
+                wanted.add(url);
+            }
+        }
+        scheduleResolve();
+    }
+
+    private void scheduleResolve() {
+        if (!wanted.isEmpty() && resolving.compareAndSet(false, true)) {
+            executor.execute(this::resolvePending);
+        }
+    }
+
+    private void resolvePending() {
+        try {
+            List<String> batch = new ArrayList<>();
+            String url;
+            while (true) {
+                batch.clear();
+                while (batch.size() < MAX_BATCH && (url = wanted.poll()) != null) {
+                    batch.add(url);
+                }
+                if (batch.isEmpty()) {
+                    break;
+                }
+                resolveBatch(batch);
+            }
+        } finally {
+            resolving.set(false);
+        }
+        // Catch URLs queued between the last poll and clearing the flag
+        scheduleResolve();
+    }
+
+    private void resolveBatch(List<String> urls) {
+        List<String> command = new ArrayList<>(List.of(ytDlpPath,
+                "--dump-json",
+                "--skip-download",
+                "--no-playlist",
+                "--ignore-errors",      // One unavailable video must not fail the whole batch
+                "--no-warnings",
+                "-f", "bestaudio/best"));
+        command.addAll(urls);
+
+        int before = entries.size();
+        try {
+            processes.run("yt-dlp metadata (" + urls.size() + " songs)", command, timeoutMillis, new CancellationToken(),
+                    this::parseLine,
+                    line -> Minesongs.LOGGER.debug("yt-dlp metadata error: {}", line));
+        } catch (IOException e) {
+            Minesongs.LOGGER.warn("Metadata lookup failed: {}", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Anything that did not resolve may be asked for again later
+        for (String url : urls) {
+            requested.remove(AudioCache.keyFor(url));
+        }
+        if (entries.size() != before) {
+            save();
+        }
+    }
+
+    // One JSON object per video
+    private void parseLine(String line) {
+        try {
+            JsonObject json = JsonParser.parseString(line).getAsJsonObject();
+            String id = getString(json, "id");
+            if (id.isEmpty()) {
+                return;
+            }
+            String key = "yt-" + id;
+            JsonElement duration = json.get("duration");
+            long seconds = duration != null && !duration.isJsonNull() ? Math.round(duration.getAsDouble()) : 0;
+
+            String format = getString(json, "ext");
+            String codec = getString(json, "acodec");
+            if (!codec.isEmpty() && !codec.equals("none")) {
+                format += " " + codec;
+            }
+            JsonElement bitrate = json.get("abr");
+            if (bitrate != null && !bitrate.isJsonNull()) {
+                format += " " + Math.round(bitrate.getAsDouble()) + "k";
+            }
+
+            TrackMetadata metadata = new TrackMetadata(key, clean(getString(json, "title")), seconds,
+                    clean(getString(json, "thumbnail")), clean(format.trim()));
+            entries.put(key, metadata);
+            resolved(metadata);
+        } catch (RuntimeException e) {
+            Minesongs.LOGGER.debug("Unreadable metadata line: {}", e.getMessage());
+        }
+    }
+
+    private void resolved(TrackMetadata metadata) {
+        Consumer<TrackMetadata> listener = resolvedListener;
+        if (listener != null) {
+            listener.accept(metadata);
+        }
+    }
+
+    private static String getString(JsonObject json, String name) {
+        JsonElement element = json.get(name);
+        return element != null && element.isJsonPrimitive() ? element.getAsString() : "";
+    }
+
+    // Keeps the index one line per song
+    private static String clean(String value) {
+        return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    // Written to a temp file and moved into place so a crash never leaves a half-written file
+    public synchronized void save() {
+        Path temp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(indexFile.getParent());
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                for (TrackMetadata entry : entries.values()) {
+                    writer.write(entry.key() + "\t" + entry.title() + "\t" + entry.durationSeconds() + "\t"
+                            + entry.thumbnailUrl() + "\t" + entry.format());
+                    writer.newLine();
+                }
+            }
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Minesongs.LOGGER.warn("Failed to write metadata cache: {}", e.getMessage());
+        }
+    }
+}
@@ -11,6 +11,7 @@ public class Minesongs implements ModInitializer{
     @Override
     public void onInitialize() {
         LOGGER.info("MineSongs mod initializing!");
+        MinesongsConfig.load();
 
         // Register MP3 support
         try {
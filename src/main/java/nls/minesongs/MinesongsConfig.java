@@ -0,0 +1,144 @@
+package nls.minesongs;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import net.fabricmc.loader.api.FabricLoader;
+
+// Settings read from config/minesongs.properties; missing keys are written back with their defaults
+public class MinesongsConfig {
+    private static final String FILE_NAME = Minesongs.MOD_ID + ".properties";
+
+    // Audio cache budget
+    public static long cacheMaxMegabytes = 2048;
+    public static int cacheMaxAgeDays = 30;
+
+    // How many upcoming queue entries are downloaded ahead of time, and how many at once
+    public static int prefetchDepth = 2;
+    public static int prefetchMaxConcurrent = 1;
+
+    // Start YouTube songs while they are still downloading (needs FFmpeg)
+    public static boolean progressivePlayback = true;
+    public static int progressivePrebufferMillis = 500;
+
+    // Read local and cached WAV/AIFF files through a memory mapping instead of stream reads
+    public static boolean memoryMappedFiles = true;
+
+    // Overlap between consecutive queue songs; 0 plays them back to back without a gap
+    public static int crossfadeMillis = 0;
+
+    // Equalizer: low shelf (100 Hz), mid peak (1 kHz) and high shelf (8 kHz) in dB
+    public static int eqLowDb = 0;
+    public static int eqMidDb = 0;
+    public static int eqHighDb = 0;
+
+    // Songs are turned up or down towards this integrated loudness, measured once when they are cached
+    public static boolean loudnessNormalization = true;
+    public static int loudnessTargetLufs = -14;
+
+    // Keep the now-playing widget on screen while a track is loaded, not just for a few seconds
+    public static boolean hudMiniPlayer = false;
+
+    // How many finished tracks "previous" can step back through
+    public static int queueHistorySize = 50;
+
+    // Folders scanned for local music, separated by ';'
+    public static String libraryFolders = Path.of(System.getProperty("user.home"), "Music").toString();
+    // Threads reading tags during a library scan
+    public static int libraryScanThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    // Playlists and mixes are cut off after this many entries
+    public static int playlistMaxEntries = 500;
+    // The audio of the first imported songs is fetched while the listing streams in, this many at once
+    public static int playlistFetchAhead = 10;
+    public static int playlistFetchConcurrent = 3;
+
+    // A yt-dlp run taking longer than this is killed
+    public static int ytDlpTimeoutSeconds = 300;
+
+    public static void load() {
+        Path file = FabricLoader.getInstance().getConfigDir().resolve(FILE_NAME);
+        Properties props = new Properties();
+
+        if (Files.exists(file)) {
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                props.load(reader);
+            } catch (IOException e) {
+                Minesongs.LOGGER.warn("Failed to read config, using defaults: {}", e.getMessage());
+            }
+        }
+
+        cacheMaxMegabytes = getLong(props, "cache.maxMegabytes", cacheMaxMegabytes);
+        cacheMaxAgeDays = getInt(props, "cache.maxAgeDays", cacheMaxAgeDays);
+        prefetchDepth = getInt(props, "prefetch.depth", prefetchDepth);
+        prefetchMaxConcurrent = getInt(props, "prefetch.maxConcurrent", prefetchMaxConcurrent);
+        progressivePlayback = getBoolean(props, "progressive.enabled", progressivePlayback);
+        progressivePrebufferMillis = getInt(props, "progressive.prebufferMillis", progressivePrebufferMillis);
+        memoryMappedFiles = getBoolean(props, "playback.memoryMapped", memoryMappedFiles);
+        crossfadeMillis = getInt(props, "playback.crossfadeMillis", crossfadeMillis);
+        eqLowDb = getInt(props, "eq.lowDb", eqLowDb);
+        eqMidDb = getInt(props, "eq.midDb", eqMidDb);
+        eqHighDb = getInt(props, "eq.highDb", eqHighDb);
+        loudnessNormalization = getBoolean(props, "loudness.enabled", loudnessNormalization);
+        loudnessTargetLufs = getInt(props, "loudness.targetLufs", loudnessTargetLufs);
+        hudMiniPlayer = getBoolean(props, "hud.miniPlayer", hudMiniPlayer);
+        queueHistorySize = getInt(props, "queue.historySize", queueHistorySize);
+        libraryFolders = getString(props, "library.folders", libraryFolders);
+        libraryScanThreads = getInt(props, "library.scanThreads", libraryScanThreads);
+        playlistMaxEntries = getInt(props, "playlist.maxEntries", playlistMaxEntries);
+        playlistFetchAhead = getInt(props, "playlist.fetchAhead", playlistFetchAhead);
+        playlistFetchConcurrent = getInt(props, "playlist.fetchConcurrent", playlistFetchConcurrent);
+        ytDlpTimeoutSeconds = getInt(props, "process.ytDlpTimeoutSeconds", ytDlpTimeoutSeconds);
+
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            props.store(writer, "MineSongs settings");
+        } catch (IOException e) {
+            Minesongs.LOGGER.warn("Failed to write config: {}", e.getMessage());
+        }
+    }
+
+    // Root folder for everything the mod keeps between sessions
+    public static Path getDataDir() {
+        return FabricLoader.getInstance().getGameDir().resolve(Minesongs.MOD_ID);
+    }
+
+    private static long getLong(Properties props, String key, long defaultValue) {
+        String value = props.getProperty(key);
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                Minesongs.LOGGER.warn("Invalid value for {}: {}", key, value);
+            }
+        }
+        props.setProperty(key, Long.toString(defaultValue));
+        return defaultValue;
+    }
+
+    private static int getInt(Properties props, String key, int defaultValue) {
+        return (int) getLong(props, key, defaultValue);
+    }
+
+    private static String getString(Properties props, String key, String defaultValue) {
+        String value = props.getProperty(key);
+        if (value != null) {
+            return value.trim();
+        }
+        props.setProperty(key, defaultValue);
+        return defaultValue;
+    }
+
+    private static boolean getBoolean(Properties props, String key, boolean defaultValue) {
+        String value = props.getProperty(key);
+        if (value != null) {
+            return Boolean.parseBoolean(value.trim());
+        }
+        props.setProperty(key, Boolean.toString(defaultValue));
+        return defaultValue;
+    }
+}
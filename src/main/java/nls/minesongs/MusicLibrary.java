@@ -0,0 +1,272 @@
+package nls.minesongs;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Songs found in the configured music folders. A scan walks the folders with fork/join tasks, one per
+// directory, and reads tags of new or changed files in parallel; a file whose size and modification
+// time match the index keeps its entry without being opened. The index lives in library.tsv, one
+// line per song, so a rescan of a large library only reads the tags of what changed.
+public class MusicLibrary {
+    private static final Set<String> EXTENSIONS = Set.of(
+            "mp3", "flac", "ogg", "oga", "opus", "wav", "aif", "aiff", "aifc", "au", "m4a", "aac", "webm", "wma");
+    // Songs per tag-reading task, so one big folder still spreads over all threads
+    private static final int FILES_PER_TASK = 32;
+
+    // path is absolute; title falls back to the file name when the file has no tags
+    public record Track(String path, long size, long modified, String title, String artist, String album,
+                        long durationSeconds) {
+        // "Artist - Title", or just the title
+        public String displayTitle() {
+            return artist.isEmpty() ? title : artist + " - " + title;
+        }
+    }
+
+    private final Path indexFile;
+    private final AtomicBoolean scanning = new AtomicBoolean(false);
+
+    // Replaced as a whole after every scan; readers never see a scan half applied
+    private volatile Map<String, Track> tracks = Map.of();
+    private volatile List<Track> sorted = List.of();
+
+    public MusicLibrary(Path indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    public void load() {
+        if (!Files.exists(indexFile)) {
+            return;
+        }
+        Map<String, Track> loaded = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", -1);
+                if (parts.length != 7) {
+                    continue;
+                }
+                try {
+                    loaded.put(parts[0], new Track(parts[0], Long.parseLong(parts[1]), Long.parseLong(parts[2]),
+                            parts[4], parts[5], parts[6], Long.parseLong(parts[3])));
+                } catch (NumberFormatException ignored) {
+                    // Skip damaged lines
+                }
+            }
+            publish(loaded);
+            Minesongs.LOGGER.info("Music library loaded: {} songs", loaded.size());
+        } catch (IOException e) {
+            Minesongs.LOGGER.warn("Failed to read music library: {}", e.getMessage());
+        }
+    }
+
+    // Sorted by artist, album and title
+    public List<Track> tracks() {
+        return sorted;
+    }
+
+    public Track get(Path file) {
+        return tracks.get(file.toAbsolutePath().normalize().toString());
+    }
+
+    public boolean isScanning() {
+        return scanning.get();
+    }
+
+    // Blocks until the folders are scanned; false if a scan was already running
+    public boolean scan(List<Path> folders, int parallelism) {
+        if (!scanning.compareAndSet(false, true)) {
+            return false;
+        }
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            Map<String, Track> previous = tracks;
+            AtomicInteger parsed = new AtomicInteger();
+            List<DirectoryScan> roots = new ArrayList<>();
+            for (Path folder : folders) {
+                if (Files.isDirectory(folder)) {
+                    roots.add(new DirectoryScan(folder.toAbsolutePath().normalize(), previous, parsed));
+                } else {
+                    Minesongs.LOGGER.warn("Music folder not found: {}", folder);
+                }
+            }
+
+            Map<String, Track> found = new HashMap<>();
+            for (DirectoryScan root : roots) {
+                for (Track track : pool.invoke(root)) {
+                    found.put(track.path(), track);
+                }
+            }
+            int kept = 0;
+            for (String path : found.keySet()) {
+                if (previous.containsKey(path)) {
+                    kept++;
+                }
+            }
+            int removed = previous.size() - kept;
+            publish(found);
+            if (parsed.get() > 0 || removed > 0) {
+                save();
+            }
+            Minesongs.LOGGER.info("Music library scanned: {} songs, {} read, {} removed in {} ms", found.size(),
+                    parsed.get(), removed, (System.nanoTime() - start) / 1_000_000);
+        } finally {
+            pool.shutdown();
+            scanning.set(false);
+        }
+        return true;
+    }
+
+    private void publish(Map<String, Track> found) {
+        List<Track> list = new ArrayList<>(found.values());
+        list.sort(Comparator.comparing((Track track) -> track.artist().toLowerCase(Locale.ROOT))
+                .thenComparing(track -> track.album().toLowerCase(Locale.ROOT))
+                .thenComparing(track -> track.title().toLowerCase(Locale.ROOT)));
+        tracks = Collections.unmodifiableMap(found);
+        sorted = Collections.unmodifiableList(list);
+    }
+
+    // One directory: its subdirectories are forked as tasks of their own, its songs read in groups
+    private static final class DirectoryScan extends RecursiveTask<List<Track>> {
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final Map<String, Track> previous;
+        private final AtomicInteger parsed;
+
+        DirectoryScan(Path dir, Map<String, Track> previous, AtomicInteger parsed) {
+            this.dir = dir;
+            this.previous = previous;
+            this.parsed = parsed;
+        }
+
+        @Override
+        protected List<Track> compute() {
+            List<RecursiveTask<List<Track>>> children = new ArrayList<>();
+            List<Path> files = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    String name = entry.getFileName().toString();
+                    if (name.startsWith(".")) {
+                        continue;
+                    }
+                    // Linked folders are not followed, so a link cannot send the walk in circles
+                    if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                        children.add(new DirectoryScan(entry, previous, parsed));
+                    } else if (EXTENSIONS.contains(extensionOf(name))) {
+                        files.add(entry);
+                    }
+                }
+            } catch (IOException e) {
+                Minesongs.LOGGER.warn("Failed to list {}: {}", dir, e.getMessage());
+            }
+            for (int from = 0; from < files.size(); from += FILES_PER_TASK) {
+                children.add(new FileScan(files.subList(from, Math.min(files.size(), from + FILES_PER_TASK)),
+                        previous, parsed));
+            }
+
+            invokeAll(children);
+            List<Track> found = new ArrayList<>();
+            for (RecursiveTask<List<Track>> child : children) {
+                found.addAll(child.join());
+            }
+            return found;
+        }
+    }
+
+    private static final class FileScan extends RecursiveTask<List<Track>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Path> files;
+        private final Map<String, Track> previous;
+        private final AtomicInteger parsed;
+
+        FileScan(List<Path> files, Map<String, Track> previous, AtomicInteger parsed) {
+            this.files = files;
+            this.previous = previous;
+            this.parsed = parsed;
+        }
+
+        @Override
+        protected List<Track> compute() {
+            List<Track> found = new ArrayList<>(files.size());
+            for (Path file : files) {
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    if (!attributes.isRegularFile()) {
+                        continue;
+                    }
+                    String path = file.toString();
+                    if (path.indexOf('\t') >= 0 || path.indexOf('\n') >= 0) {
+                        continue; // Would break its index line
+                    }
+                    long size = attributes.size();
+                    long modified = attributes.lastModifiedTime().toMillis();
+                    Track known = previous.get(path);
+                    if (known != null && known.size() == size && known.modified() == modified) {
+                        found.add(known);
+                        continue;
+                    }
+                    TagReader.Tags tags = TagReader.read(file);
+                    parsed.incrementAndGet();
+                    String title = tags.title().isEmpty() ? baseName(file) : tags.title();
+                    found.add(new Track(path, size, modified, title, tags.artist(), tags.album(),
+                            tags.durationSeconds()));
+                } catch (IOException e) {
+                    Minesongs.LOGGER.debug("Skipping {}: {}", file, e.getMessage());
+                }
+            }
+            return found;
+        }
+    }
+
+    private static String extensionOf(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 ? name.substring(dot + 1).toLowerCase(Locale.ROOT) : "";
+    }
+
+    private static String baseName(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return (dot > 0 ? name.substring(0, dot) : name).replace('\t', ' ');
+    }
+
+    // Written to a temp file and moved into place so a crash never leaves a half-written file
+    private synchronized void save() {
+        Path temp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(indexFile.getParent());
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                for (Track track : sorted) {
+                    writer.write(track.path() + "\t" + track.size() + "\t" + track.modified() + "\t"
+                            + track.durationSeconds() + "\t" + track.title() + "\t" + track.artist() + "\t"
+                            + track.album());
+                    writer.newLine();
+                }
+            }
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Minesongs.LOGGER.warn("Failed to write music library: {}", e.getMessage());
+        }
+    }
+}
@@ -1,181 +1,929 @@
 package nls.minesongs;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.InputStreamReader;
-import java.net.URL;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
 
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.Clip;
-import javax.sound.sampled.DataLine;
-import javax.sound.sampled.FloatControl;
-import javax.sound.sampled.LineEvent;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import javax.sound.sampled.UnsupportedAudioFileException;
 
 public class MusicManager {
-    private static boolean isPlaying = false;
-    private static String currentTrack = "";
-    private static ScheduledExecutorService executor;
-    private static Clip currentClip;
-    private static FloatControl volumeControl;
-    private static float currentVolume = 80.0f; // Default volume 80%
+    private static final String YT_DLP_PATH = "C:\\Users\\sdb18\\AppData\\Local\\Programs\\Python\\Python311\\Scripts\\yt-dlp.exe";
+    private static final long PROGRESSIVE_START_TIMEOUT_MS = 30_000;
+    private static final long LOOKUP_TIMEOUT_MS = 5_000;
+    // Past this point "previous" restarts the current track
+    private static final long PREVIOUS_RESTART_MILLIS = 3_000;
+    private static final long SESSION_CHECKPOINT_MILLIS = 5_000;
+    private static final int SEARCH_RESULTS = 100;
+
+    // Owns playback: every state change below runs on its single thread
+    private static final AudioEngine engine = new AudioEngine();
+
+    // One output line for the whole session; track changes happen inside it
+    private static final AudioMixer mixer = new AudioMixer(engine.workers(),
+            (finished, next) -> engine.submit(() -> onTrackEnded(finished, next)));
+
+    // Child processes (yt-dlp, FFmpeg lookups) with drained pipes and timeouts
+    private static final ProcessSupervisor processes = new ProcessSupervisor(engine.workers());
+
+    // Published from the engine thread, dispatched on the client thread
+    private static final PlaybackEventBus events = new PlaybackEventBus(256);
+
+    // Track, play/pause flags, loop mode and volume, swapped as a whole with compare-and-set
+    private static final AtomicReference<PlaybackState> state = new AtomicReference<>(PlaybackState.INITIAL);
+
+    // Upcoming songs, shuffle and the history behind "previous"; safe to change from any thread
+    private static final SongQueue queue = new SongQueue(MinesongsConfig.queueHistorySize);
+
+    private static volatile StreamingPlayer currentPlayer;
+    // Stops currentPlayer when its job is cancelled; only touched on the engine thread
+    private static Runnable currentPlayerStop;
+    // The queue head, already opened and lined up in the mixer to follow currentPlayer
+    private static StreamingPlayer preparedNext;
+    private static long preparedHandle;
+
+    // Queue and player state survive restarts and crashes through this
+    private static volatile SessionJournal journal;
+    private static long lastCheckpoint = 0;
+    // The song that was playing when the last session ended, and where
+    private static volatile String resumeTrack;
+    private static volatile long resumeMillis;
+    private static String ffmpegExecutable;
+    private static boolean ffmpegSearched = false;
+
+    private static AudioCache audioCache;
+    private static QueuePrefetcher prefetcher;
+    private static MetadataService metadata;
+    private static MusicLibrary library;
+    // Every song from the library, the cache and the history, for the search box
+    private static final SearchIndex searchIndex = new SearchIndex();
+    // History songs in the search index, by search key
+    private static final Set<String> indexedHistory = new HashSet<>();
+    // Library songs in the search index, guarded by itself
+    private static final List<MusicLibrary.Track> indexedLibrary = new ArrayList<>();
+
+    // Songs being downloaded by the prefetcher or a playlist import, by URL
+    private static final Map<String, CompletableFuture<String>> fetching = new ConcurrentHashMap<>();
+    // Cache keys being analyzed, so a file is only analyzed once
+    private static final Set<String> analysisPending = ConcurrentHashMap.newKeySet();
+    // Seek indexes of the files played last, so a seek rarely reads one from disk; guarded by itself.
+    // Each keeps the size and modification time of its file, since an evicted cache file can be
+    // downloaded again under the same name.
+    private static final int SEEK_INDEXES = 32;
+    private static final LinkedHashMap<Path, KnownSeekIndex> seekIndexes = new LinkedHashMap<>(16, 0.75f, true);
+    // Bumped by every seek, so a seek that took longer to get ready than a later one is dropped;
+    // only touched on the engine thread
+    private static long seekRequests = 0;
+
+    // Shared by all playlist imports in flight; clearing the queue cancels them
+    private static final AtomicReference<CancellationToken> imports = new AtomicReference<>(new CancellationToken());
+
+    // Loads the persistent audio cache index; called once at startup
+    public static void initialize() {
+        mixer.setCrossfadeMillis(MinesongsConfig.crossfadeMillis);
+        mixer.getDsp().setVolume(state.get().volume());
+        mixer.getDsp().setEqualizer(MinesongsConfig.eqLowDb, MinesongsConfig.eqMidDb, MinesongsConfig.eqHighDb);
+        getAudioCache();
+        getMetadataService();
+        indexCache();
+        scanLibrary();
+        journal = new SessionJournal(MinesongsConfig.getDataDir().resolve("session.journal"), engine.workers());
+        engine.workers().execute(MusicManager::restoreSession);
+    }
+
+    // Runs on a worker so a long queue never holds up startup
+    private static void restoreSession() {
+        long start = System.nanoTime();
+        SessionJournal.Session session = journal.replay(queue, PlaybackState.INITIAL.volume());
+        updateState(s -> s.withLooping(session.looping()).withVolume(session.volume()));
+        mixer.getDsp().setVolume(session.volume());
+        SongQueue.Entry resume = session.resumeHandle() != 0 ? queue.get(session.resumeHandle()) : null;
+        if (!session.track().isEmpty()) {
+            // The interrupted song comes first when the queue is resumed, from where it was
+            resume = queue.addNext(session.track(), null, 0);
+        }
+        if (resume != null) {
+            resumeMillis = session.positionMillis();
+            resumeTrack = resume.url();
+            // Until it plays, the journal keeps it as the song to resume rather than the current one
+            journal.resumeWith(resume.handle(), resumeMillis);
+        }
+        journal.attach(queue, state::get, MusicManager::getPositionMillis);
+        indexHistory();
+        Minesongs.LOGGER.info("Session restored: {} songs queued from {} records in {} ms", queue.size(),
+                session.records(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // Called every client tick; notes the position now and then, so a crash resumes close to it
+    public static void checkpointSession() {
+        long now = System.currentTimeMillis();
+        if (journal != null && state.get().playing() && now - lastCheckpoint >= SESSION_CHECKPOINT_MILLIS) {
+            lastCheckpoint = now;
+            journal.positionChanged(getPositionMillis());
+        }
+    }
+
+    // Called as the game closes; writes out what the journal has not yet written
+    public static void shutdown() {
+        SessionJournal current = journal;
+        if (current != null) {
+            if (state.get().hasTrack()) {
+                current.positionChanged(getPositionMillis());
+            }
+            current.flush();
+        }
+        AudioCache cache = audioCache;
+        if (cache != null) {
+            cache.flush();
+        }
+    }
+
+    static synchronized AudioCache getAudioCache() {
+        if (audioCache == null) {
+            audioCache = new AudioCache(
+                    MinesongsConfig.getDataDir().resolve("cache"),
+                    MinesongsConfig.cacheMaxMegabytes * 1024 * 1024,
+                    MinesongsConfig.cacheMaxAgeDays * 24L * 60 * 60 * 1000);
+            audioCache.load();
+            audioCache.setAddedListener(key -> {
+                analyzeCached(key);
+                indexCached(key);
+            });
+            audioCache.setRemovedListener(key -> searchIndex.remove(key, SearchIndex.CACHE));
+        }
+        return audioCache;
+    }
+
+    private static synchronized MetadataService getMetadataService() {
+        if (metadata == null) {
+            metadata = new MetadataService(
+                    MinesongsConfig.getDataDir().resolve("metadata.tsv"),
+                    YT_DLP_PATH,
+                    processes,
+                    engine.workers(),
+                    MinesongsConfig.ytDlpTimeoutSeconds * 1000L);
+            metadata.load();
+            metadata.setResolvedListener(resolved ->
+                    searchIndex.describe(resolved.key(), resolved.title(), resolved.durationSeconds()));
+        }
+        return metadata;
+    }
+
+    private static synchronized MusicLibrary getLibrary() {
+        if (library == null) {
+            library = new MusicLibrary(MinesongsConfig.getDataDir().resolve("library.tsv"));
+            library.load();
+        }
+        return library;
+    }
 
-    // Queue system
-    private static Queue<String> songQueue = new LinkedList<>();
-    private static boolean isLooping = false;
+    // Rescans the music folders on a worker; only files that changed since the last scan are read
+    public static void scanLibrary() {
+        List<Path> folders = new ArrayList<>();
+        for (String folder : MinesongsConfig.libraryFolders.split(";")) {
+            if (!folder.isBlank()) {
+                folders.add(Path.of(folder.trim()));
+            }
+        }
+        engine.workers().execute(() -> {
+            MusicLibrary current = getLibrary();
+            // What the last session saved is searchable before the scan is done
+            indexLibrary(current.tracks());
+            if (current.scan(folders, MinesongsConfig.libraryScanThreads)) {
+                indexLibrary(current.tracks());
+            }
+        });
+    }
+
+    // Unchanged songs keep their Track instance across scans, so only new and changed ones are indexed
+    private static void indexLibrary(List<MusicLibrary.Track> tracks) {
+        synchronized (indexedLibrary) {
+            Set<MusicLibrary.Track> added = Collections.newSetFromMap(new IdentityHashMap<>());
+            added.addAll(tracks);
+            Set<String> present = new HashSet<>();
+            for (MusicLibrary.Track track : tracks) {
+                present.add(track.path());
+            }
+            for (MusicLibrary.Track track : indexedLibrary) {
+                if (!present.contains(track.path())) {
+                    searchIndex.remove(toFileUrl(Path.of(track.path())), SearchIndex.LIBRARY);
+                }
+                added.remove(track);
+            }
+            for (MusicLibrary.Track track : added) {
+                String url = toFileUrl(Path.of(track.path()));
+                searchIndex.add(url, url, track.title(), track.artist(), track.album(), track.durationSeconds(),
+                        SearchIndex.LIBRARY);
+            }
+            indexedLibrary.clear();
+            indexedLibrary.addAll(tracks);
+        }
+    }
+
+    // YouTube songs are found under their video ID; cached files under any other key have lost their URL
+    private static void indexCache() {
+        for (String key : getAudioCache().keys()) {
+            indexCached(key);
+        }
+    }
 
-    // NEW: Track manual pauses
-    private static boolean wasManuallyPaused = false;
+    private static void indexCached(String key) {
+        if (!key.startsWith("yt-")) {
+            return;
+        }
+        String url = "https://www.youtube.com/watch?v=" + key.substring(3);
+        TrackMetadata known = getMetadataService().get(url);
+        searchIndex.add(key, url, known != null ? known.title() : "", "", "",
+                known != null ? known.durationSeconds() : 0, SearchIndex.CACHE);
+    }
 
+    // The history is a short ring, so it is simply compared with what was indexed from it last time
+    private static void indexHistory() {
+        synchronized (indexedHistory) {
+            Set<String> keys = new HashSet<>();
+            for (SongQueue.Entry entry : queue.history()) {
+                String url = entry.url();
+                String key = searchKey(url);
+                if (!keys.add(key) || indexedHistory.contains(key)) {
+                    continue;
+                }
+                TrackMetadata known = getMetadataService().get(url);
+                String title = known != null ? known.title() : entry.title() != null ? entry.title() : "";
+                long duration = known != null ? known.durationSeconds() : entry.durationSeconds();
+                searchIndex.add(key, url, title, "", "", duration, SearchIndex.HISTORY);
+            }
+            for (String key : indexedHistory) {
+                if (!keys.contains(key)) {
+                    searchIndex.remove(key, SearchIndex.HISTORY);
+                }
+            }
+            indexedHistory.clear();
+            indexedHistory.addAll(keys);
+        }
+    }
+
+    // The same song from different sources ends up under one key
+    private static String searchKey(String url) {
+        return AudioCache.extractVideoId(url) != null ? AudioCache.keyFor(url) : url;
+    }
+
+    // Best matches for what was typed so far, at most SEARCH_RESULTS of them
+    public static List<SearchIndex.Hit> search(String query) {
+        return searchIndex.search(query, SEARCH_RESULTS);
+    }
+
+    // Changes whenever the index does, so results on screen can be refreshed
+    public static int getSearchVersion() {
+        return searchIndex.version();
+    }
+
+    public static List<MusicLibrary.Track> getLibraryTracks() {
+        return getLibrary().tracks();
+    }
+
+    public static boolean isLibraryScanning() {
+        return getLibrary().isScanning();
+    }
+
+    // Library entry behind a file:// URL, or null
+    private static MusicLibrary.Track libraryTrackFor(String url) {
+        return url.startsWith("file://") ? getLibrary().get(new File(url.substring(7)).toPath()) : null;
+    }
+
+    // Title, duration and thumbnail if already resolved; never blocks
+    public static TrackMetadata getTrackMetadata(String url) {
+        return url != null ? getMetadataService().get(url) : null;
+    }
+
+    private static synchronized QueuePrefetcher getPrefetcher() {
+        if (prefetcher == null) {
+            prefetcher = new QueuePrefetcher(
+                    MusicManager::prefetchAudio,
+                    MinesongsConfig.prefetchDepth,
+                    MinesongsConfig.prefetchMaxConcurrent);
+        }
+        return prefetcher;
+    }
+
+    private static PlaybackState updateState(UnaryOperator<PlaybackState> change) {
+        while (true) {
+            PlaybackState current = state.get();
+            PlaybackState next = change.apply(current);
+            if (state.compareAndSet(current, next)) {
+                SessionJournal recorder = journal;
+                if (recorder != null) {
+                    recorder.stateChanged(current, next);
+                }
+                return next;
+            }
+        }
+    }
+
+    // One consistent snapshot for the UI to read per frame
+    public static PlaybackState getState() {
+        return state.get();
+    }
+
+    // Starts downloading the next queue entries in the background
+    private static void schedulePrefetch() {
+        getPrefetcher().update(state.get().track(), queue.upcoming(MinesongsConfig.prefetchDepth));
+        engine.submit(MusicManager::prepareNext);
+    }
+
+    // Runs on the engine thread. Opens the queue head once it is on disk and lines it up in the mixer,
+    // so it starts at the exact frame the current track ends (or crossfades into it).
+    private static void prepareNext() {
+        SongQueue.Entry head = queue.peek();
+        boolean wanted = head != null && !state.get().looping() && currentPlayer != null;
+
+        if (preparedNext != null && (!wanted || preparedHandle != head.handle())) {
+            mixer.clearNext();
+            preparedNext = null;
+        }
+        if (!wanted || preparedNext != null) {
+            return;
+        }
+
+        String fileUrl = cachedFileUrl(head.url());
+        if (fileUrl == null) {
+            return; // Not downloaded yet; tried again when its prefetch finishes
+        }
+        StreamingPlayer player = createPlayer(head.url(), sourceFor(fileUrl), null);
+        try {
+            player.start();
+        } catch (Exception e) {
+            Minesongs.LOGGER.debug("Could not line up {}: {}", head.url(), e.getMessage());
+            return;
+        }
+        if (mixer.setNext(player)) {
+            preparedNext = player;
+            preparedHandle = head.handle();
+            Minesongs.LOGGER.info("Lined up next song: {}", head.url());
+        } else {
+            player.stop();
+        }
+    }
+
+    // Local file URL for a song that needs no download, or null
+    private static String cachedFileUrl(String url) {
+        if (url.startsWith("file://")) {
+            return url;
+        }
+        if (url.startsWith("http")) {
+            Path cached = getAudioCache().lookup(AudioCache.keyFor(url));
+            return cached != null ? toFileUrl(cached) : null;
+        }
+        return null;
+    }
+
+    // Runs on a prefetch or import thread and pulls the song into the cache so playback can start from
+    // disk. A song already being fetched by the other is waited for instead of downloaded twice.
+    private static String prefetchAudio(String url, CancellationToken token) {
+        CompletableFuture<String> fetch = new CompletableFuture<>();
+        CompletableFuture<String> running = fetching.putIfAbsent(url, fetch);
+        if (running != null) {
+            return awaitFetch(running, token);
+        }
+        String resolved = null;
+        try {
+            resolved = fetchAudio(url, token);
+        } finally {
+            fetching.remove(url, fetch);
+            fetch.complete(resolved);
+        }
+        if (resolved != null) {
+            engine.submit(MusicManager::prepareNext);
+        }
+        return resolved;
+    }
+
+    private static String awaitFetch(CompletableFuture<String> fetch, CancellationToken token) {
+        while (!token.isCancelled()) {
+            try {
+                return fetch.get(100, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // Check the token again
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static String fetchAudio(String url, CancellationToken token) {
+        try {
+            if (url.contains("youtube.com") || url.contains("youtu.be")) {
+                return extractWithYtDlp(url, false, token);
+            }
+            if (url.startsWith("http")) {
+                String cacheKey = AudioCache.keyFor(url);
+                Path cached = getAudioCache().lookup(cacheKey);
+                if (cached == null) {
+                    URLConnection connection = URI.create(url).toURL().openConnection();
+                    InputStream source = connection.getInputStream();
+                    // Closing the connection makes the copy below fail, which discards the partial file
+                    token.onCancel(() -> {
+                        try {
+                            source.close();
+                        } catch (IOException ignored) {
+                        }
+                    });
+                    try (InputStream in = getAudioCache().cachingStream(cacheKey, fileExtensionOf(url),
+                            source, connection.getContentLengthLong())) {
+                        in.transferTo(OutputStream.nullOutputStream());
+                    }
+                    cached = getAudioCache().lookup(cacheKey);
+                }
+                return cached != null ? toFileUrl(cached) : null;
+            }
+        } catch (Exception e) {
+            if (!token.isCancelled()) {
+                Minesongs.LOGGER.warn("Prefetch failed for {}: {}", url, e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    // A newer play request cancels this one wherever it is: waiting on a prefetch, downloading or playing
     public static void playFromURL(String url) {
-        // Store current state to avoid unnecessary "Stopped" notification
-        boolean wasSomethingPlaying = (currentClip != null && isPlaying);
+        if (PlaylistImporter.isPlaylistUrl(url)) {
+            importPlaylist(url, true);
+            return;
+        }
+        getMetadataService().request(List.of(url));
+        engine.submitJob(token -> playJob(url, token, true));
+    }
 
+    // Runs on the engine thread. remember puts the track being replaced into the history.
+    private static void playJob(String url, CancellationToken token, boolean remember) {
+        if (remember) {
+            rememberPlayed(state.get().track());
+        }
         // Call stop without triggering HUD notification when immediately starting new song
         stopCurrentPlaybackSilent();
-        currentTrack = url;
-        wasManuallyPaused = false;
+        updateState(s -> s.withTrack(url));
 
-        executor = Executors.newSingleThreadScheduledExecutor();
-        executor.execute(() -> {
-            try {
-                Minesongs.LOGGER.info("Attempting to play: {}", url);
-
-                String audioUrl = url;
-
-                // Handle YouTube URLs
-                if (url.contains("youtube.com") || url.contains("youtu.be")) {
-                    Minesongs.LOGGER.info("Detected YouTube URL, extracting audio...");
-                    audioUrl = extractWithYtDlp(url);
-                    if (audioUrl == null) {
-                        Minesongs.LOGGER.error("Failed to extract YouTube audio");
-                        playNextInQueue(); // Try next song if this one fails
-                        return;
+        PlaybackMetrics.RequestTimer timer = PlaybackMetrics.startRequest();
+        try {
+            Minesongs.LOGGER.info("Attempting to play: {}", url);
+
+            String audioUrl = url;
+            StreamingPlayer.StreamSource progressiveSource = null;
+
+            // Handle YouTube URLs
+            if (url.contains("youtube.com") || url.contains("youtu.be")) {
+                Minesongs.LOGGER.info("Detected YouTube URL, extracting audio...");
+                audioUrl = getPrefetcher().take(url, token);
+                if (audioUrl == null) {
+                    Path cached = getAudioCache().lookup(AudioCache.keyFor(url));
+                    audioUrl = cached != null ? toFileUrl(cached) : null;
+                }
+                timer.mark(PlaybackMetrics.Stage.RESOLVE);
+                PlaybackMetrics.increment(audioUrl != null
+                        ? PlaybackMetrics.Counter.CACHE_HITS : PlaybackMetrics.Counter.CACHE_MISSES);
+                // Not on disk yet: start playing while it downloads
+                if (audioUrl == null && MinesongsConfig.progressivePlayback && !token.isCancelled()) {
+                    ProgressiveDownload download = startProgressiveDownload(url, token, timer);
+                    if (download != null) {
+                        progressiveSource = download::openStream;
+                        audioUrl = "progressive:" + url;
                     }
                 }
-                // Handle Spotify URLs (will need more complex setup)
-                else if (url.contains("spotify.com")) {
-                    Minesongs.LOGGER.error("Spotify integration requires additional setup");
-                    playNextInQueue(); // Try next song
+                if (audioUrl == null && !token.isCancelled()) {
+                    audioUrl = extractWithYtDlp(url, false, token);
+                    timer.mark(PlaybackMetrics.Stage.DOWNLOAD);
+                }
+                if (token.isCancelled()) {
+                    Minesongs.LOGGER.info("Play request superseded: {}", url);
                     return;
                 }
-
-                Minesongs.LOGGER.info("Playing audio from: {}", audioUrl);
-
-                AudioInputStream audioStream;
-                if (audioUrl.startsWith("file://")) {
-                    // Local file
-                    String filePath = audioUrl.substring(7); // Remove "file://" prefix
-                    File audioFile = new File(filePath);
-                    audioStream = AudioSystem.getAudioInputStream(audioFile);
-                } else {
-                    // Web URL
-                    audioStream = AudioSystem.getAudioInputStream(new URL(audioUrl));
+                if (audioUrl == null) {
+                    Minesongs.LOGGER.error("Failed to extract YouTube audio");
+                    playNextInQueue(); // Try next song if this one fails
+                    return;
                 }
+            }
+            // Handle Spotify URLs (will need more complex setup)
+            else if (url.contains("spotify.com")) {
+                Minesongs.LOGGER.error("Spotify integration requires additional setup");
+                playNextInQueue(); // Try next song
+                return;
+            }
 
-                AudioFormat format = audioStream.getFormat();
-                Minesongs.LOGGER.info("Audio format: {} Hz, {} bit, {} channels, {}",
-                        format.getSampleRate(),
-                        format.getSampleSizeInBits(),
-                        format.getChannels(),
-                        format.getEncoding());
-
-                // Check if format is supported
-                if (!isFormatSupported(format)) {
-                    Minesongs.LOGGER.warn("Audio format not directly supported, attempting conversion...");
-                    // Try to convert to a supported format
-                    audioStream = convertToSupportedFormat(audioStream);
-                    format = audioStream.getFormat();
-                    Minesongs.LOGGER.info("Converted format: {} Hz, {} bit, {} channels, {}",
-                            format.getSampleRate(),
-                            format.getSampleSizeInBits(),
-                            format.getChannels(),
-                            format.getEncoding());
+            // Other web audio is cached under a hash of its URL
+            if (audioUrl.startsWith("http")) {
+                String prefetched = getPrefetcher().take(audioUrl, token);
+                Path cached = getAudioCache().lookup(AudioCache.keyFor(audioUrl));
+                if (prefetched != null) {
+                    audioUrl = prefetched;
+                } else if (cached != null) {
+                    Minesongs.LOGGER.info("Cache hit for {}", audioUrl);
+                    audioUrl = toFileUrl(cached);
                 }
+                PlaybackMetrics.increment(audioUrl.startsWith("file://")
+                        ? PlaybackMetrics.Counter.CACHE_HITS : PlaybackMetrics.Counter.CACHE_MISSES);
+                timer.mark(PlaybackMetrics.Stage.RESOLVE);
+            } else if (progressiveSource == null && audioUrl.equals(url)) {
+                // Local file
+                timer.mark(PlaybackMetrics.Stage.RESOLVE);
+            }
+            if (token.isCancelled()) {
+                Minesongs.LOGGER.info("Play request superseded: {}", url);
+                return;
+            }
 
-                DataLine.Info info = new DataLine.Info(Clip.class, format);
-                if (!AudioSystem.isLineSupported(info)) {
-                    Minesongs.LOGGER.error("No audio line supported for this format");
-                    playNextInQueue(); // Try next song
-                    return;
+            Minesongs.LOGGER.info("Playing audio from: {}", audioUrl);
+
+            String resolvedUrl = audioUrl;
+            StreamingPlayer player = createPlayer(url,
+                    progressiveSource != null ? progressiveSource : sourceFor(resolvedUrl),
+                    timer);
+            currentPlayer = player;
+            stopWithJob(token, player);
+            try {
+                player.start();
+            } catch (UnsupportedAudioFileException e) {
+                // No decoder for the cached source format: have yt-dlp convert it once and retry
+                if (!url.contains("youtube.com") && !url.contains("youtu.be")) {
+                    throw e;
+                }
+                Minesongs.LOGGER.warn("No decoder for {}, converting to WAV", resolvedUrl);
+                String converted = extractWithYtDlp(url, true, token);
+                if (converted == null) {
+                    throw e;
+                }
+                player = createPlayer(url, sourceFor(converted), timer);
+                currentPlayer = player;
+                stopWithJob(token, player);
+                player.start();
+            }
+            timer.mark(PlaybackMetrics.Stage.DECODE_START);
+            try {
+                mixer.openLine();
+                timer.mark(PlaybackMetrics.Stage.LINE_OPEN);
+                mixer.play(player);
+                if (url.equals(resumeTrack) && resumeMillis > 0) {
+                    seekWhenReady(player, resumeMillis);
+                }
+                if (resumeTrack != null) {
+                    resumeTrack = null;
+                    journal.resumeWith(0, 0);
                 }
+            } catch (LineUnavailableException e) {
+                Minesongs.LOGGER.error("No audio line supported for this format");
+                currentPlayer = null;
+                playNextInQueue(); // Try next song
+                return;
+            }
 
-                currentClip = (Clip) AudioSystem.getLine(info);
-                currentClip.open(audioStream);
-
-                // Setup volume control
-                setupVolumeControl();
-
-                // UPDATED LineListener with pause detection
-                currentClip.addLineListener(event -> {
-                    if (event.getType() == LineEvent.Type.STOP) {
-                        Minesongs.LOGGER.info("LineEvent STOP detected - isPlaying: {}, wasManuallyPaused: {}",
-                                isPlaying, wasManuallyPaused);
-
-                        // Only advance if this wasn't a manual pause
-                        if (isPlaying && !wasManuallyPaused) {
-                            Minesongs.LOGGER.info("Song finished naturally, checking queue...");
-                            if (isLooping) {
-                                currentClip.setFramePosition(0);
-                                currentClip.start();
-                                Minesongs.LOGGER.info("Looping current song");
-                            } else {
-                                playNextInQueue();
-                            }
-                        } else if (wasManuallyPaused) {
-                            Minesongs.LOGGER.info("Stop event due to manual pause - keeping clip alive");
-                            // Don't close the clip or advance queue
-                        }
-                    }
-                });
+            updateState(s -> s.withPlaying(true, false));
+            Minesongs.LOGGER.info("Playback started successfully!");
+
+            // Get the next songs ready while this one plays
+            schedulePrefetch();
 
-                currentClip.start();
-                isPlaying = true;
-                wasManuallyPaused = false;
-                Minesongs.LOGGER.info("Playback started successfully!");
+            publish(PlaybackEvent.Type.STARTED, extractSongTitleFromUrl(url));
 
-                // NEW: Trigger HUD notification when song starts playing
-                triggerHudNotification(true, extractSongTitleFromUrl(url));
+        } catch (Exception e) {
+            if (token.isCancelled()) {
+                Minesongs.LOGGER.info("Play request superseded: {}", url);
+                return;
+            }
+            Minesongs.LOGGER.error("Failed to play audio: {}", e.getMessage());
+            e.printStackTrace();
+            updateState(s -> s.withPlaying(false, false));
+            playNextInQueue(); // Try next song if this one fails
+        }
+    }
 
+    // timer is null for tracks lined up ahead of time, which have no request to time
+    private static StreamingPlayer createPlayer(String url, StreamingPlayer.StreamSource source,
+                                                PlaybackMetrics.RequestTimer timer) {
+        TrackMetadata meta = getTrackMetadata(url);
+        long durationHint = meta != null ? meta.durationSeconds() * 1000 : 0;
+        StreamingPlayer player = new StreamingPlayer(url, source, MusicManager::isLooping, durationHint);
+        if (MinesongsConfig.loudnessNormalization && url.startsWith("http")) {
+            String key = AudioCache.keyFor(url);
+            LoudnessAnalyzer.Result loudness = getAudioCache().getLoudness(key);
+            if (loudness != null) {
+                player.setGainDb(loudness.gainDb(MinesongsConfig.loudnessTargetLufs));
+            } else if (getAudioCache().contains(key)) {
+                // Cached before loudness was measured; ready for the next play
+                analyzeCached(key);
+            }
+        }
+        if (timer != null) {
+            player.setFirstAudioListener(() -> {
+                timer.finish();
+                Minesongs.LOGGER.info("Time to first audio: {} ms", timer.elapsedMillis());
+            });
+        }
+        return player;
+    }
+
+    // Indexes a newly cached song for seeking and measures its loudness in the background, storing
+    // the results with it
+    private static void analyzeCached(String key) {
+        if (!analysisPending.add(key)) {
+            return;
+        }
+        engine.workers().execute(() -> {
+            try {
+                Path file = getAudioCache().peek(key);
+                if (file == null) {
+                    return;
+                }
+                if (getAudioCache().getSeekIndex(file) == null) {
+                    long start = System.nanoTime();
+                    SeekIndex index = SeekIndex.build(file);
+                    getAudioCache().setSeekIndex(key, file, index);
+                    rememberSeekIndex(file, index);
+                    Minesongs.LOGGER.info("Seek index of {}: {}, {} points ({} ms)", key, index.kind(),
+                            index.points(), (System.nanoTime() - start) / 1_000_000);
+                }
+                if (MinesongsConfig.loudnessNormalization && getAudioCache().getLoudness(key) == null) {
+                    measureLoudness(key, file);
+                }
             } catch (Exception e) {
-                Minesongs.LOGGER.error("Failed to play audio: {}", e.getMessage());
-                e.printStackTrace();
-                isPlaying = false;
-                playNextInQueue(); // Try next song if this one fails
+                Minesongs.LOGGER.warn("Analysis failed for {}: {}", key, e.getMessage());
+            } finally {
+                analysisPending.remove(key);
             }
         });
     }
 
-    // NEW: Silent version of stopCurrentPlayback that doesn't trigger HUD notifications
-    private static void stopCurrentPlaybackSilent() {
-        // Only fully stop if not manually paused
-        if (!wasManuallyPaused) {
-            if (currentClip != null) {
-                currentClip.stop();
-                currentClip.close();
-                currentClip = null;
-                volumeControl = null;
-            }
-            if (executor != null && !executor.isShutdown()) {
-                executor.shutdownNow();
-            }
-            isPlaying = false;
-            Minesongs.LOGGER.info("Playback fully stopped (silent)");
-            // NOTE: No HUD notification triggered here!
+    private static void measureLoudness(String key, Path file) throws Exception {
+        long start = System.nanoTime();
+        LoudnessAnalyzer.Result result;
+        try (AudioInputStream in = openAudioStream(toFileUrl(file))) {
+            result = LoudnessAnalyzer.analyze(in, in.getFormat(), () -> !Files.isRegularFile(file));
+        }
+        if (result != null) {
+            getAudioCache().setLoudness(key, file, result);
+            Minesongs.LOGGER.info("Loudness of {}: {} LUFS, peak {} dBFS ({} ms)", key,
+                    String.format("%.1f", result.integratedLufs()), String.format("%.1f", result.peakDb()),
+                    (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    // Files on disk can seek through their index; anything else only opens from the start
+    private static StreamingPlayer.StreamSource sourceFor(String audioUrl) {
+        if (!audioUrl.startsWith("file://")) {
+            return () -> openAudioStream(audioUrl);
+        }
+        Path file = new File(audioUrl.substring(7)).toPath();
+        return new StreamingPlayer.StreamSource() {
+            @Override
+            public AudioInputStream open() throws Exception {
+                return openAudioStream(audioUrl);
+            }
+
+            // Worker thread, so a file indexed for the first time holds nothing up
+            @Override
+            public AudioInputStream openAt(long frame) throws Exception {
+                SeekIndex index = seekIndexFor(file);
+                double seconds = frame / AudioMixer.FORMAT.getFrameRate();
+                AudioInputStream positioned = AudioDecoders.openAt(file, index, seconds, getFfmpegExecutable(),
+                        processes);
+                return positioned != null ? toMixerFormat(positioned) : null;
+            }
+        };
+    }
+
+    private record KnownSeekIndex(SeekIndex index, long size, long modified) {
+    }
+
+    // Recorded when the file was cached; built now for local files and files cached before indexes existed
+    private static SeekIndex seekIndexFor(Path file) throws IOException {
+        long size = Files.size(file);
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        synchronized (seekIndexes) {
+            KnownSeekIndex known = seekIndexes.get(file);
+            if (known != null && known.size() == size && known.modified() == modified) {
+                return known.index();
+            }
+        }
+        SeekIndex index = getAudioCache().getSeekIndex(file);
+        if (index == null) {
+            index = SeekIndex.build(file);
+        }
+        rememberSeekIndex(file, index);
+        return index;
+    }
+
+    private static void rememberSeekIndex(Path file, SeekIndex index) throws IOException {
+        KnownSeekIndex known = new KnownSeekIndex(index, Files.size(file), Files.getLastModifiedTime(file).toMillis());
+        synchronized (seekIndexes) {
+            seekIndexes.put(file, known);
+            Iterator<KnownSeekIndex> oldest = seekIndexes.values().iterator();
+            while (seekIndexes.size() > SEEK_INDEXES) {
+                oldest.next();
+                oldest.remove();
+            }
+        }
+    }
+
+    // Starts a yt-dlp | ffmpeg pipeline and waits for a short buffer; null if ffmpeg is missing, nothing
+    // arrives, or the job was cancelled. The download is torn down together with the job.
+    private static ProgressiveDownload startProgressiveDownload(String url, CancellationToken token,
+                                                                PlaybackMetrics.RequestTimer timer) throws InterruptedException {
+        String ffmpegExe = getFfmpegExecutable();
+        if (ffmpegExe == null) {
+            return null;
+        }
+
+        ProgressiveDownload download;
+        try {
+            download = ProgressiveDownload.start(url, AudioCache.keyFor(url), getAudioCache(), YT_DLP_PATH, ffmpegExe,
+                    processes, MinesongsConfig.ytDlpTimeoutSeconds * 1000L, engine.workers());
+        } catch (IOException e) {
+            Minesongs.LOGGER.warn("Progressive download unavailable: {}", e.getMessage());
+            return null;
+        }
+        token.onCancel(download::cancel);
+
+        AudioFormat format = ProgressiveDownload.PCM_FORMAT;
+        long prebufferBytes = (long) (format.getFrameRate() * MinesongsConfig.progressivePrebufferMillis / 1000)
+                * format.getFrameSize();
+        if (download.awaitBuffered(prebufferBytes, PROGRESSIVE_START_TIMEOUT_MS) && !token.isCancelled()) {
+            timer.mark(PlaybackMetrics.Stage.DOWNLOAD);
+            return download;
+        }
+        download.cancel();
+        if (!token.isCancelled()) {
+            Minesongs.LOGGER.warn("Progressive download produced no audio, falling back to full download");
+        }
+        return null;
+    }
+
+    // Opens a decoded stream for the resolved audio URL, converted to a line-friendly format if needed
+    private static AudioInputStream openAudioStream(String audioUrl) throws Exception {
+        AudioInputStream audioStream;
+        File audioFile = null;
+        if (audioUrl.startsWith("file://")) {
+            // Local file
+            String filePath = audioUrl.substring(7); // Remove "file://" prefix
+            audioFile = new File(filePath);
+            audioStream = AudioDecoders.open(audioFile.toPath(), getFfmpegExecutable(), processes);
+            if (audioStream == null) {
+                throw new UnsupportedAudioFileException("No decoder available for " + audioFile.getName());
+            }
         } else {
-            Minesongs.LOGGER.info("Playback already paused manually - skipping full stop");
+            // Web URL, copied into the cache while it plays
+            URLConnection connection = URI.create(audioUrl).toURL().openConnection();
+            InputStream cachingStream = getAudioCache().cachingStream(
+                    AudioCache.keyFor(audioUrl),
+                    fileExtensionOf(audioUrl),
+                    connection.getInputStream(),
+                    connection.getContentLengthLong());
+            audioStream = AudioDecoders.toPcm(AudioSystem.getAudioInputStream(new BufferedInputStream(cachingStream)));
+        }
+
+        AudioFormat format = audioStream.getFormat();
+        Minesongs.LOGGER.info("Audio format: {} Hz, {} bit, {} channels, {}",
+                format.getSampleRate(),
+                format.getSampleSizeInBits(),
+                format.getChannels(),
+                format.getEncoding());
+
+        // The session mixer plays everything in one format
+        if (!format.matches(AudioMixer.FORMAT)) {
+            Minesongs.LOGGER.info("Converting to the mixer format...");
+            audioStream = toMixerFormat(audioStream);
+            String ffmpegExe = getFfmpegExecutable();
+            if (!audioStream.getFormat().matches(AudioMixer.FORMAT) && audioFile != null && ffmpegExe != null) {
+                // Java Sound cannot convert this one; FFmpeg decodes straight to the mixer format
+                audioStream.close();
+                audioStream = AudioDecoders.openWithFfmpeg(processes, ffmpegExe, audioFile.getAbsolutePath(), 0);
+            }
+            format = audioStream.getFormat();
+            Minesongs.LOGGER.info("Converted format: {} Hz, {} bit, {} channels, {}",
+                    format.getSampleRate(),
+                    format.getSampleSizeInBits(),
+                    format.getChannels(),
+                    format.getEncoding());
+        }
+        return audioStream;
+    }
+
+    // A stream that fails to convert is handed back unchanged; the player rejects it
+    private static AudioInputStream toMixerFormat(AudioInputStream audioStream) throws Exception {
+        return audioStream.getFormat().matches(AudioMixer.FORMAT) ? audioStream : convertToSupportedFormat(audioStream);
+    }
+
+    private static String fileExtensionOf(String url) {
+        String path = url;
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        int slash = path.lastIndexOf('/');
+        int dot = path.lastIndexOf('.');
+        if (dot > slash && path.length() - dot <= 5) {
+            return path.substring(dot + 1).toLowerCase();
+        }
+        return "bin";
+    }
+
+    // Runs on the engine thread once the mixer has played a track to its last frame. If the lined-up
+    // next track already took over, only the bookkeeping is left to do.
+    private static void onTrackEnded(StreamingPlayer player, StreamingPlayer next) {
+        PlaybackState current = state.get();
+        Minesongs.LOGGER.info("End of stream reached - playing: {}, manually paused: {}",
+                current.playing(), current.manuallyPaused());
+
+        // Ignore players that were already replaced by a newer track
+        if (player != currentPlayer) {
+            if (next != null) {
+                next.stop();
+            }
+            return;
+        }
+        if (next != null && next == preparedNext) {
+            SongQueue.Entry polled = queue.poll();
+            if (polled == null || polled.handle() != preparedHandle) {
+                Minesongs.LOGGER.warn("Queue changed under the lined-up song: {}", polled != null ? polled.url() : null);
+            }
+            rememberPlayed(current.track());
+            currentPlayer = next;
+            preparedNext = null;
+            stopWithJob(engine.currentJobToken(), next);
+            PlaybackState started = updateState(s -> s.withTrack(next.getTrack()).withPlaying(true, false));
+            Minesongs.LOGGER.info("Gapless transition to: {}", started.track());
+            schedulePrefetch();
+            publish(PlaybackEvent.Type.STARTED, extractSongTitleFromUrl(started.track()));
+            return;
+        }
+        if (next != null) {
+            // Lined up before the queue changed; the queue decides what plays next
+            next.stop();
+        }
+        if (current.playing() && !current.manuallyPaused()) {
+            Minesongs.LOGGER.info("Song finished naturally, checking queue...");
+            playNextInQueue();
+        }
+    }
+
+    // Gapless transitions keep the job they started in, so the hook of the player before is taken off
+    // the job's token rather than left there with the finished player
+    private static void stopWithJob(CancellationToken token, StreamingPlayer player) {
+        Runnable previous = currentPlayerStop;
+        if (previous != null) {
+            token.removeOnCancel(previous);
+        }
+        currentPlayerStop = player::stop;
+        token.onCancel(currentPlayerStop);
+    }
+
+    // Stops the current player and everything lined up in the mixer without publishing an event, for
+    // callers that replace the track or publish their own. Also closes a paused player.
+    private static void stopCurrentPlaybackSilent() {
+        if (currentPlayer != null) {
+            currentPlayer.stop();
+            currentPlayer = null;
         }
+        preparedNext = null;
+        mixer.stopAll();
+        updateState(s -> s.withPlaying(false, false));
+        Minesongs.LOGGER.info("Playback fully stopped (silent)");
     }
 
-    // NEW: Helper method to extract song title from URL
+    // Resolved title if there is one, otherwise something readable made from the URL
     private static String extractSongTitleFromUrl(String url) {
+        TrackMetadata meta = getTrackMetadata(url);
+        if (meta != null && !meta.title().isEmpty()) {
+            return meta.title();
+        }
         if (url.contains("youtube.com") || url.contains("youtu.be")) {
             try {
                 // Try to extract video title from YouTube URL
@@ -199,6 +947,10 @@ public class MusicManager {
         }
         // For local files
         else if (url.startsWith("file://")) {
+            MusicLibrary.Track track = libraryTrackFor(url);
+            if (track != null) {
+                return track.displayTitle();
+            }
             String filePath = url.substring(7);
             File file = new File(filePath);
             String fileName = file.getName();
@@ -215,224 +967,414 @@ public class MusicManager {
         return "Custom Audio";
     }
 
-    // NEW: Method to trigger HUD notifications
-    private static void triggerHudNotification(boolean playing, String songTitle) {
-        try {
-            // Use reflection to avoid direct dependency in case HUD class isn't available
-            Class<?> hudClass = Class.forName("nls.minesongs.client.MusicHud");
-            java.lang.reflect.Method method = hudClass.getMethod("onPlaybackStateChanged", boolean.class, String.class);
-            method.invoke(null, playing, songTitle);
-            Minesongs.LOGGER.info("HUD notification triggered: {} - {}", playing ? "Playing" : "Paused", songTitle);
-        } catch (Exception e) {
-            // Silently fail if HUD class isn't available (shouldn't happen in normal operation)
-            Minesongs.LOGGER.debug("Could not trigger HUD notification: {}", e.getMessage());
+    // The engine thread is the only producer on the event bus, so events from elsewhere hop onto it
+    private static void publish(PlaybackEvent.Type type, String title) {
+        PlaybackEvent event = new PlaybackEvent(type, title);
+        if (!engine.isEngineThread()) {
+            engine.submit(() -> publish(type, title));
+        } else if (!events.publish(event)) {
+            Minesongs.LOGGER.debug("Playback event dropped: {}", event);
         }
     }
 
+    public static PlaybackEventBus getEvents() {
+        return events;
+    }
+
     // Queue management methods
     public static void addToQueue(String url) {
-        songQueue.offer(url);
-        Minesongs.LOGGER.info("Added to queue: {}. Queue size: {}", url, songQueue.size());
+        if (PlaylistImporter.isPlaylistUrl(url)) {
+            importPlaylist(url, false);
+            return;
+        }
+        enqueue(url, null, 0);
+    }
+
+    private static void enqueue(String url, String title, long durationSeconds) {
+        queue.add(url, title, durationSeconds);
+        Minesongs.LOGGER.info("Added to queue: {}. Queue size: {}", url, queue.size());
+        getMetadataService().request(List.of(url));
+        schedulePrefetch();
+    }
+
+    public static void addToQueue(MusicLibrary.Track track) {
+        enqueue(toFileUrl(Path.of(track.path())), track.displayTitle(), track.durationSeconds());
+    }
+
+    // Songs found without a title yet get theirs resolved like any other URL
+    public static void addToQueue(SearchIndex.Hit hit) {
+        String title = hit.title().isEmpty() ? null
+                : hit.artist().isEmpty() ? hit.title() : hit.artist() + " - " + hit.title();
+        enqueue(hit.url(), title, hit.durationSeconds());
+    }
+
+    // Plays a library song now, keeping whatever is queued
+    public static void playLibraryTrack(MusicLibrary.Track track) {
+        playFromURL(toFileUrl(Path.of(track.path())));
+    }
+
+    // Queues a song to play straight after the current one
+    public static void playNext(String url) {
+        queue.addNext(url, null, 0);
+        Minesongs.LOGGER.info("Playing next: {}", url);
+        getMetadataService().request(List.of(url));
+        schedulePrefetch();
+    }
+
+    // Streams a playlist into the queue on a worker thread. The first entry plays as soon as it arrives
+    // when playFirst is set or nothing is playing. The audio of the following ones is fetched as they
+    // arrive, a few at a time (see PlaylistResolver).
+    public static void importPlaylist(String url, boolean playFirst) {
+        CancellationToken token = imports.get();
+        engine.workers().execute(() -> {
+            long start = System.nanoTime();
+            AtomicBoolean first = new AtomicBoolean(true);
+            PlaylistImporter importer = new PlaylistImporter(YT_DLP_PATH, processes,
+                    MinesongsConfig.ytDlpTimeoutSeconds * 1000L);
+            PlaylistResolver resolver = new PlaylistResolver(MusicManager::prefetchAudio,
+                    MinesongsConfig.playlistFetchConcurrent, MinesongsConfig.playlistFetchAhead, engine.workers(), token);
+            try {
+                Minesongs.LOGGER.info("Importing playlist: {}", url);
+                int count = importer.stream(url, MinesongsConfig.playlistMaxEntries, token, entry -> {
+                    getMetadataService().seed(entry.url(), entry.title(), entry.durationSeconds());
+                    if (first.getAndSet(false)) {
+                        Minesongs.LOGGER.info("First playlist entry after {} ms", (System.nanoTime() - start) / 1_000_000);
+                        if (playFirst || !state.get().hasTrack()) {
+                            playFromURL(entry.url());
+                            return;
+                        }
+                    }
+                    enqueue(entry.url(), entry.title(), entry.durationSeconds());
+                    resolver.offer(entry.url());
+                });
+                Minesongs.LOGGER.info("Imported {} songs in {} ms", count, (System.nanoTime() - start) / 1_000_000);
+                getMetadataService().save();
+            } catch (Exception e) {
+                if (!token.isCancelled()) {
+                    Minesongs.LOGGER.error("Playlist import failed: {}", e.getMessage());
+                }
+            }
+        });
+    }
+
+    public static boolean removeFromQueue(String url) {
+        if (!queue.removeUrl(url)) {
+            return false;
+        }
+        Minesongs.LOGGER.info("Removed from queue: {}. Queue size: {}", url, queue.size());
+        schedulePrefetch();
+        return true;
+    }
+
+    // Handles come from getQueue(); false if the entry has left the queue meanwhile
+    public static boolean removeFromQueue(long handle) {
+        if (!queue.remove(handle)) {
+            return false;
+        }
+        schedulePrefetch();
+        return true;
+    }
+
+    // Puts the entry just before or after anchor, in the order that is playing
+    public static boolean moveInQueue(long handle, long anchor, boolean after) {
+        if (!queue.move(handle, anchor, after)) {
+            return false;
+        }
+        schedulePrefetch();
+        return true;
+    }
+
+    public static boolean moveToFrontOfQueue(long handle) {
+        if (!queue.moveToFront(handle)) {
+            return false;
+        }
+        schedulePrefetch();
+        return true;
     }
 
     public static void playNextInQueue() {
-        if (!songQueue.isEmpty()) {
-            String nextUrl = songQueue.poll();
-            Minesongs.LOGGER.info("Playing next in queue: {}", nextUrl);
-            wasManuallyPaused = false; // Reset for new track
-            playFromURL(nextUrl);
+        engine.submit(MusicManager::advanceQueue);
+    }
+
+    private static void advanceQueue() {
+        SongQueue.Entry next = getPrefetcher().pollClaimed(queue);
+        if (next != null) {
+            Minesongs.LOGGER.info("Playing next in queue: {}", next.url());
+            playFromURL(next.url());
         } else {
             Minesongs.LOGGER.info("Queue is empty - fully stopping playback");
             // Force stop even if manually paused
-            if (currentClip != null) {
-                currentClip.stop();
-                currentClip.close();
-                currentClip = null;
+            engine.cancelCurrentJob();
+            stopCurrentPlaybackSilent();
+            rememberPlayed(state.get().track());
+            updateState(s -> s.withTrack(""));
+            publish(PlaybackEvent.Type.QUEUE_EMPTY, "Queue empty");
+        }
+    }
+
+    // Goes back to the last finished track, putting the current one at the front of the queue.
+    // Like most players, it restarts the current track instead once that has played a few seconds.
+    public static void playPrevious() {
+        engine.submitJob(token -> {
+            PlaybackState current = state.get();
+            if (current.hasTrack() && (getPositionMillis() > PREVIOUS_RESTART_MILLIS || queue.history().isEmpty())) {
+                if (currentPlayer != null) {
+                    seekWhenReady(currentPlayer, 0);
+                }
+                return;
             }
-            if (executor != null && !executor.isShutdown()) {
-                executor.shutdownNow();
+            SongQueue.Entry previous = queue.popHistory();
+            if (previous == null) {
+                return;
             }
-            isPlaying = false;
-            wasManuallyPaused = false;
+            if (current.hasTrack()) {
+                queue.addNext(current.track(), null, 0);
+            }
+            Minesongs.LOGGER.info("Playing previous: {}", previous.url());
+            playJob(previous.url(), token, false);
+        });
+    }
 
-            // NEW: Trigger stopped notification when queue is empty
-            triggerHudNotification(false, "Queue empty");
+    private static void rememberPlayed(String track) {
+        if (track != null && !track.isEmpty()) {
+            queue.pushHistory(track);
+            indexHistory();
         }
     }
 
     public static void clearQueue() {
-        songQueue.clear();
+        imports.getAndSet(new CancellationToken()).cancel();
+        queue.clear();
+        getPrefetcher().cancelAll();
+        engine.submit(MusicManager::prepareNext);
         Minesongs.LOGGER.info("Queue cleared");
     }
 
     public static void skipToNext() {
         Minesongs.LOGGER.info("Skipping to next song");
+        engine.cancelCurrentJob();
         playNextInQueue();
     }
 
-    public static List<String> getQueue() {
-        return new ArrayList<>(songQueue);
+    // Immutable and indexed; the same instance comes back until the queue changes
+    public static SongQueue.Snapshot getQueue() {
+        return queue.snapshot();
     }
 
     public static int getQueueSize() {
-        return songQueue.size();
+        return queue.size();
+    }
+
+    // Finished tracks, newest first
+    public static List<SongQueue.Entry> getHistory() {
+        return queue.history();
+    }
+
+    // Shuffles the queue without losing its order, which comes back when shuffle is turned off
+    public static void toggleShuffle() {
+        boolean shuffled = !queue.isShuffled();
+        queue.setShuffled(shuffled);
+        Minesongs.LOGGER.info("Shuffle: {}", shuffled ? "ON" : "OFF");
+        schedulePrefetch();
+    }
+
+    public static boolean isShuffled() {
+        return queue.isShuffled();
     }
 
     public static void toggleLoop() {
-        isLooping = !isLooping;
-        Minesongs.LOGGER.info("Loop mode: {}", isLooping ? "ON" : "OFF");
+        boolean looping = updateState(s -> s.withLooping(!s.looping())).looping();
+        Minesongs.LOGGER.info("Loop mode: {}", looping ? "ON" : "OFF");
+        engine.submit(MusicManager::prepareNext);
     }
 
     public static boolean isLooping() {
-        return isLooping;
+        return state.get().looping();
     }
 
-    // UPDATED togglePlayPause method with HUD notifications
+    // Pausing stops the line but keeps the track and its position; the HUD hears about both through events
     public static void togglePlayPause() {
-        if (currentClip != null && currentClip.isOpen()) {
-            boolean wasRunning = currentClip.isRunning();
+        engine.submit(MusicManager::applyPlayPause);
+    }
+
+    private static void applyPlayPause() {
+        if (currentPlayer != null && currentPlayer.isOpen()) {
+            boolean wasRunning = !mixer.isPaused();
             if (wasRunning) {
                 // Pause the playback
-                currentClip.stop();
-                isPlaying = false;
-                wasManuallyPaused = true; // Mark as manually paused
-                Minesongs.LOGGER.info("Playback manually paused - clip kept alive");
-
-                // NEW: Trigger paused notification
-                triggerHudNotification(false, extractSongTitleFromUrl(currentTrack));
+                mixer.pause();
+                PlaybackState paused = updateState(s -> s.withPlaying(false, true)); // Mark as manually paused
+                Minesongs.LOGGER.info("Playback manually paused - line kept alive");
+                if (journal != null) {
+                    journal.positionChanged(getPositionMillis());
+                }
+                publish(PlaybackEvent.Type.PAUSED, extractSongTitleFromUrl(paused.track()));
             } else {
                 // Resume playback
-                currentClip.start();
-                isPlaying = true;
-                wasManuallyPaused = false; // Reset manual pause flag
+                mixer.resume();
+                PlaybackState resumed = updateState(s -> s.withPlaying(true, false)); // Reset manual pause flag
                 Minesongs.LOGGER.info("Playback manually resumed");
-
-                // NEW: Trigger playing notification
-                triggerHudNotification(true, extractSongTitleFromUrl(currentTrack));
+                publish(PlaybackEvent.Type.RESUMED, extractSongTitleFromUrl(resumed.track()));
             }
+        } else if (queue.size() > 0) {
+            // Nothing loaded, e.g. right after a restored session: start on the queue
+            advanceQueue();
         } else {
-            Minesongs.LOGGER.warn("No audio clip available to play/pause");
+            Minesongs.LOGGER.info("Nothing loaded or queued to play");
         }
     }
 
-    // UPDATED skipTrack with HUD notifications
+    // Drops the current track, or the request still loading, and plays the queue head
     public static void skipTrack() {
         Minesongs.LOGGER.info("Skipping current track");
-        String currentSong = extractSongTitleFromUrl(currentTrack);
-        playNextInQueue();
-
-        // NEW: Show skipping notification
-        try {
-            Class<?> hudClass = Class.forName("nls.minesongs.client.MusicHud");
-            java.lang.reflect.Method method = hudClass.getMethod("showStopped", String.class);
-            method.invoke(null, "Skipped: " + currentSong);
-        } catch (Exception e) {
-            // Silently fail
-        }
+        engine.cancelCurrentJob();
+        engine.submit(() -> {
+            publish(PlaybackEvent.Type.SKIPPED, extractSongTitleFromUrl(state.get().track()));
+            advanceQueue();
+        });
     }
 
-    // UPDATED stopCurrentPlayback to respect manual pauses
+    // Leaves a manually paused track alone, so it can still be resumed
     public static void stopCurrentPlayback() {
+        engine.submit(MusicManager::applyStop);
+    }
+
+    private static void applyStop() {
         // Only fully stop if not manually paused
-        if (!wasManuallyPaused) {
-            if (currentClip != null) {
-                currentClip.stop();
-                currentClip.close();
-                currentClip = null;
-                volumeControl = null;
-            }
-            if (executor != null && !executor.isShutdown()) {
-                executor.shutdownNow();
-            }
-            isPlaying = false;
+        if (!state.get().manuallyPaused()) {
+            engine.cancelCurrentJob();
+            stopCurrentPlaybackSilent();
+            rememberPlayed(state.get().track());
+            updateState(s -> s.withTrack(""));
             Minesongs.LOGGER.info("Playback fully stopped");
-
-            // NEW: Trigger stopped notification
-            triggerHudNotification(false, "Playback stopped");
+            publish(PlaybackEvent.Type.STOPPED, "Playback stopped");
         } else {
             Minesongs.LOGGER.info("Playback already paused manually - skipping full stop");
         }
     }
 
-    private static void setupVolumeControl() {
-        if (currentClip != null && currentClip.isControlSupported(FloatControl.Type.MASTER_GAIN)) {
-            volumeControl = (FloatControl) currentClip.getControl(FloatControl.Type.MASTER_GAIN);
-            setVolume(currentVolume); // Apply current volume
-            Minesongs.LOGGER.info("Volume control initialized");
-        } else {
-            volumeControl = null;
-            Minesongs.LOGGER.warn("Volume control not supported for this audio clip");
-        }
-    }
-
+    // Applied in software by the mixer's DSP chain, ramped over a few milliseconds, so it works on
+    // every output line and a slider drag costs no more than a field write
     public static void setVolume(float volume) {
         // Clamp volume between 0 and 100
-        currentVolume = Math.max(0, Math.min(100, volume));
+        float clamped = Math.max(0, Math.min(100, volume));
+        updateState(s -> s.withVolume(clamped));
+        mixer.getDsp().setVolume(clamped);
+        Minesongs.LOGGER.debug("Volume set to: {}%", clamped);
+    }
 
-        if (volumeControl != null) {
-            try {
-                // Convert from 0-100 scale to decibels
-                float min = volumeControl.getMinimum();
-                float max = volumeControl.getMaximum();
-                // Logarithmic scale for better perceived volume control
-                float db = min + (max - min) * (float)(Math.log10(currentVolume / 10.0 + 1));
-                volumeControl.setValue(db);
-                Minesongs.LOGGER.info("Volume set to: {}% ({} dB)", currentVolume, db);
-            } catch (Exception e) {
-                Minesongs.LOGGER.error("Failed to set volume: {}", e.getMessage());
+    // Jumps within the current track, through the seek index when the track is on disk
+    public static void seekTo(long positionMillis) {
+        engine.submit(() -> {
+            if (currentPlayer != null) {
+                seekWhenReady(currentPlayer, positionMillis);
             }
+        });
+    }
+
+    // Engine thread. The track is reopened at the position on a worker, since that can mean indexing a
+    // whole file or decoding up to the position; the switch follows as a command once it is ready,
+    // unless the track was replaced or another seek came in meanwhile.
+    private static void seekWhenReady(StreamingPlayer player, long positionMillis) {
+        long request = ++seekRequests;
+        engine.workers().execute(() -> {
+            StreamingPlayer.SeekPoint seek = player.prepareSeek(positionMillis);
+            if (seek == null) {
+                return;
+            }
+            engine.submit(() -> {
+                if (request == seekRequests && player == currentPlayer && !player.isStopped()) {
+                    mixer.seek(player, seek);
+                } else {
+                    seek.discard();
+                }
+            });
+        });
+    }
+
+    public static long getPositionMillis() {
+        StreamingPlayer player = currentPlayer;
+        return player != null ? Math.max(0, player.getPositionMillis() - mixer.getLatencyMillis()) : 0;
+    }
+
+    // Length of the current track, or 0 when it is not known yet
+    public static long getDurationMillis() {
+        StreamingPlayer player = currentPlayer;
+        long duration = player != null ? player.getDurationMillis() : 0;
+        if (duration == 0) {
+            TrackMetadata meta = getTrackMetadata(state.get().track());
+            duration = meta != null ? meta.durationSeconds() * 1000 : 0;
         }
+        return duration;
     }
 
     public static float getVolume() {
-        return currentVolume;
+        return state.get().volume();
     }
 
     public static boolean isIsPlaying() {
-        return isPlaying;
+        return state.get().playing();
     }
 
     public static String getCurrentTrack() {
-        return currentTrack;
+        return state.get().track();
     }
 
-    // NEW: Get current song title for display
+    // Title of the current track for the screen and HUD
     public static String getCurrentSongTitle() {
-        if (currentTrack == null || currentTrack.isEmpty()) {
+        PlaybackState current = state.get();
+        if (!current.hasTrack()) {
             return "No track playing";
         }
-        return extractSongTitleFromUrl(currentTrack);
+        return extractSongTitleFromUrl(current.track());
     }
 
-    // NEW: Debug method to check audio state
+    // Logs the player, mixer line, state, queue and request timings
     public static void debugAudioState() {
         Minesongs.LOGGER.info("=== Audio State Debug ===");
-        Minesongs.LOGGER.info("currentClip: {}", currentClip);
-        if (currentClip != null) {
-            Minesongs.LOGGER.info("isOpen: {}", currentClip.isOpen());
-            Minesongs.LOGGER.info("isRunning: {}", currentClip.isRunning());
-            Minesongs.LOGGER.info("isActive: {}", currentClip.isActive());
-            Minesongs.LOGGER.info("Frame Length: {}", currentClip.getFrameLength());
-            Minesongs.LOGGER.info("Frame Position: {}", currentClip.getFramePosition());
-        }
-        Minesongs.LOGGER.info("isPlaying: {}", isPlaying);
-        Minesongs.LOGGER.info("wasManuallyPaused: {}", wasManuallyPaused);
-        Minesongs.LOGGER.info("Current Track: {}", currentTrack);
+        Minesongs.LOGGER.info("currentPlayer: {}", currentPlayer);
+        if (currentPlayer != null) {
+            Minesongs.LOGGER.info("isOpen: {}", currentPlayer.isOpen());
+            Minesongs.LOGGER.info("isPaused: {}", mixer.isPaused());
+            SourceDataLine line = mixer.getLine();
+            if (line != null) {
+                Minesongs.LOGGER.info("isActive: {}", line.isActive());
+                Minesongs.LOGGER.info("Buffered Bytes: {}", line.getBufferSize() - line.available());
+            }
+            Minesongs.LOGGER.info("Position: {} ms", getPositionMillis());
+            Minesongs.LOGGER.info("Lined up next: {}", preparedNext != null ? preparedNext.getTrack() : "none");
+        }
+        PlaybackState current = state.get();
+        Minesongs.LOGGER.info("playing: {}", current.playing());
+        Minesongs.LOGGER.info("manuallyPaused: {}", current.manuallyPaused());
+        Minesongs.LOGGER.info("Current Track: {}", current.track());
+        Minesongs.LOGGER.info("Queue: {} songs, shuffle {}, history {}", queue.size(), queue.isShuffled() ? "on" : "off",
+                queue.history().size());
+        for (String line : PlaybackMetrics.summary().split("\n")) {
+            Minesongs.LOGGER.info(line.trim());
+        }
         Minesongs.LOGGER.info("=== End Debug ===");
     }
 
-    private static String extractWithYtDlp(String youtubeUrl) {
+    // Downloads the song into the cache in its source format. convertToWav makes yt-dlp convert it,
+    // which is only needed when no decoder can play the source format.
+    // Returns null once the token is cancelled, after killing yt-dlp.
+    private static String extractWithYtDlp(String youtubeUrl, boolean convertToWav, CancellationToken token) {
         try {
-            String ytDlpPath = "C:\\Users\\sdb18\\AppData\\Local\\Programs\\Python\\Python311\\Scripts\\yt-dlp.exe";
+            String ytDlpPath = YT_DLP_PATH;
 
             Minesongs.LOGGER.info("Using yt-dlp at: {}", ytDlpPath);
 
-            // Create temp directory for downloads
-            File tempDir = new File(System.getProperty("java.io.tmpdir"), "minesongs");
-            tempDir.mkdirs();
-
-            // CLEAN UP ALL FILES FIRST to prevent playing wrong song
-            cleanupAllFiles();
+            // Serve recently played songs straight from the cache
+            AudioCache cache = getAudioCache();
+            String cacheKey = AudioCache.keyFor(youtubeUrl);
+            Path cached = convertToWav ? null : cache.lookup(cacheKey);
+            if (cached != null) {
+                Minesongs.LOGGER.info("Cache hit for {}: {}", cacheKey, cached);
+                return toFileUrl(cached);
+            }
+            File cacheDir = cache.getDirectory().toFile();
+            cacheDir.mkdirs();
 
             // Get FFmpeg path
             String ffmpegPath = findFfmpegPath();
@@ -440,16 +1382,20 @@ public class MusicManager {
                 Minesongs.LOGGER.info("Using FFmpeg at: {}", ffmpegPath);
             }
 
-            // Force WAV format - Java has best native support for WAV
+            // Keep the compact source format; it is decoded while playing
             List<String> command = new ArrayList<>();
             command.add(ytDlpPath);
-            command.add("-x");                      // Extract audio
-            command.add("--audio-format");
-            command.add("wav");                     // Force WAV format (best Java compatibility)
-            command.add("--audio-quality");
-            command.add("0");                       // Best quality
+            command.add("-f");
+            command.add("bestaudio/best");          // Audio-only stream, no video
+            if (convertToWav) {
+                command.add("-x");                  // Extract audio
+                command.add("--audio-format");
+                command.add("wav");                 // WAV always has a Java decoder
+                command.add("--audio-quality");
+                command.add("0");                   // Best quality
+            }
             command.add("-o");
-            command.add(tempDir.getAbsolutePath() + "/%(id)s.%(ext)s"); // Use video ID instead of title
+            command.add(cacheDir.getAbsolutePath() + "/" + cacheKey + ".%(ext)s"); // Name the file after its cache key
             command.add("--no-playlist");           // Don't download playlists
 
             if (ffmpegPath != null) {
@@ -462,84 +1408,55 @@ public class MusicManager {
             command.add(youtubeUrl);
 
             Minesongs.LOGGER.info("Executing command: {}", String.join(" ", command));
-            Process process = Runtime.getRuntime().exec(command.toArray(new String[0]));
-
-            // Read output and error
-            BufferedReader outputReader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            BufferedReader errorReader = new BufferedReader(new InputStreamReader(process.getErrorStream()));
-
-            String line;
-            while ((line = outputReader.readLine()) != null) {
-                Minesongs.LOGGER.info("yt-dlp: {}", line);
+            ProcessSupervisor.Result result = processes.run("yt-dlp", command,
+                    MinesongsConfig.ytDlpTimeoutSeconds * 1000L, token,
+                    line -> Minesongs.LOGGER.info("yt-dlp: {}", line),
+                    line -> Minesongs.LOGGER.info("yt-dlp error: {}", line));
+
+            if (result.cancelled()) {
+                Minesongs.LOGGER.info("Download cancelled: {}", youtubeUrl);
+                return null;
             }
-            while ((line = errorReader.readLine()) != null) {
-                Minesongs.LOGGER.info("yt-dlp error: {}", line);
+            if (!result.succeeded()) {
+                Minesongs.LOGGER.error("yt-dlp download failed for {}", youtubeUrl);
+                return null;
             }
 
-            int exitCode = process.waitFor();
-            Minesongs.LOGGER.info("yt-dlp exit code: {}", exitCode);
-
-            // Extract video ID from URL to find the correct file
-            String videoId = extractVideoId(youtubeUrl);
-            if (videoId != null) {
-                File[] files = tempDir.listFiles((dir, name) -> name.toLowerCase().startsWith(videoId.toLowerCase()));
-                if (files != null && files.length > 0) {
-                    String localPath = files[0].getAbsolutePath();
-                    Minesongs.LOGGER.info("Successfully converted audio to WAV: {}", localPath);
-                    return "file:///" + localPath.replace("\\", "/");
-                }
+            Path downloaded = cache.registerDownloaded(cacheKey);
+            if (downloaded != null) {
+                PlaybackMetrics.add(PlaybackMetrics.Counter.BYTES_DOWNLOADED, Files.size(downloaded));
+                Minesongs.LOGGER.info("Successfully downloaded audio: {}", downloaded);
+                return toFileUrl(downloaded);
             }
 
-            // Fallback: look for any WAV file (newest one)
-            File[] files = tempDir.listFiles((dir, name) -> name.toLowerCase().endsWith(".wav"));
-            if (files != null && files.length > 0) {
-                // Get the most recently modified file
-                File newestFile = files[0];
-                for (File file : files) {
-                    if (file.lastModified() > newestFile.lastModified()) {
-                        newestFile = file;
-                    }
-                }
-                String localPath = newestFile.getAbsolutePath();
-                Minesongs.LOGGER.info("Fallback to newest WAV file: {}", localPath);
-                return "file:///" + localPath.replace("\\", "/");
-            }
-
-            Minesongs.LOGGER.error("No WAV file found after conversion");
+            Minesongs.LOGGER.error("No audio file found after download");
             return null;
 
         } catch (Exception e) {
+            if (token.isCancelled()) {
+                return null;
+            }
             Minesongs.LOGGER.error("yt-dlp download failed: {}", e.getMessage());
             e.printStackTrace();
             return null;
         }
     }
 
-    private static String extractVideoId(String youtubeUrl) {
-        // Extract video ID from YouTube URL
-        if (youtubeUrl.contains("v=")) {
-            return youtubeUrl.substring(youtubeUrl.indexOf("v=") + 2, youtubeUrl.indexOf("v=") + 13);
-        } else if (youtubeUrl.contains("youtu.be/")) {
-            return youtubeUrl.substring(youtubeUrl.indexOf("youtu.be/") + 9);
-        }
-        return null;
+    private static String toFileUrl(Path file) {
+        return "file:///" + file.toAbsolutePath().toString().replace("\\", "/");
     }
 
-    private static void cleanupAllFiles() {
-        try {
-            File tempDir = new File(System.getProperty("java.io.tmpdir"), "minesongs");
-            if (tempDir.exists()) {
-                File[] files = tempDir.listFiles();
-                if (files != null) {
-                    for (File file : files) {
-                        file.delete();
-                    }
-                    Minesongs.LOGGER.info("Cleaned up all temporary files");
-                }
+    // Full path of the ffmpeg executable, looked up once; null if FFmpeg is not installed
+    private static synchronized String getFfmpegExecutable() {
+        if (!ffmpegSearched) {
+            ffmpegSearched = true;
+            String ffmpegDir = findFfmpegPath();
+            if (ffmpegDir != null) {
+                boolean windows = System.getProperty("os.name").toLowerCase().contains("win");
+                ffmpegExecutable = new File(ffmpegDir, windows ? "ffmpeg.exe" : "ffmpeg").getAbsolutePath();
             }
-        } catch (Exception e) {
-            Minesongs.LOGGER.warn("Failed to cleanup files: {}", e.getMessage());
         }
+        return ffmpegExecutable;
     }
 
     private static String findFfmpegPath() {
@@ -555,9 +1472,10 @@ public class MusicManager {
 
             // Fallback: try to find it in PATH
             try {
-                Process process = Runtime.getRuntime().exec(new String[]{"where", "ffmpeg"});
-                BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-                String path = reader.readLine();
+                List<String> found = new ArrayList<>();
+                processes.run("where", List.of("where", "ffmpeg"), LOOKUP_TIMEOUT_MS, new CancellationToken(),
+                        found::add, line -> { });
+                String path = found.isEmpty() ? null : found.get(0).trim();
                 if (path != null && !path.isEmpty()) {
                     File foundFfmpeg = new File(path);
                     Minesongs.LOGGER.info("Found FFmpeg in PATH at: {}", foundFfmpeg.getAbsolutePath());
@@ -571,60 +1489,26 @@ public class MusicManager {
         }
     }
 
-    private static boolean isFormatSupported(AudioFormat format) {
-        try {
-            DataLine.Info info = new DataLine.Info(Clip.class, format);
-            return AudioSystem.isLineSupported(info);
-        } catch (Exception e) {
-            Minesongs.LOGGER.warn("Format check failed: {}", e.getMessage());
-            return false;
-        }
-    }
-
     private static AudioInputStream convertToSupportedFormat(AudioInputStream originalStream) throws Exception {
         AudioFormat originalFormat = originalStream.getFormat();
 
-        // Convert to PCM signed, 44100 Hz, 16-bit, stereo (most compatible)
-        AudioFormat targetFormat = new AudioFormat(
-                AudioFormat.Encoding.PCM_SIGNED,
-                44100,  // Sample rate
-                16,     // Sample size in bits
-                2,      // Channels (stereo)
-                4,      // Frame size (2 channels * 2 bytes per sample)
-                44100,  // Frame rate
-                false   // Little-endian
-        );
-
-        if (AudioSystem.isConversionSupported(targetFormat, originalFormat)) {
-            return AudioSystem.getAudioInputStream(targetFormat, originalStream);
-        } else {
-            Minesongs.LOGGER.warn("Direct conversion not supported, using original format");
-            return originalStream;
+        // PCM signed, 44100 Hz, 16-bit, stereo, little-endian
+        AudioFormat targetFormat = AudioMixer.FORMAT;
+
+        if (!PcmConverter.canConvert(originalFormat)) {
+            // e.g. A-law/u-law: Java Sound expands it to 16-bit PCM at the source rate first
+            AudioFormat pcm = new AudioFormat(originalFormat.getSampleRate(), 16, originalFormat.getChannels(), true, false);
+            if (!AudioSystem.isConversionSupported(pcm, originalFormat)) {
+                Minesongs.LOGGER.warn("Direct conversion not supported, using original format");
+                return originalStream;
+            }
+            originalStream = AudioSystem.getAudioInputStream(pcm, originalStream);
         }
+        return PcmConverter.convert(originalStream, targetFormat);
     }
 
     // Cleanup old files to prevent disk space issues
     public static void cleanupOldFiles() {
-        try {
-            File tempDir = new File(System.getProperty("java.io.tmpdir"), "minesongs");
-            if (tempDir.exists()) {
-                File[] files = tempDir.listFiles();
-                if (files != null) {
-                    // Delete files older than 1 hour
-                    long oneHourAgo = System.currentTimeMillis() - (60 * 60 * 1000);
-                    int deletedCount = 0;
-                    for (File file : files) {
-                        if (file.lastModified() < oneHourAgo) {
-                            if (file.delete()) {
-                                deletedCount++;
-                            }
-                        }
-                    }
-                    Minesongs.LOGGER.info("Cleaned up {} old files", deletedCount);
-                }
-            }
-        } catch (Exception e) {
-            Minesongs.LOGGER.warn("Failed to cleanup old files: {}", e.getMessage());
-        }
+        getAudioCache().evict();
     }
-}
\ No newline at end of file
+}
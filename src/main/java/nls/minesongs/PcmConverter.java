@@ -0,0 +1,446 @@
+package nls.minesongs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+// Streaming PCM conversion between any integer (8-32 bit) or 32-bit float format, either byte order,
+// any channel count and sample rate. Rates are changed with a Kaiser-windowed sinc filter read from a
+// polyphase table, interpolating between neighbouring phases. Samples are converted to planar float
+// blocks first, so every stage is a plain loop over arrays that the JIT can vectorize.
+public class PcmConverter extends InputStream {
+    private static final int CHUNK_FRAMES = 4096;
+    // Filter half-length in input frames at full bandwidth; stretched when downsampling
+    private static final int HALF_TAPS = 32;
+    private static final int PHASES = 256;
+    // Cutoff as a fraction of the lower Nyquist frequency of the two rates
+    private static final double CUTOFF = 0.95;
+    private static final double KAISER_BETA = 9.0;
+
+    // Conversion work across all streams, excluding the time spent waiting on the source
+    private static final AtomicLong totalNanos = new AtomicLong();
+    private static final AtomicLong totalFrames = new AtomicLong();
+
+    private final InputStream source;
+    private final AudioFormat from;
+    private final AudioFormat to;
+
+    private final int inChannels;
+    private final int inBytes;
+    private final int inFrameSize;
+    private final boolean inFloat;
+    private final boolean inUnsigned;
+    private final boolean inBigEndian;
+    private final int outChannels;
+    private final int outBytes;
+    private final boolean outFloat;
+    private final boolean outUnsigned;
+    private final boolean outBigEndian;
+
+    // Output channel = sum of gain * input channel; null when the channels map one to one
+    private final float[][] matrix;
+    private final float[] frameIn;
+
+    private final boolean resampling;
+    private final double step;
+    private final int half;
+    private final float[][] table;
+    private final float[] kernel;
+
+    // Input converted to the output channel layout, waiting to be resampled
+    private final float[][] buf;
+    private int bufFrames = 0;
+    // Position of the next output frame in buf, in input frames
+    private double time;
+    private final float[][] outPlanar;
+
+    private final byte[] raw;
+    private int rawCarry = 0;
+    private final byte[] out;
+    private int outPos = 0;
+    private int outLen = 0;
+
+    private long inputFrames = 0;
+    private long emittedFrames = 0;
+    private long nanos = 0;
+    private boolean eof = false;
+    private boolean finished = false;
+
+    private PcmConverter(InputStream source, AudioFormat from, AudioFormat to) {
+        this.source = source;
+        this.from = from;
+        this.to = to;
+
+        inChannels = from.getChannels();
+        inBytes = from.getSampleSizeInBits() / 8;
+        inFrameSize = inChannels * inBytes;
+        inFloat = from.getEncoding().equals(AudioFormat.Encoding.PCM_FLOAT);
+        inUnsigned = from.getEncoding().equals(AudioFormat.Encoding.PCM_UNSIGNED);
+        inBigEndian = from.isBigEndian();
+        outChannels = to.getChannels();
+        outBytes = to.getSampleSizeInBits() / 8;
+        outFloat = to.getEncoding().equals(AudioFormat.Encoding.PCM_FLOAT);
+        outUnsigned = to.getEncoding().equals(AudioFormat.Encoding.PCM_UNSIGNED);
+        outBigEndian = to.isBigEndian();
+
+        matrix = inChannels == outChannels ? null : channelMatrix(inChannels, outChannels);
+        frameIn = new float[inChannels];
+
+        double inRate = from.getSampleRate();
+        double outRate = to.getSampleRate();
+        resampling = inRate != outRate;
+        step = inRate / outRate;
+        double bandwidth = Math.min(1.0, outRate / inRate);
+        half = resampling ? (int) Math.ceil(HALF_TAPS / bandwidth) : 0;
+        table = resampling ? buildTable(half, CUTOFF * bandwidth) : null;
+        kernel = new float[2 * half];
+
+        int capacity = CHUNK_FRAMES + 2 * half + 2;
+        buf = new float[outChannels][capacity];
+        int outCapacity = resampling ? (int) Math.ceil(capacity / step) + 2 : capacity;
+        outPlanar = resampling ? new float[outChannels][outCapacity] : buf;
+        raw = new byte[CHUNK_FRAMES * inFrameSize];
+        out = new byte[outCapacity * outChannels * outBytes];
+
+        if (resampling) {
+            // Silence before the first frame, so the filter can be centred on it
+            bufFrames = half - 1;
+            time = half - 1;
+        }
+    }
+
+    public static boolean canConvert(AudioFormat format) {
+        AudioFormat.Encoding encoding = format.getEncoding();
+        int bits = format.getSampleSizeInBits();
+        boolean integer = (encoding.equals(AudioFormat.Encoding.PCM_SIGNED) || encoding.equals(AudioFormat.Encoding.PCM_UNSIGNED))
+                && bits >= 8 && bits <= 32 && bits % 8 == 0;
+        boolean floating = encoding.equals(AudioFormat.Encoding.PCM_FLOAT) && bits == 32;
+        return (integer || floating)
+                && format.getChannels() > 0
+                && format.getSampleRate() > 0
+                && format.getFrameSize() == format.getChannels() * bits / 8;
+    }
+
+    // Both formats must pass canConvert
+    public static AudioInputStream convert(AudioInputStream stream, AudioFormat target) {
+        AudioFormat format = stream.getFormat();
+        if (!canConvert(format) || !canConvert(target)) {
+            throw new IllegalArgumentException("Cannot convert " + format + " to " + target);
+        }
+        long length = stream.getFrameLength();
+        if (length != AudioSystem.NOT_SPECIFIED) {
+            length = (long) Math.ceil(length * (double) target.getSampleRate() / format.getSampleRate());
+        }
+        return new AudioInputStream(new PcmConverter(stream, format, target), target, length);
+    }
+
+    public static long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    // Output frames produced by all converters so far
+    public static long getTotalFrames() {
+        return totalFrames.get();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        while (outPos == outLen) {
+            if (!fill()) {
+                return -1;
+            }
+        }
+        int n = Math.min(length, outLen - outPos);
+        System.arraycopy(out, outPos, buffer, offset, n);
+        outPos += n;
+        return n;
+    }
+
+    // Converts the next chunk of input; false once everything has been handed out
+    private boolean fill() throws IOException {
+        if (finished) {
+            return false;
+        }
+        int frames = 0;
+        if (!eof) {
+            int read = source.read(raw, rawCarry, raw.length - rawCarry);
+            if (read < 0) {
+                eof = true;
+            } else {
+                int available = rawCarry + read;
+                frames = available / inFrameSize;
+                rawCarry = available - frames * inFrameSize;
+            }
+        }
+
+        long start = System.nanoTime();
+        int produced;
+        if (frames > 0) {
+            decode(frames);
+            System.arraycopy(raw, frames * inFrameSize, raw, 0, rawCarry);
+            inputFrames += frames;
+        }
+        if (eof && resampling) {
+            // Silence after the last frame lets the filter finish the tail
+            for (float[] channel : buf) {
+                Arrays.fill(channel, bufFrames, bufFrames + half + 1, 0f);
+            }
+            bufFrames += half + 1;
+        }
+        if (resampling) {
+            long wanted = eof ? (long) Math.ceil(inputFrames / step) - emittedFrames : Long.MAX_VALUE;
+            produced = resample(wanted);
+        } else {
+            produced = bufFrames;
+            bufFrames = 0;
+        }
+        encode(produced);
+        emittedFrames += produced;
+        if (eof) {
+            finished = true;
+        }
+        nanos += System.nanoTime() - start;
+        return produced > 0 || !finished;
+    }
+
+    // Appends input frames from raw to buf in the output channel layout
+    private void decode(int frames) {
+        int offset = bufFrames;
+        if (matrix == null && !inFloat && !inUnsigned && inBytes == 2 && !inBigEndian) {
+            for (int c = 0; c < inChannels; c++) {
+                float[] dst = buf[c];
+                for (int f = 0, i = c * 2; f < frames; f++, i += inFrameSize) {
+                    dst[offset + f] = (short) ((raw[i] & 0xFF) | (raw[i + 1] << 8)) * (1.0f / 32768);
+                }
+            }
+        } else {
+            for (int f = 0; f < frames; f++) {
+                for (int c = 0; c < inChannels; c++) {
+                    frameIn[c] = readSample(f * inFrameSize + c * inBytes);
+                }
+                if (matrix == null) {
+                    for (int c = 0; c < inChannels; c++) {
+                        buf[c][offset + f] = frameIn[c];
+                    }
+                } else {
+                    for (int o = 0; o < outChannels; o++) {
+                        float[] gains = matrix[o];
+                        float sum = 0;
+                        for (int c = 0; c < inChannels; c++) {
+                            sum += gains[c] * frameIn[c];
+                        }
+                        buf[o][offset + f] = sum;
+                    }
+                }
+            }
+        }
+        bufFrames += frames;
+    }
+
+    private float readSample(int i) {
+        int value = 0;
+        if (inBigEndian) {
+            for (int k = 0; k < inBytes; k++) {
+                value = (value << 8) | (raw[i + k] & 0xFF);
+            }
+        } else {
+            for (int k = inBytes - 1; k >= 0; k--) {
+                value = (value << 8) | (raw[i + k] & 0xFF);
+            }
+        }
+        if (inFloat) {
+            return Float.intBitsToFloat(value);
+        }
+        // Align to the top of the int so every sample size shares one scale
+        value <<= 32 - 8 * inBytes;
+        if (inUnsigned) {
+            value ^= 0x80000000;
+        }
+        return value * (1.0f / 2147483648f);
+    }
+
+    // Writes output frames from outPlanar to out
+    private void encode(int frames) {
+        outPos = 0;
+        outLen = frames * outChannels * outBytes;
+        if (!outFloat && !outUnsigned && outBytes == 2 && !outBigEndian) {
+            for (int c = 0; c < outChannels; c++) {
+                float[] src = outPlanar[c];
+                for (int f = 0, i = c * 2; f < frames; f++, i += outChannels * 2) {
+                    int value = Math.round(src[f] * 32767);
+                    value = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+                    out[i] = (byte) value;
+                    out[i + 1] = (byte) (value >> 8);
+                }
+            }
+            return;
+        }
+        long max = (1L << (outBytes * 8 - 1)) - 1;
+        for (int f = 0; f < frames; f++) {
+            for (int c = 0; c < outChannels; c++) {
+                float sample = outPlanar[c][f];
+                int value;
+                if (outFloat) {
+                    value = Float.floatToIntBits(sample);
+                } else {
+                    value = (int) Math.max(-max - 1, Math.min(max, Math.round(sample * (double) max)));
+                    if (outUnsigned) {
+                        value += (int) (max + 1);
+                    }
+                }
+                int i = (f * outChannels + c) * outBytes;
+                for (int k = 0; k < outBytes; k++) {
+                    int shift = outBigEndian ? 8 * (outBytes - 1 - k) : 8 * k;
+                    out[i + k] = (byte) (value >> shift);
+                }
+            }
+        }
+    }
+
+    // Produces at most wanted output frames from buf and drops the input no longer needed
+    private int resample(long wanted) {
+        int taps = kernel.length;
+        int produced = 0;
+        while (produced < wanted) {
+            int center = (int) time;
+            if (center + half >= bufFrames) {
+                break;
+            }
+            double position = (time - center) * PHASES;
+            int phase = (int) position;
+            float blend = (float) (position - phase);
+            float[] row0 = table[phase];
+            float[] row1 = table[phase + 1];
+            for (int j = 0; j < taps; j++) {
+                kernel[j] = row0[j] + blend * (row1[j] - row0[j]);
+            }
+            int base = center - half + 1;
+            for (int c = 0; c < outChannels; c++) {
+                float[] x = buf[c];
+                float sum = 0;
+                for (int j = 0; j < taps; j++) {
+                    sum += x[base + j] * kernel[j];
+                }
+                outPlanar[c][produced] = sum;
+            }
+            produced++;
+            time += step;
+        }
+
+        int drop = Math.min(bufFrames, Math.max(0, (int) time - half + 1));
+        if (drop > 0) {
+            for (float[] channel : buf) {
+                System.arraycopy(channel, drop, channel, 0, bufFrames - drop);
+            }
+            bufFrames -= drop;
+            time -= drop;
+        }
+        return produced;
+    }
+
+    // Row p holds the taps for an output frame p / PHASES of the way past an input frame
+    private static float[][] buildTable(int half, double cutoff) {
+        float[][] table = new float[PHASES + 1][2 * half];
+        double norm = besselI0(KAISER_BETA);
+        for (int p = 0; p <= PHASES; p++) {
+            double frac = (double) p / PHASES;
+            for (int j = 0; j < 2 * half; j++) {
+                double d = j - half + 1 - frac;
+                double x = d / half;
+                double window = Math.abs(x) >= 1 ? 0 : besselI0(KAISER_BETA * Math.sqrt(1 - x * x)) / norm;
+                double arg = Math.PI * cutoff * d;
+                double sinc = arg == 0 ? 1 : Math.sin(arg) / arg;
+                table[p][j] = (float) (cutoff * sinc * window);
+            }
+        }
+        return table;
+    }
+
+    private static double besselI0(double x) {
+        double sum = 1;
+        double term = 1;
+        for (int k = 1; k < 50; k++) {
+            term *= (x / (2 * k)) * (x / (2 * k));
+            sum += term;
+            if (term < sum * 1e-12) {
+                break;
+            }
+        }
+        return sum;
+    }
+
+    // Mono is copied to every output; anything folded down to mono is averaged. Surround to stereo
+    // follows the usual L, R, C, LFE, Ls, Rs order, dropping the LFE; four channels are quad (L, R,
+    // Ls, Rs), which has no center, so each rear channel goes to its own side.
+    private static float[][] channelMatrix(int in, int out) {
+        float[][] matrix = new float[out][in];
+        if (in == 1) {
+            for (int o = 0; o < out; o++) {
+                matrix[o][0] = 1;
+            }
+        } else if (out == 1) {
+            for (int c = 0; c < in; c++) {
+                matrix[0][c] = 1.0f / in;
+            }
+        } else if (out == 2) {
+            float side = (float) Math.sqrt(0.5);
+            matrix[0][0] = 1;
+            matrix[1][1] = 1;
+            if (in == 4) {
+                matrix[0][2] = side;
+                matrix[1][3] = side;
+            } else if (in > 2) {
+                matrix[0][2] = side;
+                matrix[1][2] = side;
+            }
+            if (in > 4) {
+                matrix[0][4] = side;
+            }
+            if (in > 5) {
+                matrix[1][5] = side;
+            }
+            for (float[] row : matrix) {
+                float sum = 0;
+                for (float gain : row) {
+                    sum += gain;
+                }
+                for (int c = 0; c < in; c++) {
+                    row[c] /= sum;
+                }
+            }
+        } else {
+            for (int o = 0; o < Math.min(in, out); o++) {
+                matrix[o][o] = 1;
+            }
+        }
+        return matrix;
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+        if (emittedFrames > 0) {
+            totalNanos.addAndGet(nanos);
+            totalFrames.addAndGet(emittedFrames);
+            double seconds = emittedFrames / (double) to.getSampleRate();
+            Minesongs.LOGGER.debug("Converted {} s of audio ({} Hz, {} bit, {} ch -> {} Hz) in {} ms",
+                    Math.round(seconds), (int) from.getSampleRate(), from.getSampleSizeInBits(), inChannels,
+                    (int) to.getSampleRate(), nanos / 1_000_000);
+            emittedFrames = 0;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package nls.minesongs;
+
+// Something the player did that the UI may want to show. title is the display name of the
+// track involved, or a short message when there is none.
+public record PlaybackEvent(Type type, String title) {
+    public enum Type {
+        STARTED,
+        PAUSED,
+        RESUMED,
+        SKIPPED,
+        STOPPED,
+        QUEUE_EMPTY
+    }
+}
@@ -0,0 +1,68 @@
+package nls.minesongs;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Hands playback events from the audio engine to the client thread without locks. Exactly one
+// thread publishes (the engine) and exactly one thread dispatches (the client tick), so the ring
+// only needs an ordered write of each side's counter.
+public class PlaybackEventBus {
+    private final PlaybackEvent[] ring;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(); // Next slot to read, advanced by the consumer
+    private final AtomicLong tail = new AtomicLong(); // Next slot to write, advanced by the producer
+    private final List<PlaybackListener> listeners = new CopyOnWriteArrayList<>();
+    // Only the producer writes it, so the increment needs no atomic; volatile for readers on other threads
+    private volatile long dropped = 0;
+
+    public PlaybackEventBus(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1) << 1);
+        ring = new PlaybackEvent[size];
+        mask = size - 1;
+    }
+
+    public void addListener(PlaybackListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(PlaybackListener listener) {
+        listeners.remove(listener);
+    }
+
+    // Producer side. Returns false and drops the event if the consumer has fallen a full ring behind.
+    public boolean publish(PlaybackEvent event) {
+        long t = tail.get();
+        if (t - head.get() >= ring.length) {
+            dropped++;
+            return false;
+        }
+        ring[(int) (t & mask)] = event;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    // Consumer side: delivers everything published so far to the listeners, in order
+    public void dispatch() {
+        long h = head.get();
+        long t = tail.get();
+        while (h < t) {
+            int slot = (int) (h & mask);
+            PlaybackEvent event = ring[slot];
+            ring[slot] = null;
+            head.lazySet(++h);
+
+            for (PlaybackListener listener : listeners) {
+                try {
+                    listener.onPlaybackEvent(event);
+                } catch (Exception e) {
+                    Minesongs.LOGGER.error("Playback listener failed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    public long getDroppedCount() {
+        return dropped;
+    }
+}
@@ -0,0 +1,6 @@
+package nls.minesongs;
+
+@FunctionalInterface
+public interface PlaybackListener {
+    void onPlaybackEvent(PlaybackEvent event);
+}
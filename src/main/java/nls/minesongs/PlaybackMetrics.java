@@ -0,0 +1,155 @@
+package nls.minesongs;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Where the time between a play request and the first sample goes, plus a few running counters.
+// Everything is lock-free and cheap enough to record from the audio threads; readers get live values.
+public final class PlaybackMetrics {
+    public enum Stage {
+        RESOLVE("resolve"),
+        SPAWN("process spawn"),
+        DOWNLOAD("download"),
+        DECODE_START("decode start"),
+        LINE_OPEN("line open"),
+        FIRST_AUDIO("first audio"),
+        // Request to first audio, all stages together
+        TOTAL("total");
+
+        public final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    public enum Counter {
+        UNDERRUNS,
+        CACHE_HITS,
+        CACHE_MISSES,
+        // PCM pulled from tracks by the mixer
+        BYTES_READ,
+        // Compressed audio fetched from the network into the cache
+        BYTES_DOWNLOADED
+    }
+
+    private static final Map<Stage, Histogram> stages = new EnumMap<>(Stage.class);
+    private static final Map<Counter, LongAdder> counters = new EnumMap<>(Counter.class);
+
+    static {
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, new Histogram());
+        }
+        for (Counter counter : Counter.values()) {
+            counters.put(counter, new LongAdder());
+        }
+    }
+
+    private PlaybackMetrics() {
+    }
+
+    public static void record(Stage stage, long nanos) {
+        stages.get(stage).record(nanos / 1_000_000);
+    }
+
+    public static void increment(Counter counter) {
+        counters.get(counter).increment();
+    }
+
+    public static void add(Counter counter, long amount) {
+        counters.get(counter).add(amount);
+    }
+
+    public static long get(Counter counter) {
+        return counters.get(counter).sum();
+    }
+
+    public static long count(Stage stage) {
+        return stages.get(stage).count();
+    }
+
+    // Upper bound of the bucket holding the given percentile (0-100), or -1 with no samples
+    public static long percentileMillis(Stage stage, double percentile) {
+        return stages.get(stage).percentile(percentile);
+    }
+
+    public static String summary() {
+        StringBuilder out = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            if (count(stage) > 0) {
+                out.append(String.format("%s: n=%d p50=%d p90=%d p99=%d ms%n", stage.label, count(stage),
+                        percentileMillis(stage, 50), percentileMillis(stage, 90), percentileMillis(stage, 99)));
+            }
+        }
+        out.append(String.format("underruns=%d cache=%d hit/%d miss read=%d KB downloaded=%d KB",
+                get(Counter.UNDERRUNS), get(Counter.CACHE_HITS), get(Counter.CACHE_MISSES),
+                get(Counter.BYTES_READ) / 1024, get(Counter.BYTES_DOWNLOADED) / 1024));
+        return out.toString();
+    }
+
+    public static RequestTimer startRequest() {
+        return new RequestTimer();
+    }
+
+    // Times the stages of one play request; each mark records the time since the previous one
+    public static final class RequestTimer {
+        private final long start = System.nanoTime();
+        private long last = start;
+
+        private RequestTimer() {
+        }
+
+        public synchronized void mark(Stage stage) {
+            long now = System.nanoTime();
+            record(stage, now - last);
+            last = now;
+        }
+
+        // Records the first audio stage and the whole request
+        public synchronized void finish() {
+            mark(Stage.FIRST_AUDIO);
+            record(Stage.TOTAL, last - start);
+        }
+
+        public long elapsedMillis() {
+            return (System.nanoTime() - start) / 1_000_000;
+        }
+    }
+
+    // Log-scale buckets about 8% wide from 1 ms to a few minutes; slower samples land in the last one
+    private static final class Histogram {
+        private static final double GROWTH = 1.08;
+        private static final int BUCKETS = 160;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+
+        void record(long millis) {
+            int bucket = (int) (Math.log(Math.max(1, millis)) / Math.log(GROWTH));
+            buckets.incrementAndGet(Math.min(BUCKETS - 1, bucket));
+            count.increment();
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        long percentile(double percentile) {
+            long total = count();
+            if (total == 0) {
+                return -1;
+            }
+            long target = (long) Math.ceil(total * percentile / 100);
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                seen += buckets.get(bucket);
+                if (seen >= Math.max(1, target)) {
+                    return (long) Math.ceil(Math.pow(GROWTH, bucket + 1));
+                }
+            }
+            return (long) Math.ceil(Math.pow(GROWTH, BUCKETS));
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package nls.minesongs;
+
+// Everything the UI shows about the player, as one immutable snapshot. MusicManager publishes a new
+// instance for every change, so a reader always sees a consistent combination of fields. The queue
+// keeps its own snapshots (see SongQueue), since it changes far more often and can be long.
+public record PlaybackState(String track, boolean playing, boolean manuallyPaused, boolean looping,
+                            float volume) {
+    public static final PlaybackState INITIAL = new PlaybackState("", false, false, false, 80.0f);
+
+    public PlaybackState withTrack(String track) {
+        return new PlaybackState(track, playing, manuallyPaused, looping, volume);
+    }
+
+    // Playing and manually paused are set together; stopping clears both
+    public PlaybackState withPlaying(boolean playing, boolean manuallyPaused) {
+        return new PlaybackState(track, playing, manuallyPaused, looping, volume);
+    }
+
+    public PlaybackState withLooping(boolean looping) {
+        return new PlaybackState(track, playing, manuallyPaused, looping, volume);
+    }
+
+    public PlaybackState withVolume(float volume) {
+        return new PlaybackState(track, playing, manuallyPaused, looping, volume);
+    }
+
+    public boolean hasTrack() {
+        return track != null && !track.isEmpty();
+    }
+}
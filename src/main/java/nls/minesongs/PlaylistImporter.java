@@ -0,0 +1,66 @@
+package nls.minesongs;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Expands a YouTube playlist or mix into its videos with "yt-dlp --flat-playlist", which only reads
+// the listing. Entries are handed over line by line while yt-dlp is still paging through it.
+public class PlaylistImporter {
+    public record Entry(String url, String title, long durationSeconds) {
+    }
+
+    private final String ytDlpPath;
+    private final ProcessSupervisor processes;
+    private final long timeoutMillis;
+
+    public PlaylistImporter(String ytDlpPath, ProcessSupervisor processes, long timeoutMillis) {
+        this.ytDlpPath = ytDlpPath;
+        this.processes = processes;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public static boolean isPlaylistUrl(String url) {
+        return (url.contains("youtube.com") || url.contains("youtu.be")) && url.contains("list=");
+    }
+
+    // Blocks until the listing is done or the token is cancelled; returns the number of entries delivered
+    public int stream(String url, int maxEntries, CancellationToken token, Consumer<Entry> onEntry)
+            throws IOException, InterruptedException {
+        List<String> command = List.of(ytDlpPath,
+                "--flat-playlist",
+                "--yes-playlist",
+                "--playlist-end", Integer.toString(maxEntries),
+                "--print", "%(id)s\t%(duration)s\t%(title)s",
+                "--no-warnings",
+                url);
+
+        AtomicInteger count = new AtomicInteger();
+        processes.run("yt-dlp playlist", command, timeoutMillis, token,
+                line -> {
+                    Entry entry = parse(line);
+                    if (entry != null && !token.isCancelled()) {
+                        count.incrementAndGet();
+                        onEntry.accept(entry);
+                    }
+                },
+                line -> Minesongs.LOGGER.info("yt-dlp playlist error: {}", line));
+        return count.get();
+    }
+
+    private static Entry parse(String line) {
+        String[] parts = line.split("\t", 3);
+        if (parts.length < 3 || parts[0].isEmpty() || parts[0].equals("NA")) {
+            return null;
+        }
+        long duration = 0;
+        try {
+            duration = Math.round(Double.parseDouble(parts[1]));
+        } catch (NumberFormatException ignored) {
+            // "NA" for live streams and some mixes
+        }
+        String title = parts[2].equals("NA") ? "" : parts[2];
+        return new Entry("https://www.youtube.com/watch?v=" + parts[0], title, duration);
+    }
+}
@@ -0,0 +1,74 @@
+package nls.minesongs;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+// Fetches the audio of songs imported from a playlist while the listing is still streaming in, a few
+// at a time and in the order they arrive. Only the first ones are fetched, so the opening songs of a
+// long playlist are on disk before the queue gets to them without downloading all of it; the prefetcher
+// covers the rest as they come up.
+public class PlaylistResolver {
+    private final BiFunction<String, CancellationToken, String> resolver;
+    private final int maxConcurrent;
+    private final int limit;
+    private final Executor executor;
+    private final CancellationToken token;
+
+    private final Queue<String> waiting = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger offered = new AtomicInteger();
+
+    // resolver downloads a URL into the cache, stopping early once the token is cancelled
+    public PlaylistResolver(BiFunction<String, CancellationToken, String> resolver, int maxConcurrent, int limit,
+                            Executor executor, CancellationToken token) {
+        this.resolver = resolver;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.limit = Math.max(0, limit);
+        this.executor = executor;
+        this.token = token;
+    }
+
+    // False once the limit is reached or the import was cancelled
+    public boolean offer(String url) {
+        if (token.isCancelled() || offered.getAndIncrement() >= limit) {
+            return false;
+        }
+        waiting.add(url);
+        startWorkers();
+        return true;
+    }
+
+    private void startWorkers() {
+        while (!waiting.isEmpty()) {
+            int active = running.get();
+            if (active >= maxConcurrent) {
+                return;
+            }
+            if (running.compareAndSet(active, active + 1)) {
+                executor.execute(this::work);
+            }
+        }
+    }
+
+    private void work() {
+        try {
+            String url;
+            while (!token.isCancelled() && (url = waiting.poll()) != null) {
+                try {
+                    resolver.apply(url, token);
+                } catch (Exception e) {
+                    Minesongs.LOGGER.warn("Failed to fetch playlist entry {}: {}", url, e.getMessage());
+                }
+            }
+        } finally {
+            running.decrementAndGet();
+        }
+        // An offer that came in after the last poll but saw every worker still busy
+        if (!token.isCancelled()) {
+            startWorkers();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package nls.minesongs;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Runs yt-dlp and FFmpeg as child processes. Both output pipes are drained on worker threads while
+// the child runs, so a chatty stderr can never fill its pipe and stall it. Every run has a wall-clock
+// limit and is killed together with its own children when it overruns or its job is cancelled.
+public class ProcessSupervisor {
+    // How long to wait for the pipes to close after the process has exited or been killed
+    private static final long DRAIN_GRACE_MS = 2000;
+
+    public record Result(int exitCode, long elapsedMillis, boolean timedOut, boolean cancelled) {
+        public boolean succeeded() {
+            return exitCode == 0 && !timedOut && !cancelled;
+        }
+    }
+
+    private final Executor executor;
+
+    public ProcessSupervisor(Executor executor) {
+        this.executor = executor;
+    }
+
+    // Runs the command to completion, handing each output line to the consumers as it arrives
+    public Result run(String name, List<String> command, long timeoutMillis, CancellationToken token,
+                      Consumer<String> stdout, Consumer<String> stderr) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).start();
+        PlaybackMetrics.record(PlaybackMetrics.Stage.SPAWN, System.nanoTime() - start);
+        process.getOutputStream().close();
+
+        CountDownLatch drained = new CountDownLatch(2);
+        drain(process.getInputStream(), stdout, drained);
+        drain(process.getErrorStream(), stderr, drained);
+        // Tokens can outlive many runs, so the hook goes again once this one is over
+        Runnable kill = () -> killTree(process);
+        token.onCancel(kill);
+
+        boolean finished;
+        try {
+            try {
+                finished = process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                killTree(process);
+                throw e;
+            }
+            if (!finished) {
+                killTree(process);
+                Minesongs.LOGGER.warn("{} did not finish within {} ms, killed", name, timeoutMillis);
+            }
+            drained.await(DRAIN_GRACE_MS, TimeUnit.MILLISECONDS);
+        } finally {
+            token.removeOnCancel(kill);
+        }
+
+        int exitCode = finished ? process.exitValue() : -1;
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+        Result result = new Result(exitCode, elapsed, !finished, token.isCancelled());
+        Minesongs.LOGGER.info("{} finished in {} ms (exit code {}{})", name, elapsed, exitCode,
+                result.timedOut() ? ", timed out" : result.cancelled() ? ", cancelled" : "");
+        return result;
+    }
+
+    // Starts a process whose stdin and stdout the caller streams through itself, such as a decoder feeding
+    // the player. Its stderr goes to the log. A timeout of 0 means none, for processes that are read at
+    // playback speed and so run as long as the song; those are killed when their reader closes them.
+    public Process start(String name, List<String> command, long timeoutMillis) throws IOException {
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).start();
+        PlaybackMetrics.record(PlaybackMetrics.Stage.SPAWN, System.nanoTime() - start);
+        drain(process.getErrorStream(), line -> Minesongs.LOGGER.warn("{}: {}", name, line), new CountDownLatch(1));
+        if (timeoutMillis > 0) {
+            process.onExit().orTimeout(timeoutMillis, TimeUnit.MILLISECONDS).exceptionally(e -> {
+                killTree(process);
+                Minesongs.LOGGER.warn("{} did not finish within {} ms, killed", name, timeoutMillis);
+                return process;
+            });
+        }
+        return process;
+    }
+
+    private void drain(InputStream stream, Consumer<String> lines, CountDownLatch drained) {
+        executor.execute(() -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines.accept(line);
+                }
+            } catch (IOException ignored) {
+                // Pipe closed because the process was killed
+            } finally {
+                drained.countDown();
+            }
+        });
+    }
+
+    // yt-dlp starts FFmpeg for post-processing; kill those first so they are not left orphaned
+    public static void killTree(Process process) {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+}
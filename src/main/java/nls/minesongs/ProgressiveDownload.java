@@ -0,0 +1,343 @@
+package nls.minesongs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+// Streams a song out of yt-dlp while it downloads. The compressed bytes go straight into the cache
+// in their source format; a copy is fed to FFmpeg, whose PCM output is buffered for the player.
+public class ProgressiveDownload {
+    public static final AudioFormat PCM_FORMAT = AudioDecoders.FFMPEG_PCM_FORMAT;
+    private static final int PCM_BUFFER_SECONDS = 4;
+    private static final int SNIFF_BYTES = 16;
+
+    private final String cacheKey;
+    private final AudioCache cache;
+    private final String ffmpegExe;
+    private final ProcessSupervisor processes;
+    private final long startNanos = System.nanoTime();
+    private final Object downloadLock = new Object();
+    private final PcmBuffer pcm;
+
+    private Process ytDlp;
+    private Process ffmpeg;
+    private volatile Path file;
+    private volatile long downloadedBytes = 0;
+    private volatile boolean downloadDone = false;
+    private volatile boolean downloadFailed = false;
+    private volatile boolean cancelled = false;
+    private boolean liveStreamOpened = false;
+
+    private ProgressiveDownload(String cacheKey, AudioCache cache, String ffmpegExe, ProcessSupervisor processes) {
+        this.cacheKey = cacheKey;
+        this.cache = cache;
+        this.ffmpegExe = ffmpegExe;
+        this.processes = processes;
+        int bytesPerSecond = (int) PCM_FORMAT.getFrameRate() * PCM_FORMAT.getFrameSize();
+        this.pcm = new PcmBuffer(bytesPerSecond * PCM_BUFFER_SECONDS);
+    }
+
+    // The pumps between the processes, the cache file and the player run on the given executor. yt-dlp
+    // downloads at network speed and gets the usual time limit; FFmpeg is read at playback speed, so it
+    // has none and goes away with cancel().
+    public static ProgressiveDownload start(String url, String cacheKey, AudioCache cache, String ytDlpPath,
+                                            String ffmpegExe, ProcessSupervisor processes, long timeoutMillis,
+                                            Executor executor) throws IOException {
+        ProgressiveDownload download = new ProgressiveDownload(cacheKey, cache, ffmpegExe, processes);
+        Files.createDirectories(cache.getDirectory());
+
+        List<String> ytDlp = List.of(ytDlpPath,
+                "-f", "bestaudio/best",
+                "-o", "-",
+                "--no-playlist",
+                "--no-part",
+                "--quiet",
+                "--no-warnings",
+                url);
+
+        Minesongs.LOGGER.info("Starting progressive download: {}", String.join(" ", ytDlp));
+        download.ytDlp = processes.start("yt-dlp", ytDlp, timeoutMillis);
+        download.ytDlp.getOutputStream().close();
+        try {
+            download.ffmpeg = processes.start("ffmpeg", AudioDecoders.ffmpegDecodeCommand(ffmpegExe, "pipe:0"), 0);
+        } catch (IOException e) {
+            ProcessSupervisor.killTree(download.ytDlp);
+            throw e;
+        }
+
+        executor.execute(download::downloadToCache);
+        executor.execute(download::feedDecoder);
+        executor.execute(download::bufferPcm);
+        return download;
+    }
+
+    // yt-dlp stdout -> "<key>.<ext>" in the cache folder, named after the sniffed container
+    private void downloadToCache() {
+        Path target = null;
+        try (InputStream in = ytDlp.getInputStream()) {
+            byte[] buffer = new byte[32 * 1024];
+            int head = 0;
+            int read;
+            while (head < SNIFF_BYTES && (read = in.read(buffer, head, buffer.length - head)) >= 0) {
+                head += read;
+            }
+            if (head == 0) {
+                throw new IOException("yt-dlp produced no data");
+            }
+
+            target = cache.getDirectory().resolve(cacheKey + "." + AudioDecoders.sniffExtension(buffer, head));
+            try (OutputStream out = Files.newOutputStream(target)) {
+                file = target;
+                read = head;
+                do {
+                    out.write(buffer, 0, read);
+                    PlaybackMetrics.add(PlaybackMetrics.Counter.BYTES_DOWNLOADED, read);
+                    synchronized (downloadLock) {
+                        downloadedBytes += read;
+                        downloadLock.notifyAll();
+                    }
+                } while ((read = in.read(buffer)) >= 0);
+            }
+
+            int exitCode = ytDlp.waitFor();
+            if (cancelled || exitCode != 0) {
+                throw new IOException("yt-dlp exited with code " + exitCode);
+            }
+            cache.put(cacheKey, target);
+            Minesongs.LOGGER.info("Progressive download finished in {} ms ({} KB)",
+                    (System.nanoTime() - startNanos) / 1_000_000, downloadedBytes / 1024);
+        } catch (Exception e) {
+            downloadFailed = true;
+            if (!cancelled) {
+                Minesongs.LOGGER.error("Progressive download failed: {}", e.getMessage());
+            }
+            if (target != null) {
+                try {
+                    Files.deleteIfExists(target);
+                } catch (IOException ignored) {
+                    // Still open on Windows; removed as an unindexed file next startup
+                }
+            }
+        } finally {
+            synchronized (downloadLock) {
+                downloadDone = true;
+                downloadLock.notifyAll();
+            }
+        }
+    }
+
+    // Follows the growing file into FFmpeg's stdin, so a slow listener never stalls the download
+    private void feedDecoder() {
+        try (OutputStream toFfmpeg = ffmpeg.getOutputStream()) {
+            synchronized (downloadLock) {
+                while (file == null && !downloadDone) {
+                    downloadLock.wait();
+                }
+            }
+            if (file == null) {
+                return;
+            }
+            try (InputStream tail = new TailInputStream(file)) {
+                tail.transferTo(toFfmpeg);
+            }
+        } catch (Exception e) {
+            if (!cancelled) {
+                Minesongs.LOGGER.debug("Decoder feed stopped: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void bufferPcm() {
+        byte[] buffer = new byte[16 * 1024];
+        try (InputStream in = ffmpeg.getInputStream()) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                pcm.write(buffer, 0, read);
+            }
+        } catch (Exception e) {
+            if (!cancelled) {
+                Minesongs.LOGGER.debug("PCM buffering stopped: {}", e.getMessage());
+            }
+        } finally {
+            pcm.close();
+        }
+    }
+
+    // Blocks until this much PCM is buffered (capped at the buffer size) or decoding has ended;
+    // returns false if there is nothing to play
+    public boolean awaitBuffered(long bytes, long timeoutMillis) throws InterruptedException {
+        return pcm.awaitBuffered(bytes, timeoutMillis) > 0;
+    }
+
+    // The first call plays the live decode; later calls (looping) read the finished cache file
+    public synchronized AudioInputStream openStream() throws IOException {
+        if (!liveStreamOpened) {
+            liveStreamOpened = true;
+            return new AudioInputStream(pcm.inputStream(), PCM_FORMAT, AudioSystem.NOT_SPECIFIED);
+        }
+        if (!downloadDone || downloadFailed || file == null) {
+            throw new IOException("Song is still downloading");
+        }
+        AudioInputStream stream = AudioDecoders.open(file, ffmpegExe, processes);
+        if (stream == null) {
+            throw new IOException("No decoder for " + file.getFileName());
+        }
+        return stream;
+    }
+
+    public void cancel() {
+        if (cancelled) {
+            return;
+        }
+        cancelled = true;
+        if (!downloadDone) {
+            ProcessSupervisor.killTree(ytDlp);
+            Minesongs.LOGGER.info("Progressive download cancelled: {}", cacheKey);
+        }
+        ProcessSupervisor.killTree(ffmpeg);
+        pcm.close();
+    }
+
+    // Reads a file that is still being written, waiting at the end until the download finishes
+    private class TailInputStream extends InputStream {
+        private final RandomAccessFile in;
+        private long position = 0;
+
+        TailInputStream(Path path) throws IOException {
+            in = new RandomAccessFile(path.toFile(), "r");
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            long available;
+            try {
+                synchronized (downloadLock) {
+                    while (downloadedBytes <= position && !downloadDone && !cancelled) {
+                        downloadLock.wait(250);
+                    }
+                    available = cancelled ? 0 : downloadedBytes - position;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for download", e);
+            }
+            if (available <= 0) {
+                return -1;
+            }
+            int read = in.read(buffer, offset, (int) Math.min(length, available));
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    // Fixed-size byte ring between FFmpeg and the player; the writer blocks when it is full
+    private static class PcmBuffer {
+        private final byte[] data;
+        private int readPos = 0;
+        private int count = 0;
+        private boolean closed = false;
+
+        PcmBuffer(int capacity) {
+            data = new byte[capacity];
+        }
+
+        synchronized void write(byte[] buffer, int offset, int length) throws InterruptedException {
+            while (length > 0) {
+                while (count == data.length && !closed) {
+                    wait();
+                }
+                if (closed) {
+                    return;
+                }
+                int writePos = (readPos + count) % data.length;
+                int n = Math.min(length, Math.min(data.length - count, data.length - writePos));
+                System.arraycopy(buffer, offset, data, writePos, n);
+                count += n;
+                offset += n;
+                length -= n;
+                notifyAll();
+            }
+        }
+
+        synchronized int read(byte[] buffer, int offset, int length) throws InterruptedException {
+            while (count == 0 && !closed) {
+                wait();
+            }
+            if (count == 0) {
+                return -1;
+            }
+            int n = Math.min(length, Math.min(count, data.length - readPos));
+            System.arraycopy(data, readPos, buffer, offset, n);
+            readPos = (readPos + n) % data.length;
+            count -= n;
+            notifyAll();
+            return n;
+        }
+
+        synchronized int awaitBuffered(long bytes, long timeoutMillis) throws InterruptedException {
+            long target = Math.min(bytes, data.length);
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (count < target && !closed) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                wait(remaining);
+            }
+            return count;
+        }
+
+        synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+
+        InputStream inputStream() {
+            return new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    byte[] single = new byte[1];
+                    return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    if (length == 0) {
+                        return 0;
+                    }
+                    try {
+                        return PcmBuffer.this.read(buffer, offset, length);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for audio", e);
+                    }
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package nls.minesongs;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+// Resolves and downloads the next few queue entries in the background while the current track plays
+public class QueuePrefetcher {
+    private final BiFunction<String, CancellationToken, String> resolver;
+    private final int depth;
+    private final ExecutorService pool;
+
+    // Keyed by queue URL
+    private final Map<String, Prefetch> pending = new ConcurrentHashMap<>();
+    // Taken off the queue to be played but not handed over yet; update() leaves it alone
+    private String claimedUrl;
+    private Prefetch claimed;
+
+    private static class Prefetch {
+        final CancellationToken token = new CancellationToken();
+        // Resolves to a playable file URL, or null if the download failed
+        Future<String> future;
+    }
+
+    // resolver downloads a URL into the cache and returns the local file URL,
+    // stopping early once its token is cancelled
+    public QueuePrefetcher(BiFunction<String, CancellationToken, String> resolver, int depth, int maxConcurrent) {
+        this.resolver = resolver;
+        this.depth = Math.max(0, depth);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(Math.max(1, maxConcurrent), runnable -> {
+            Thread thread = new Thread(runnable, "MineSongs-Prefetch-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    // Makes sure the first entries of the queue are being fetched and drops work for anything else.
+    // A prefetch for the track that is just starting is kept so playback can pick it up.
+    public synchronized void update(String starting, List<String> upcoming) {
+        Set<String> wanted = new HashSet<>();
+        for (String url : upcoming) {
+            if (wanted.size() >= depth) {
+                break;
+            }
+            wanted.add(url);
+        }
+
+        Iterator<Map.Entry<String, Prefetch>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Prefetch> entry = it.next();
+            if (!wanted.contains(entry.getKey()) && !entry.getKey().equals(starting)) {
+                it.remove();
+                cancel(entry.getKey(), entry.getValue());
+            }
+        }
+
+        for (String url : wanted) {
+            if (!pending.containsKey(url)) {
+                Minesongs.LOGGER.info("Prefetching: {}", url);
+                Prefetch prefetch = new Prefetch();
+                prefetch.future = pool.submit(() -> resolver.apply(url, prefetch.token));
+                pending.put(url, prefetch);
+            }
+        }
+    }
+
+    // Takes the next entry off the queue and keeps its prefetch for take(). One step under the same lock as
+    // update(), so a queue edit between the two cannot cancel the download of the song about to play.
+    public synchronized SongQueue.Entry pollClaimed(SongQueue queue) {
+        SongQueue.Entry next = queue.poll();
+        // A claim nobody took (its play request was superseded) finishes into the cache on its own
+        claimedUrl = null;
+        claimed = null;
+        if (next != null) {
+            Prefetch prefetch = pending.remove(next.url());
+            if (prefetch != null) {
+                claimedUrl = next.url();
+                claimed = prefetch;
+            }
+        }
+        return next;
+    }
+
+    // Hands over a finished or in-flight prefetch for this URL, waiting for it if needed.
+    // Returns null if the URL was never prefetched, the prefetch failed, or the waiting job was cancelled.
+    public String take(String url, CancellationToken waiter) throws InterruptedException {
+        Prefetch prefetch;
+        synchronized (this) {
+            if (url.equals(claimedUrl)) {
+                prefetch = claimed;
+                claimedUrl = null;
+                claimed = null;
+            } else {
+                prefetch = pending.remove(url);
+            }
+        }
+        if (prefetch == null) {
+            return null;
+        }
+        if (!prefetch.future.isDone()) {
+            Minesongs.LOGGER.info("Waiting for prefetch to finish: {}", url);
+        }
+        while (!waiter.isCancelled()) {
+            try {
+                return prefetch.future.get(100, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // Check the waiter again
+            } catch (ExecutionException | CancellationException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    public synchronized void cancelAll() {
+        for (Map.Entry<String, Prefetch> entry : pending.entrySet()) {
+            cancel(entry.getKey(), entry.getValue());
+        }
+        pending.clear();
+        if (claimed != null) {
+            cancel(claimedUrl, claimed);
+            claimedUrl = null;
+            claimed = null;
+        }
+    }
+
+    private void cancel(String url, Prefetch prefetch) {
+        if (!prefetch.future.isDone()) {
+            Minesongs.LOGGER.info("Cancelling prefetch: {}", url);
+            prefetch.future.cancel(false);
+            prefetch.token.cancel();
+        }
+    }
+}
@@ -0,0 +1,515 @@
+package nls.minesongs;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.regex.Pattern;
+
+// Search as you type over every song the mod knows: the library, the download cache and the play history.
+// Text is lower-cased, stripped of accents and split into words; each word is indexed by its trigrams,
+// and by its first one, two and three characters. Title words are indexed a second time under their own
+// keys. Every key has a sorted posting list of document ids, so a query intersects a few lists, shortest
+// first, and ranks what is left from the lists alone; only the documents that make it into the results
+// are opened, to check that a long word really is in them. Songs are added and removed one at a time as
+// the sources change; nothing is ever rebuilt.
+public class SearchIndex {
+    // Where a song was found; a song can be in several places at once
+    public static final int LIBRARY = 1;
+    public static final int HISTORY = 2;
+    public static final int CACHE = 4;
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    // Key kinds, above the 48 bits three characters take
+    private static final long PREFIX = 1L << 48; // Times the prefix length, 1 to 3
+    private static final long TITLE = 1L << 52;
+    private static final long FIRST_WORD = 1L << 53;
+
+    public record Hit(String url, String title, String artist, long durationSeconds, int sources) {
+    }
+
+    private static final class Doc {
+        final int id;
+        final String url;
+        String title;
+        String artist;
+        String album;
+        long durationSeconds;
+        int sources;
+        // Normalized words joined by single spaces
+        String text;
+        String titleText;
+
+        Doc(int id, String url) {
+            this.id = id;
+            this.url = url;
+        }
+    }
+
+    // Ascending document ids
+    private static final class Postings {
+        int[] ids = new int[4];
+        int size;
+
+        // New documents have the highest id and are appended; a re-indexed one is put back in place
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            int at = size == 0 || ids[size - 1] < id ? size : -Arrays.binarySearch(ids, 0, size, id) - 1;
+            if (at < 0) {
+                return; // Already there
+            }
+            System.arraycopy(ids, at, ids, at + 1, size - at);
+            ids[at] = id;
+            size++;
+        }
+
+        void remove(int id) {
+            int at = Arrays.binarySearch(ids, 0, size, id);
+            if (at >= 0) {
+                System.arraycopy(ids, at + 1, ids, at, size - at - 1);
+                size--;
+            }
+        }
+    }
+
+    // Posting lists by key, in an open-addressing table so a lookup boxes nothing
+    private static final class KeyTable {
+        long[] keys = new long[1024];
+        Postings[] values = new Postings[1024];
+        int size;
+
+        Postings get(long key) {
+            int mask = keys.length - 1;
+            for (int slot = slot(key, mask); values[slot] != null; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+            }
+            return null;
+        }
+
+        Postings getOrCreate(long key) {
+            int mask = keys.length - 1;
+            int slot = slot(key, mask);
+            for (; values[slot] != null; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+            }
+            Postings list = new Postings();
+            keys[slot] = key;
+            values[slot] = list;
+            if (++size * 2 > keys.length) {
+                grow();
+            }
+            return list;
+        }
+
+        // Later entries of the probe run move back into the gap, so no slot is left marked deleted
+        void remove(long key) {
+            int mask = keys.length - 1;
+            int slot = slot(key, mask);
+            while (values[slot] != null && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (values[slot] == null) {
+                return;
+            }
+            int gap = slot;
+            for (int next = (gap + 1) & mask; values[next] != null; next = (next + 1) & mask) {
+                int home = slot(keys[next], mask);
+                // Moves back unless its home lies cyclically in (gap, next]
+                if (gap <= next ? home <= gap || home > next : home <= gap && home > next) {
+                    keys[gap] = keys[next];
+                    values[gap] = values[next];
+                    gap = next;
+                }
+            }
+            values[gap] = null;
+            size--;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            Postings[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new Postings[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null) {
+                    int slot = slot(oldKeys[i], mask);
+                    while (values[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+
+        private static int slot(long key, int mask) {
+            long mixed = key * 0x9E3779B97F4A7C15L;
+            return (int) (mixed >>> 32) & mask;
+        }
+    }
+
+    private final Map<String, Doc> byKey = new HashMap<>();
+    // By document id, null once removed; the ranking reads the small arrays, not the documents
+    private Doc[] docs = new Doc[256];
+    private int[] titleLengths = new int[256];
+    private int[] docSources = new int[256];
+    private final KeyTable postings = new KeyTable();
+    private int nextId = 0;
+    private int version = 0;
+
+    // key identifies the song across sources (AudioCache.keyFor for YouTube, the URL otherwise).
+    // Tags from the library win over titles found elsewhere.
+    public synchronized void add(String key, String url, String title, String artist, String album,
+                                 long durationSeconds, int source) {
+        Doc doc = byKey.get(key);
+        if (doc != null) {
+            doc.sources |= source;
+            docSources[doc.id] = doc.sources;
+            boolean better = source == LIBRARY || (doc.sources & LIBRARY) == 0 && doc.title.isEmpty();
+            if (!better || (doc.title.equals(title) && doc.artist.equals(artist) && doc.album.equals(album))) {
+                return;
+            }
+            unindex(doc);
+        } else {
+            doc = new Doc(nextId++, url);
+            doc.sources = source;
+            byKey.put(key, doc);
+            if (doc.id == docs.length) {
+                docs = Arrays.copyOf(docs, docs.length * 2);
+                titleLengths = Arrays.copyOf(titleLengths, docs.length);
+                docSources = Arrays.copyOf(docSources, docs.length);
+            }
+            docs[doc.id] = doc;
+            docSources[doc.id] = source;
+        }
+        doc.title = title;
+        doc.artist = artist;
+        doc.album = album;
+        doc.durationSeconds = durationSeconds;
+        index(doc);
+        version++;
+    }
+
+    // A title resolved later (e.g. from yt-dlp) for a song that is already in the index
+    public synchronized void describe(String key, String title, long durationSeconds) {
+        Doc doc = byKey.get(key);
+        if (doc == null || (doc.sources & LIBRARY) != 0 || doc.title.equals(title)) {
+            return;
+        }
+        unindex(doc);
+        doc.title = title;
+        doc.durationSeconds = durationSeconds;
+        index(doc);
+        version++;
+    }
+
+    // The song leaves the index once no source has it any more
+    public synchronized void remove(String key, int source) {
+        Doc doc = byKey.get(key);
+        if (doc == null) {
+            return;
+        }
+        doc.sources &= ~source;
+        docSources[doc.id] = doc.sources;
+        if (doc.sources == 0) {
+            unindex(doc);
+            byKey.remove(key);
+            docs[doc.id] = null;
+            version++;
+        }
+    }
+
+    public synchronized int size() {
+        return byKey.size();
+    }
+
+    // Changes whenever a song is indexed, reindexed or dropped, so a view can tell when its results are
+    // out of date; a song only gaining or losing one of several sources leaves it alone
+    public synchronized int version() {
+        return version;
+    }
+
+    private void index(Doc doc) {
+        doc.titleText = normalize(doc.title);
+        doc.text = normalize(doc.title + " " + doc.artist + " " + doc.album + " " + doc.url);
+        titleLengths[doc.id] = doc.title.length();
+        for (long key : keys(doc)) {
+            postings.getOrCreate(key).add(doc.id);
+        }
+    }
+
+    private void unindex(Doc doc) {
+        for (long key : keys(doc)) {
+            Postings list = postings.get(key);
+            if (list != null) {
+                list.remove(doc.id);
+                if (list.size == 0) {
+                    postings.remove(key);
+                }
+            }
+        }
+    }
+
+    // Best matches first: words starting with the query, then titles, then library songs
+    public synchronized List<Hit> search(String query, int limit) {
+        String[] tokens = normalize(query).split(" ");
+        if (tokens.length == 0 || tokens[0].isEmpty()) {
+            return List.of();
+        }
+
+        // Every token narrows the candidates down; the shortest list goes first
+        List<Postings> lists = new ArrayList<>();
+        for (String token : tokens) {
+            for (long key : matchKeys(token, 0)) {
+                Postings list = postings.get(key);
+                if (list == null) {
+                    return List.of();
+                }
+                lists.add(list);
+            }
+        }
+        int[] candidates = intersectAll(lists, null, 0);
+        int count = candidates.length;
+
+        // The candidates that also start a word, or are in the title, for every token
+        int[][] wordStarts = new int[tokens.length][];
+        int[][] inTitle = new int[tokens.length][];
+        for (int i = 0; i < tokens.length; i++) {
+            String token = tokens[i];
+            wordStarts[i] = token.length() < 3 ? candidates
+                    : restrict(candidates, new long[]{prefixKey(token, 0, 3)});
+            inTitle[i] = restrict(candidates, matchKeys(token, TITLE));
+        }
+        int[] titleStarts = restrict(candidates,
+                new long[]{prefixKey(tokens[0], 0, Math.min(3, tokens[0].length())) | FIRST_WORD});
+
+        // Each list is walked once, alongside the candidates
+        int[] wordStartAt = new int[tokens.length];
+        int[] inTitleAt = new int[tokens.length];
+        int titleStartAt = 0;
+        // The worst of the best so far on top, so it is the one pushed out
+        PriorityQueue<Scored> best = new PriorityQueue<>(limit + 1, SearchIndex::rank);
+        for (int c = 0; c < count; c++) {
+            int id = candidates[c];
+            int score = 0;
+            for (int i = 0; i < tokens.length; i++) {
+                wordStartAt[i] = advance(wordStarts[i], wordStartAt[i], id);
+                inTitleAt[i] = advance(inTitle[i], inTitleAt[i], id);
+                score += has(wordStarts[i], wordStartAt[i], id) ? 4 : 1;
+                score += has(inTitle[i], inTitleAt[i], id) ? 2 : 0;
+            }
+            titleStartAt = advance(titleStarts, titleStartAt, id);
+            score += has(titleStarts, titleStartAt, id) ? 4 : 0;
+            score += (docSources[id] & LIBRARY) != 0 ? 1 : 0;
+
+            if (best.size() == limit) {
+                Scored worst = best.peek();
+                if (score < worst.score || score == worst.score && titleLengths[id] >= worst.titleLength) {
+                    continue;
+                }
+            }
+            // Trigrams only say the pieces of a long token are there somewhere
+            if (!contains(docs[id], tokens)) {
+                continue;
+            }
+            best.add(new Scored(id, score, titleLengths[id]));
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+
+        Hit[] hits = new Hit[best.size()];
+        for (int i = hits.length - 1; i >= 0; i--) {
+            Doc doc = docs[best.poll().id];
+            hits[i] = new Hit(doc.url, doc.title, doc.artist, doc.durationSeconds, doc.sources);
+        }
+        return List.of(hits);
+    }
+
+    private record Scored(int id, int score, int titleLength) {
+    }
+
+    // Higher scores rank higher, then shorter titles
+    private static int rank(Scored a, Scored b) {
+        return a.score != b.score ? Integer.compare(a.score, b.score) : Integer.compare(b.titleLength, a.titleLength);
+    }
+
+    private static boolean contains(Doc doc, String[] tokens) {
+        for (String token : tokens) {
+            if (token.length() > 3 && !doc.text.contains(token)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The candidates that are in every list of these keys; none if a key has no list
+    private int[] restrict(int[] candidates, long[] keys) {
+        List<Postings> lists = new ArrayList<>(keys.length);
+        for (long key : keys) {
+            Postings list = postings.get(key);
+            if (list == null) {
+                return new int[0];
+            }
+            lists.add(list);
+        }
+        return intersectAll(lists, candidates, candidates.length);
+    }
+
+    private static int[] intersectAll(List<Postings> lists, int[] from, int fromCount) {
+        lists.sort(Comparator.comparingInt(list -> list.size));
+        int[] result;
+        int count;
+        int next = 0;
+        if (from == null) {
+            result = Arrays.copyOf(lists.get(0).ids, lists.get(0).size);
+            count = result.length;
+            next = 1;
+        } else {
+            result = Arrays.copyOf(from, fromCount);
+            count = fromCount;
+        }
+        for (int i = next; i < lists.size() && count > 0; i++) {
+            count = intersect(result, count, lists.get(i));
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+
+    private static int advance(int[] ids, int at, int id) {
+        while (at < ids.length && ids[at] < id) {
+            at++;
+        }
+        return at;
+    }
+
+    private static boolean has(int[] ids, int at, int id) {
+        return at < ids.length && ids[at] == id;
+    }
+
+    // Keeps the candidates that are also in the list; both are sorted. Lists of about the same length
+    // are merged, a much longer list is searched.
+    private static int intersect(int[] candidates, int count, Postings list) {
+        int kept = 0;
+        int from = 0;
+        if (list.size / 16 < count) {
+            for (int i = 0; i < count && from < list.size; i++) {
+                while (from < list.size && list.ids[from] < candidates[i]) {
+                    from++;
+                }
+                if (from < list.size && list.ids[from] == candidates[i]) {
+                    candidates[kept++] = candidates[i];
+                }
+            }
+            return kept;
+        }
+        for (int i = 0; i < count; i++) {
+            int at = Arrays.binarySearch(list.ids, from, list.size, candidates[i]);
+            if (at >= 0) {
+                candidates[kept++] = candidates[i];
+                from = at + 1;
+            } else {
+                from = -at - 1;
+            }
+        }
+        return kept;
+    }
+
+    // Lower case, no accents, anything but letters and digits turned into single spaces
+    static String normalize(String value) {
+        String folded = MARKS.matcher(Normalizer.normalize(value, Normalizer.Form.NFD)).replaceAll("")
+                .toLowerCase(Locale.ROOT);
+        StringBuilder text = new StringBuilder(folded.length());
+        boolean space = true;
+        for (int i = 0; i < folded.length(); i++) {
+            char c = folded.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                text.append(c);
+                space = false;
+            } else if (!space) {
+                text.append(' ');
+                space = true;
+            }
+        }
+        int length = text.length();
+        return space && length > 0 ? text.substring(0, length - 1) : text.toString();
+    }
+
+    // Every word of the text, then the title words again under their own keys, then the start of the
+    // title's first word
+    private static long[] keys(Doc doc) {
+        long[] keys = new long[(doc.text.length() + doc.titleText.length()) * 4 + 3];
+        int count = wordKeys(doc.text, 0, keys, 0);
+        count = wordKeys(doc.titleText, TITLE, keys, count);
+        int firstWord = doc.titleText.indexOf(' ');
+        firstWord = firstWord < 0 ? doc.titleText.length() : firstWord;
+        for (int length = 1; length <= Math.min(3, firstWord); length++) {
+            keys[count++] = prefixKey(doc.titleText, 0, length) | FIRST_WORD;
+        }
+        // A word can repeat, and posting lists must not hold an id twice
+        long[] unique = Arrays.copyOf(keys, count);
+        Arrays.sort(unique);
+        int distinct = 0;
+        for (int i = 0; i < unique.length; i++) {
+            if (i == 0 || unique[i] != unique[i - 1]) {
+                unique[distinct++] = unique[i];
+            }
+        }
+        return Arrays.copyOf(unique, distinct);
+    }
+
+    // Trigrams of every word, and its first one, two and three characters
+    private static int wordKeys(String text, long kind, long[] keys, int count) {
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf(' ', start);
+            if (end < 0) {
+                end = text.length();
+            }
+            for (int length = 1; length <= Math.min(3, end - start); length++) {
+                keys[count++] = prefixKey(text, start, length) | kind;
+            }
+            for (int i = start; i + 3 <= end; i++) {
+                keys[count++] = trigram(text, i) | kind;
+            }
+            start = end + 1;
+        }
+        return count;
+    }
+
+    // A token of one or two characters must start a word; a longer one may sit anywhere inside one
+    private static long[] matchKeys(String token, long kind) {
+        if (token.length() < 3) {
+            return new long[]{prefixKey(token, 0, token.length()) | kind};
+        }
+        long[] keys = new long[token.length() - 2];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = trigram(token, i) | kind;
+        }
+        return keys;
+    }
+
+    private static long trigram(String text, int at) {
+        return ((long) text.charAt(at) << 32) | ((long) text.charAt(at + 1) << 16) | text.charAt(at + 2);
+    }
+
+    private static long prefixKey(String text, int at, int length) {
+        long key = PREFIX * length;
+        for (int i = 0; i < length; i++) {
+            key |= (long) text.charAt(at + i) << (16 * (length - 1 - i));
+        }
+        return key;
+    }
+}
@@ -0,0 +1,334 @@
+package nls.minesongs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+// Where to start reading a file to land on a given source frame, recorded once when the file enters
+// the cache. PCM files need a single point, since every frame has the same size after the header.
+// MPEG audio gets a point about every second, found by walking the frame headers without decoding
+// anything, so a seek decodes at most a second. Other containers (WebM, MP4, Ogg, FLAC) carry their
+// own index, which FFmpeg uses when asked to start at a time.
+public final class SeekIndex {
+    public enum Kind {
+        PCM,
+        MPEG,
+        CONTAINER
+    }
+
+    private static final int MAGIC = 0x4D534B31; // "MSK1"
+    private static final int MAX_POINTS = 1 << 20;
+
+    private static final int[][] MPEG_BITRATES = {
+            // MPEG-1 layer I, II, III
+            {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+            {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320},
+            // MPEG-2 and 2.5 layer I, then II and III
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}
+    };
+    private static final int[] MPEG_SAMPLE_RATES = {44100, 48000, 32000};
+
+    private final Kind kind;
+    private final float sampleRate;
+    // PCM only: bytes per frame after the first point
+    private final int frameSize;
+    // Source frame and byte offset of each point, both ascending
+    private final long[] frames;
+    private final long[] offsets;
+
+    private SeekIndex(Kind kind, float sampleRate, int frameSize, long[] frames, long[] offsets) {
+        this.kind = kind;
+        this.sampleRate = sampleRate;
+        this.frameSize = frameSize;
+        this.frames = frames;
+        this.offsets = offsets;
+    }
+
+    public Kind kind() {
+        return kind;
+    }
+
+    public float sampleRate() {
+        return sampleRate;
+    }
+
+    public int points() {
+        return frames.length;
+    }
+
+    // The last point at or before the given source frame
+    public int pointFor(long frame) {
+        int point = Arrays.binarySearch(frames, frame);
+        return point >= 0 ? point : Math.max(0, -point - 2);
+    }
+
+    public long frameAt(int point) {
+        return frames[point];
+    }
+
+    public long offsetAt(int point) {
+        return offsets[point];
+    }
+
+    // Byte offset of any frame of a PCM file
+    public long pcmOffset(long frame) {
+        return offsets[0] + frame * frameSize;
+    }
+
+    public static SeekIndex build(Path file) throws IOException {
+        byte[] head = new byte[12];
+        int length;
+        try (InputStream in = Files.newInputStream(file)) {
+            length = in.readNBytes(head, 0, head.length);
+        }
+        String type = AudioDecoders.sniffExtension(head, length);
+        if (type.equals("mp3")) {
+            return buildMpeg(file);
+        }
+        if (type.equals("wav") || startsWith(head, length, "FORM") || startsWith(head, length, ".snd")) {
+            SeekIndex index = buildPcm(file, head);
+            if (index != null) {
+                return index;
+            }
+        }
+        return new SeekIndex(Kind.CONTAINER, 0, 0, new long[0], new long[0]);
+    }
+
+    private static boolean startsWith(byte[] head, int length, String magic) {
+        if (length < magic.length()) {
+            return false;
+        }
+        for (int i = 0; i < magic.length(); i++) {
+            if (head[i] != magic.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // WAV and AIFF headers are parsed directly; Java Sound reads the format of AU files, whose header
+    // gives the start of the sample data
+    private static SeekIndex buildPcm(Path file, byte[] head) throws IOException {
+        if (head[0] != '.') {
+            MappedPcm.Header header = MappedPcm.readHeader(file);
+            if (header == null) {
+                return null;
+            }
+            return new SeekIndex(Kind.PCM, header.format().getFrameRate(), header.format().getFrameSize(),
+                    new long[]{0}, new long[]{header.dataOffset()});
+        }
+        AudioFileFormat fileFormat;
+        try {
+            fileFormat = AudioSystem.getAudioFileFormat(file.toFile());
+        } catch (UnsupportedAudioFileException e) {
+            return null;
+        }
+        int frameSize = fileFormat.getFormat().getFrameSize();
+        long dataOffset = auDataOffset(file);
+        if (frameSize <= 0) {
+            return null;
+        }
+        return new SeekIndex(Kind.PCM, fileFormat.getFormat().getFrameRate(), frameSize,
+                new long[]{0}, new long[]{dataOffset});
+    }
+
+    private static long auDataOffset(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            in.readInt();
+            return in.readInt() & 0xFFFFFFFFL;
+        }
+    }
+
+    // Walks the frame headers, skipping each frame's payload; garbage such as tags is stepped over a
+    // byte at a time until the next header
+    private static SeekIndex buildMpeg(Path file) throws IOException {
+        long[] frames = new long[256];
+        long[] offsets = new long[256];
+        int count = 0;
+        int rate = 0;
+        long samples = 0;
+        long nextPoint = 0;
+
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 64 * 1024)) {
+            long position = skipId3(in);
+            int header = 0;
+            int have = 0;
+            while (true) {
+                int b = in.read();
+                if (b < 0) {
+                    break;
+                }
+                header = (header << 8) | b;
+                position++;
+                if (++have < 4) {
+                    continue;
+                }
+                int[] frame = parseMpegHeader(header);
+                if (frame == null || (rate != 0 && frame[0] != rate)) {
+                    continue;
+                }
+                rate = frame[0];
+                if (count == 0 && isVbrHeader(in, header, frame[2])) {
+                    // Decoders skip it, so it must not shift every point by a frame
+                    position += frame[2] - 4;
+                    header = 0;
+                    have = 0;
+                    continue;
+                }
+                if (samples >= nextPoint && count < MAX_POINTS) {
+                    if (count == frames.length) {
+                        frames = Arrays.copyOf(frames, count * 2);
+                        offsets = Arrays.copyOf(offsets, count * 2);
+                    }
+                    frames[count] = samples;
+                    offsets[count] = position - 4;
+                    count++;
+                    nextPoint = samples + rate;
+                }
+                samples += frame[1];
+                try {
+                    in.skipNBytes(frame[2] - 4);
+                } catch (EOFException e) {
+                    break;
+                }
+                position += frame[2] - 4;
+                header = 0;
+                have = 0;
+            }
+        }
+        if (count == 0) {
+            return new SeekIndex(Kind.CONTAINER, 0, 0, new long[0], new long[0]);
+        }
+        return new SeekIndex(Kind.MPEG, rate, 0, Arrays.copyOf(frames, count), Arrays.copyOf(offsets, count));
+    }
+
+    // The first frame of most encoders holds a Xing/Info or VBRI header instead of audio. On true,
+    // the frame has been read past; otherwise the stream is left where it was.
+    private static boolean isVbrHeader(InputStream in, int header, int frameLength) throws IOException {
+        if (((header >>> 17) & 3) != 1) {
+            return false; // Only layer III has them
+        }
+        boolean mpeg1 = ((header >>> 19) & 3) == 3;
+        boolean mono = ((header >>> 6) & 3) == 3;
+        // Side information comes right after the header; the Xing tag follows it
+        int xing = mpeg1 ? (mono ? 17 : 32) : (mono ? 9 : 17);
+        int vbri = 32;
+        byte[] payload = new byte[frameLength - 4];
+        in.mark(payload.length);
+        int read = in.readNBytes(payload, 0, payload.length);
+        if (is(payload, read, xing, "Xing") || is(payload, read, xing, "Info") || is(payload, read, vbri, "VBRI")) {
+            return true;
+        }
+        in.reset();
+        return false;
+    }
+
+    private static boolean is(byte[] data, int length, int at, String id) {
+        if (at + 4 > length) {
+            return false;
+        }
+        for (int i = 0; i < 4; i++) {
+            if (data[at + i] != id.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Bytes taken by an ID3v2 tag at the start, which are skipped
+    private static long skipId3(InputStream in) throws IOException {
+        in.mark(10);
+        byte[] tag = new byte[10];
+        if (in.readNBytes(tag, 0, 10) == 10 && tag[0] == 'I' && tag[1] == 'D' && tag[2] == '3') {
+            long size = ((tag[6] & 0x7F) << 21) | ((tag[7] & 0x7F) << 14) | ((tag[8] & 0x7F) << 7) | (tag[9] & 0x7F);
+            if ((tag[5] & 0x10) != 0) {
+                size += 10; // Footer
+            }
+            in.skipNBytes(size);
+            return 10 + size;
+        }
+        in.reset();
+        return 0;
+    }
+
+    // Sample rate, samples per frame and frame length in bytes, or null if this is not a frame header
+    static int[] parseMpegHeader(int header) {
+        if ((header >>> 21) != 0x7FF) {
+            return null;
+        }
+        int version = (header >>> 19) & 3; // 0: 2.5, 2: 2, 3: 1
+        int layer = 4 - ((header >>> 17) & 3); // 1, 2 or 3
+        int bitrateIndex = (header >>> 12) & 0xF;
+        int rateIndex = (header >>> 10) & 3;
+        int padding = (header >>> 9) & 1;
+        if (version == 1 || layer == 4 || bitrateIndex == 0 || bitrateIndex == 15 || rateIndex == 3) {
+            return null;
+        }
+        boolean mpeg1 = version == 3;
+        int bitrate = 1000 * MPEG_BITRATES[mpeg1 ? layer - 1 : layer == 1 ? 3 : 4][bitrateIndex];
+        int rate = MPEG_SAMPLE_RATES[rateIndex] >> (mpeg1 ? 0 : version == 2 ? 1 : 2);
+        if (layer == 1) {
+            return new int[]{rate, 384, (12 * bitrate / rate + padding) * 4};
+        }
+        int samples = layer == 3 && !mpeg1 ? 576 : 1152;
+        return new int[]{rate, samples, samples / 8 * bitrate / rate + padding};
+    }
+
+    public void write(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(kind.ordinal());
+            out.writeFloat(sampleRate);
+            out.writeInt(frameSize);
+            out.writeInt(frames.length);
+            for (int i = 0; i < frames.length; i++) {
+                out.writeLong(frames[i]);
+                out.writeLong(offsets[i]);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Null when the file is missing or damaged
+    public static SeekIndex read(Path file) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            Kind kind = Kind.values()[in.readByte()];
+            float sampleRate = in.readFloat();
+            int frameSize = in.readInt();
+            int count = in.readInt();
+            if (count < 0 || count > MAX_POINTS) {
+                return null;
+            }
+            long[] frames = new long[count];
+            long[] offsets = new long[count];
+            for (int i = 0; i < count; i++) {
+                frames[i] = in.readLong();
+                offsets[i] = in.readLong();
+            }
+            return new SeekIndex(kind, sampleRate, frameSize, frames, offsets);
+        } catch (IOException | ArrayIndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+}
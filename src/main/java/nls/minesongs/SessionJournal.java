@@ -0,0 +1,355 @@
+package nls.minesongs;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+// The session (queue, shuffle, history, current track and position, loop flag and volume) as an
+// append-only journal of one-line TSV records. Whoever makes a change only queues its record; a worker
+// writes them behind. Once the journal holds far more records than the state they add up to, it is
+// rewritten as a snapshot of that state. A crash loses at most the records not yet written, and a last
+// line torn by the crash is ignored on replay.
+public class SessionJournal implements SongQueue.Listener {
+    private static final String HEADER = "minesongs-session\t1";
+    // Compact once there are this many records, or twice as many as queue entries if that is more
+    private static final int COMPACT_MIN_RECORDS = 1000;
+
+    // What replay found besides the queue itself. A session stopped before its interrupted song was
+    // resumed has that song waiting in the queue as resumeHandle, to start from positionMillis.
+    public record Session(String track, long positionMillis, long resumeHandle, boolean looping, float volume,
+                          int records) {
+    }
+
+    private final Path file;
+    private final Executor executor;
+    private final Queue<String> pending = new ConcurrentLinkedQueue<>();
+    // Held by whichever thread is writing; the writer and record count below belong to it
+    private final AtomicBoolean writing = new AtomicBoolean(false);
+    private Writer writer;
+    private int records;
+
+    private volatile boolean attached = false;
+    private SongQueue queue;
+    private Supplier<PlaybackState> state;
+    private LongSupplier position;
+    // Queue entry the session resumes with, until playback starts; 0 when there is none
+    private volatile long resumeHandle;
+    private volatile long resumeMillis;
+
+    public SessionJournal(Path file, Executor executor) {
+        this.file = file;
+        this.executor = executor;
+    }
+
+    // Rebuilds the queue from the journal. Call before attach(), so replayed changes are not recorded again.
+    public Session replay(SongQueue queue, float defaultVolume) {
+        String track = "";
+        long positionMillis = 0;
+        long resumeHandle = 0;
+        boolean looping = false;
+        float volume = defaultVolume;
+        int count = 0;
+        if (!Files.exists(file)) {
+            return new Session(track, positionMillis, resumeHandle, looping, volume, count);
+        }
+
+        String content;
+        try {
+            content = Files.readString(file, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            Minesongs.LOGGER.warn("Failed to read session journal: {}", e.getMessage());
+            return new Session(track, positionMillis, resumeHandle, looping, volume, count);
+        }
+        if (!content.startsWith(HEADER + "\n")) {
+            Minesongs.LOGGER.warn("Ignoring session journal with an unknown format");
+            return new Session(track, positionMillis, resumeHandle, looping, volume, count);
+        }
+
+        // Only complete lines; a crash can leave the last one half written
+        int start = HEADER.length() + 1;
+        int end;
+        while ((end = content.indexOf('\n', start)) >= 0) {
+            String[] parts = content.substring(start, end).split("\t", -1);
+            start = end + 1;
+            count++;
+            try {
+                switch (parts[0]) {
+                    case "A" -> queue.restore(new SongQueue.Entry(Long.parseLong(parts[1]), parts[6],
+                                    parts[7].isEmpty() ? null : parts[7], Long.parseLong(parts[5]), Long.parseLong(parts[4])),
+                            parts[2].equals("1"), Long.parseLong(parts[3]));
+                    case "R" -> queue.remove(Long.parseLong(parts[1]));
+                    case "M" -> {
+                        long anchor = Long.parseLong(parts[2]);
+                        if (anchor == 0) {
+                            queue.moveToFront(Long.parseLong(parts[1]));
+                        } else {
+                            queue.move(Long.parseLong(parts[1]), anchor, parts[3].equals("1"));
+                        }
+                    }
+                    case "S" -> {
+                        String[] handles = parts[1].isEmpty() ? new String[0] : parts[1].split(",");
+                        long[] order = new long[handles.length];
+                        for (int i = 0; i < handles.length; i++) {
+                            order[i] = Long.parseLong(handles[i]);
+                        }
+                        queue.restoreShuffle(order);
+                    }
+                    case "U" -> queue.setShuffled(false);
+                    case "C" -> queue.clear();
+                    case "H" -> queue.restoreHistory(new SongQueue.Entry(Long.parseLong(parts[1]), parts[3], null, 0,
+                            Long.parseLong(parts[2])));
+                    case "B" -> queue.popHistory();
+                    case "T" -> {
+                        track = parts[1];
+                        positionMillis = 0;
+                        resumeHandle = 0;
+                    }
+                    case "Q" -> {
+                        resumeHandle = Long.parseLong(parts[1]);
+                        positionMillis = Long.parseLong(parts[2]);
+                    }
+                    case "P" -> positionMillis = Long.parseLong(parts[1]);
+                    case "L" -> looping = parts[1].equals("1");
+                    case "V" -> volume = Float.parseFloat(parts[1]);
+                    default -> count--;
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                // Skip damaged lines
+                count--;
+            }
+        }
+        return new Session(track, positionMillis, resumeHandle, looping, volume, count);
+    }
+
+    // Starts recording changes and rewrites the journal from the current state, which also takes in
+    // anything that changed between replay and now
+    public void attach(SongQueue queue, Supplier<PlaybackState> state, LongSupplier position) {
+        this.queue = queue;
+        this.state = state;
+        this.position = position;
+        records = Integer.MAX_VALUE; // Compact on the first write
+        attached = true;
+        queue.setListener(this);
+        schedule();
+    }
+
+    // Records which of track, loop flag and volume differ; call after the new state is published
+    public void stateChanged(PlaybackState before, PlaybackState after) {
+        if (!after.track().equals(before.track())) {
+            append("T\t" + clean(after.track()));
+        }
+        if (after.looping() != before.looping()) {
+            append("L\t" + (after.looping() ? 1 : 0));
+        }
+        if (after.volume() != before.volume()) {
+            append("V\t" + after.volume());
+        }
+    }
+
+    // Notes the queue entry that resumes the replayed session and where it starts, so a restart before
+    // it plays keeps both; call before attach() so the first snapshot has it, and with 0 once playback starts
+    public void resumeWith(long handle, long positionMillis) {
+        resumeMillis = positionMillis;
+        resumeHandle = handle;
+        if (handle != 0) {
+            append("Q\t" + handle + "\t" + positionMillis);
+        }
+    }
+
+    public void positionChanged(long positionMillis) {
+        append("P\t" + positionMillis);
+    }
+
+    @Override
+    public void added(SongQueue.Entry entry, boolean front, long shuffledAfter) {
+        append(addRecord(entry, front, shuffledAfter));
+    }
+
+    @Override
+    public void removed(long handle) {
+        append("R\t" + handle);
+    }
+
+    @Override
+    public void moved(long handle, long anchor, boolean after) {
+        append("M\t" + handle + "\t" + anchor + "\t" + (after ? 1 : 0));
+    }
+
+    @Override
+    public void shuffled(List<SongQueue.Entry> order) {
+        append(order != null ? shuffleRecord(order) : "U");
+    }
+
+    @Override
+    public void cleared() {
+        append("C");
+    }
+
+    @Override
+    public void historyPushed(SongQueue.Entry entry) {
+        append(historyRecord(entry));
+    }
+
+    @Override
+    public void historyPopped() {
+        append("B");
+    }
+
+    private void append(String record) {
+        if (attached) {
+            pending.offer(record);
+            schedule();
+        }
+    }
+
+    private void schedule() {
+        if (writing.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            write();
+        } finally {
+            writing.set(false);
+        }
+        // Records queued after the last poll but before the flag was cleared
+        if (!pending.isEmpty()) {
+            schedule();
+        }
+    }
+
+    // Writes out everything queued so far, waiting for a write in progress; for shutdown
+    public void flush() {
+        if (!attached) {
+            return;
+        }
+        while (!writing.compareAndSet(false, true)) {
+            Thread.onSpinWait();
+        }
+        try {
+            write();
+        } finally {
+            writing.set(false);
+        }
+    }
+
+    private void write() {
+        try {
+            if (records > Math.max(COMPACT_MIN_RECORDS, queue.size() * 2)) {
+                compact();
+            }
+            if (writer == null) {
+                writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            String record;
+            while ((record = pending.poll()) != null) {
+                writer.write(record);
+                writer.write('\n');
+                records++;
+            }
+            writer.flush();
+        } catch (IOException e) {
+            Minesongs.LOGGER.warn("Failed to write session journal: {}", e.getMessage());
+            closeWriter();
+        }
+    }
+
+    private void compact() throws IOException {
+        long start = System.nanoTime();
+        List<String> snapshot = new ArrayList<>();
+        synchronized (queue) {
+            // The queue cannot change while it is locked, and everything queued until now is part of the
+            // state read below, so those records are no longer needed. The playback state is read in here
+            // too, so no record queued after the clear is left out of it.
+            pending.clear();
+            for (SongQueue.Entry entry : queue.arranged()) {
+                snapshot.add(addRecord(entry, false, -1));
+            }
+            SongQueue.Snapshot current = queue.snapshot();
+            if (current.shuffled()) {
+                snapshot.add(shuffleRecord(current.entries()));
+            }
+            List<SongQueue.Entry> history = queue.history();
+            for (int i = history.size() - 1; i >= 0; i--) {
+                snapshot.add(historyRecord(history.get(i)));
+            }
+            PlaybackState session = state.get();
+            snapshot.add("T\t" + clean(session.track()));
+            snapshot.add("P\t" + position.getAsLong());
+            snapshot.add("L\t" + (session.looping() ? 1 : 0));
+            snapshot.add("V\t" + session.volume());
+            long resume = resumeHandle;
+            if (resume != 0 && !session.hasTrack()) {
+                snapshot.add("Q\t" + resume + "\t" + resumeMillis);
+            }
+        }
+
+        closeWriter();
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            out.write(HEADER);
+            out.write('\n');
+            for (String record : snapshot) {
+                out.write(record);
+                out.write('\n');
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        records = 0;
+        Minesongs.LOGGER.debug("Session journal compacted to {} records in {} ms", snapshot.size(),
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void closeWriter() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException ignored) {
+            }
+            writer = null;
+        }
+    }
+
+    private static String addRecord(SongQueue.Entry entry, boolean front, long shuffledAfter) {
+        return "A\t" + entry.handle() + "\t" + (front ? 1 : 0) + "\t" + shuffledAfter + "\t" + entry.addedAt()
+                + "\t" + entry.durationSeconds() + "\t" + clean(entry.url())
+                + "\t" + (entry.title() != null ? clean(entry.title()) : "");
+    }
+
+    private static String shuffleRecord(List<SongQueue.Entry> order) {
+        StringBuilder record = new StringBuilder("S\t");
+        for (int i = 0; i < order.size(); i++) {
+            if (i > 0) {
+                record.append(',');
+            }
+            record.append(order.get(i).handle());
+        }
+        return record.toString();
+    }
+
+    private static String historyRecord(SongQueue.Entry entry) {
+        return "H\t" + entry.handle() + "\t" + entry.addedAt() + "\t" + clean(entry.url());
+    }
+
+    // Tabs and line breaks would split the record
+    private static String clean(String value) {
+        return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+}
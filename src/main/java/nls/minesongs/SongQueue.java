@@ -0,0 +1,427 @@
+package nls.minesongs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+// The play queue. Entries are linked in two orders: the one they were added and arranged in, and a
+// shuffled one laid over it, so turning shuffle off brings the arrangement back untouched. Entries are
+// addressed by handle, which makes moves and removals O(1) however long the queue is; readers get an
+// immutable indexed snapshot, built at most once per change. Finished tracks go into a bounded history.
+public class SongQueue {
+    private static final int ARRANGED = 0;
+    private static final int SHUFFLED = 1;
+
+    // Title and duration are whatever was known when the song was queued, e.g. from a playlist listing
+    public record Entry(long handle, String url, String title, long durationSeconds, long addedAt) {
+    }
+
+    // A new instance for every change; compare instances to notice one
+    public record Snapshot(List<Entry> entries, boolean shuffled) {
+        public static final Snapshot EMPTY = new Snapshot(List.of(), false);
+
+        public int size() {
+            return entries.size();
+        }
+
+        public boolean isEmpty() {
+            return entries.isEmpty();
+        }
+
+        public Entry get(int index) {
+            return entries.get(index);
+        }
+    }
+
+    // Told about every change while the queue is locked, so calls arrive in the order the changes happened.
+    // A moved anchor of 0 means the front; shuffledAfter is -1 when not shuffled and 0 for the front.
+    public interface Listener {
+        void added(Entry entry, boolean front, long shuffledAfter);
+
+        void removed(long handle);
+
+        void moved(long handle, long anchor, boolean after);
+
+        // The new shuffled order, or null once shuffle is turned off
+        void shuffled(List<Entry> order);
+
+        void cleared();
+
+        void historyPushed(Entry entry);
+
+        void historyPopped();
+    }
+
+    private static final class Node {
+        final Entry entry;
+        final Node[] prev = new Node[2];
+        final Node[] next = new Node[2];
+        // Position in the node list, for picking a random node in O(1)
+        int slot;
+
+        Node(Entry entry) {
+            this.entry = entry;
+        }
+    }
+
+    private final Map<Long, Node> nodes = new HashMap<>();
+    private final List<Node> slots = new ArrayList<>();
+    private final Node[] head = new Node[2];
+    private final Node[] tail = new Node[2];
+    private final Random random = new Random();
+    private long nextHandle = 1;
+    private boolean shuffled = false;
+    private Snapshot snapshot = Snapshot.EMPTY;
+    private boolean stale = false;
+    private Listener listener;
+
+    private final Entry[] history;
+    private int historyStart = 0;
+    private int historySize = 0;
+
+    public SongQueue(int historyCapacity) {
+        this.history = new Entry[Math.max(1, historyCapacity)];
+    }
+
+    // Called with null to stop listening
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public synchronized Entry add(String url, String title, long durationSeconds) {
+        Node node = newNode(new Entry(nextHandle++, url, title, durationSeconds, System.currentTimeMillis()));
+        linkAfter(ARRANGED, node, tail[ARRANGED]);
+        Node shuffledAfter = null;
+        if (shuffled) {
+            // Somewhere among the songs still to come, like the rest of the shuffled order: after one
+            // of the other songs, or first (0)
+            int pick = random.nextInt(slots.size());
+            shuffledAfter = pick == 0 ? null : slots.get(pick - 1);
+            linkAfter(SHUFFLED, node, shuffledAfter);
+        }
+        changed();
+        if (listener != null) {
+            listener.added(node.entry, false, !shuffled ? -1 : shuffledAfter != null ? shuffledAfter.entry.handle() : 0);
+        }
+        return node.entry;
+    }
+
+    // Play next: goes to the front in both orders
+    public synchronized Entry addNext(String url, String title, long durationSeconds) {
+        Node node = newNode(new Entry(nextHandle++, url, title, durationSeconds, System.currentTimeMillis()));
+        linkAfter(ARRANGED, node, null);
+        if (shuffled) {
+            linkAfter(SHUFFLED, node, null);
+        }
+        changed();
+        if (listener != null) {
+            listener.added(node.entry, true, shuffled ? 0 : -1);
+        }
+        return node.entry;
+    }
+
+    // Puts back an entry recorded by a listener, with its handle and shuffled position
+    synchronized void restore(Entry entry, boolean front, long shuffledAfter) {
+        if (nodes.containsKey(entry.handle())) {
+            return;
+        }
+        nextHandle = Math.max(nextHandle, entry.handle() + 1);
+        Node node = newNode(entry);
+        linkAfter(ARRANGED, node, front ? null : tail[ARRANGED]);
+        if (shuffled) {
+            Node after = shuffledAfter == 0 ? null : nodes.get(shuffledAfter);
+            linkAfter(SHUFFLED, node, after != null || shuffledAfter == 0 ? after : tail[SHUFFLED]);
+        }
+        changed();
+    }
+
+    private Node newNode(Entry entry) {
+        Node node = new Node(entry);
+        nodes.put(entry.handle(), node);
+        node.slot = slots.size();
+        slots.add(node);
+        return node;
+    }
+
+    public synchronized boolean remove(long handle) {
+        Node node = nodes.remove(handle);
+        if (node == null) {
+            return false;
+        }
+        detach(node);
+        changed();
+        if (listener != null) {
+            listener.removed(handle);
+        }
+        return true;
+    }
+
+    // Linear, for callers that only know the URL; removes its first occurrence
+    public synchronized boolean removeUrl(String url) {
+        for (Node node = head[active()]; node != null; node = node.next[active()]) {
+            if (node.entry.url().equals(url)) {
+                return remove(node.entry.handle());
+            }
+        }
+        return false;
+    }
+
+    // Moves an entry next to another one in the order being played; only the links around them change
+    public synchronized boolean move(long handle, long anchor, boolean after) {
+        Node node = nodes.get(handle);
+        Node target = nodes.get(anchor);
+        if (node == null || target == null) {
+            return false;
+        }
+        if (node != target) {
+            int order = active();
+            unlink(order, node);
+            linkAfter(order, node, after ? target : target.prev[order]);
+            changed();
+            if (listener != null) {
+                listener.moved(handle, anchor, after);
+            }
+        }
+        return true;
+    }
+
+    public synchronized boolean moveToFront(long handle) {
+        Node node = nodes.get(handle);
+        if (node == null) {
+            return false;
+        }
+        if (node != head[active()]) {
+            unlink(active(), node);
+            linkAfter(active(), node, null);
+            changed();
+            if (listener != null) {
+                listener.moved(handle, 0, false);
+            }
+        }
+        return true;
+    }
+
+    public synchronized Entry peek() {
+        Node first = head[active()];
+        return first != null ? first.entry : null;
+    }
+
+    // The entry with this handle, if it is still queued
+    synchronized Entry get(long handle) {
+        Node node = nodes.get(handle);
+        return node != null ? node.entry : null;
+    }
+
+    public synchronized Entry poll() {
+        Node first = head[active()];
+        if (first == null) {
+            return null;
+        }
+        nodes.remove(first.entry.handle());
+        detach(first);
+        changed();
+        if (listener != null) {
+            listener.removed(first.entry.handle());
+        }
+        return first.entry;
+    }
+
+    // URLs of the next few entries, for the prefetcher
+    public synchronized List<String> upcoming(int count) {
+        List<String> urls = new ArrayList<>(count);
+        for (Node node = head[active()]; node != null && urls.size() < count; node = node.next[active()]) {
+            urls.add(node.entry.url());
+        }
+        return urls;
+    }
+
+    public synchronized void clear() {
+        nodes.clear();
+        slots.clear();
+        Arrays.fill(head, null);
+        Arrays.fill(tail, null);
+        changed();
+        if (listener != null) {
+            listener.cleared();
+        }
+    }
+
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    // Turning shuffle on deals a fresh random order; turning it off returns to the arranged one
+    public synchronized void setShuffled(boolean enabled) {
+        if (enabled == shuffled) {
+            return;
+        }
+        shuffled = enabled;
+        head[SHUFFLED] = null;
+        tail[SHUFFLED] = null;
+        if (enabled) {
+            Node[] order = slots.toArray(new Node[0]);
+            for (int i = order.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                Node swap = order[i];
+                order[i] = order[j];
+                order[j] = swap;
+            }
+            for (Node node : order) {
+                linkAfter(SHUFFLED, node, tail[SHUFFLED]);
+            }
+        }
+        changed();
+        if (listener != null) {
+            listener.shuffled(enabled ? snapshot().entries() : null);
+        }
+    }
+
+    // Turns shuffle on with a recorded order; entries it does not mention go last
+    synchronized void restoreShuffle(long[] order) {
+        shuffled = true;
+        head[SHUFFLED] = null;
+        tail[SHUFFLED] = null;
+        Set<Node> linked = new HashSet<>();
+        for (long handle : order) {
+            Node node = nodes.get(handle);
+            if (node != null && linked.add(node)) {
+                linkAfter(SHUFFLED, node, tail[SHUFFLED]);
+            }
+        }
+        for (Node node : slots) {
+            if (!linked.contains(node)) {
+                linkAfter(SHUFFLED, node, tail[SHUFFLED]);
+            }
+        }
+        changed();
+    }
+
+    public synchronized boolean isShuffled() {
+        return shuffled;
+    }
+
+    public synchronized Snapshot snapshot() {
+        if (stale) {
+            Entry[] entries = new Entry[nodes.size()];
+            int i = 0;
+            for (Node node = head[active()]; node != null; node = node.next[active()]) {
+                entries[i++] = node.entry;
+            }
+            snapshot = new Snapshot(Collections.unmodifiableList(Arrays.asList(entries)), shuffled);
+            stale = false;
+        }
+        return snapshot;
+    }
+
+    // In the order they were added or arranged, even while shuffled
+    synchronized List<Entry> arranged() {
+        List<Entry> entries = new ArrayList<>(nodes.size());
+        for (Node node = head[ARRANGED]; node != null; node = node.next[ARRANGED]) {
+            entries.add(node.entry);
+        }
+        return entries;
+    }
+
+    // Oldest entries drop out once the ring is full
+    public synchronized void pushHistory(String url) {
+        Entry entry = new Entry(nextHandle++, url, null, 0, System.currentTimeMillis());
+        restoreHistory(entry);
+        if (listener != null) {
+            listener.historyPushed(entry);
+        }
+    }
+
+    synchronized void restoreHistory(Entry entry) {
+        nextHandle = Math.max(nextHandle, entry.handle() + 1);
+        if (historySize == history.length) {
+            history[historyStart] = entry;
+            historyStart = (historyStart + 1) % history.length;
+        } else {
+            history[(historyStart + historySize++) % history.length] = entry;
+        }
+    }
+
+    // The most recently finished track, taken off the history; null when there is none
+    public synchronized Entry popHistory() {
+        if (historySize == 0) {
+            return null;
+        }
+        int last = (historyStart + --historySize) % history.length;
+        Entry entry = history[last];
+        history[last] = null;
+        if (listener != null) {
+            listener.historyPopped();
+        }
+        return entry;
+    }
+
+    // Newest first
+    public synchronized List<Entry> history() {
+        List<Entry> entries = new ArrayList<>(historySize);
+        for (int i = historySize - 1; i >= 0; i--) {
+            entries.add(history[(historyStart + i) % history.length]);
+        }
+        return entries;
+    }
+
+    private int active() {
+        return shuffled ? SHUFFLED : ARRANGED;
+    }
+
+    private void changed() {
+        stale = true;
+    }
+
+    private void detach(Node node) {
+        unlink(ARRANGED, node);
+        if (shuffled) {
+            unlink(SHUFFLED, node);
+        }
+        // Swap the last node into the freed slot
+        Node last = slots.remove(slots.size() - 1);
+        if (last != node) {
+            last.slot = node.slot;
+            slots.set(node.slot, last);
+        }
+    }
+
+    // Inserts node after the given one, or at the front when after is null
+    private void linkAfter(int order, Node node, Node after) {
+        Node before = after != null ? after.next[order] : head[order];
+        node.prev[order] = after;
+        node.next[order] = before;
+        if (after != null) {
+            after.next[order] = node;
+        } else {
+            head[order] = node;
+        }
+        if (before != null) {
+            before.prev[order] = node;
+        } else {
+            tail[order] = node;
+        }
+    }
+
+    private void unlink(int order, Node node) {
+        Node before = node.prev[order];
+        Node after = node.next[order];
+        if (before != null) {
+            before.next[order] = after;
+        } else {
+            head[order] = after;
+        }
+        if (after != null) {
+            after.prev[order] = before;
+        } else {
+            tail[order] = before;
+        }
+        node.prev[order] = null;
+        node.next[order] = null;
+    }
+}
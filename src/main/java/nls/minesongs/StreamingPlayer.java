@@ -0,0 +1,300 @@
+package nls.minesongs;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+
+// One track as a voice of the AudioMixer. The mixer pulls fixed-size chunks of decoded audio from it,
+// so memory use stays the same no matter how long the track is. Looping and seeking happen here, in
+// track time; the output line belongs to the mixer.
+public class StreamingPlayer {
+    // Opens a fresh decoded stream for the track; called again every time the track loops
+    public interface StreamSource {
+        AudioInputStream open() throws Exception;
+
+        // A stream already at the given frame, for sources that can get there without decoding
+        // everything before it; null to fall back to skipping through open(). Never called on the mixer
+        // thread, so it may build what it needs first, such as a seek index.
+        default AudioInputStream openAt(long frame) throws Exception {
+            return null;
+        }
+    }
+
+    // The track reopened at a position, ready for the mixer to switch to between two chunks
+    public record SeekPoint(AudioInputStream stream, long frame) {
+        void discard() {
+            closeQuietly(stream);
+        }
+    }
+
+    private final String track;
+    private final StreamSource source;
+    private final BooleanSupplier looping;
+    private final long durationHintMillis;
+
+    // Only touched by the mixer thread once attached
+    private AudioInputStream stream;
+    private AudioFormat format;
+    private int frameSize = 1;
+    private volatile long totalFrames = AudioSystem.NOT_SPECIFIED;
+    private boolean attached = false;
+    private Runnable firstAudioListener;
+
+    private volatile boolean stopped = false;
+    private final AtomicReference<SeekPoint> pendingSeek = new AtomicReference<>();
+    // Frames handed to the mixer, counted from the start of the track
+    private volatile long framePosition = 0;
+    // Loudness normalization for this track, applied before it is mixed with the next one
+    private volatile float gain = 1.0f;
+
+    // durationHintMillis (0 if unknown) stands in for the length of streams that do not report one,
+    // so the mixer knows when to start a crossfade
+    public StreamingPlayer(String track, StreamSource source, BooleanSupplier looping, long durationHintMillis) {
+        this.track = track;
+        this.source = source;
+        this.looping = looping;
+        this.durationHintMillis = durationHintMillis;
+    }
+
+    public String getTrack() {
+        return track;
+    }
+
+    // Runs on the mixer thread right after the first chunk has been read
+    public void setFirstAudioListener(Runnable listener) {
+        this.firstAudioListener = listener;
+    }
+
+    public void setGainDb(double db) {
+        gain = (float) Math.pow(10, db / 20);
+    }
+
+    // Opens the stream on the calling thread so decoder and format problems surface to the caller
+    public void start() throws Exception {
+        AudioInputStream opened = source.open();
+        AudioFormat openedFormat = opened.getFormat();
+        if (!openedFormat.matches(AudioMixer.FORMAT)) {
+            opened.close();
+            throw new LineUnavailableException("Track format " + openedFormat + " does not match the mixer");
+        }
+        stream = opened;
+        format = openedFormat;
+        frameSize = Math.max(1, format.getFrameSize());
+        if (opened.getFrameLength() != AudioSystem.NOT_SPECIFIED) {
+            totalFrames = opened.getFrameLength();
+        } else if (durationHintMillis > 0) {
+            totalFrames = (long) (durationHintMillis * format.getFrameRate() / 1000);
+        }
+    }
+
+    // Called by the mixer when it takes the voice; false if it was stopped first
+    synchronized boolean attach() {
+        if (stopped || stream == null) {
+            return false;
+        }
+        attached = true;
+        return true;
+    }
+
+    // Mixer thread: fills the buffer with whole frames, or returns -1 once the track is over or stopped
+    int read(byte[] buffer, int offset, int length) throws IOException {
+        if (stopped) {
+            return -1;
+        }
+
+        SeekPoint seek = pendingSeek.getAndSet(null);
+        if (seek != null) {
+            stream.close();
+            stream = seek.stream();
+            framePosition = seek.frame();
+        }
+
+        int read = readFrames(stream, buffer, offset, length);
+        if (read <= 0 && looping.getAsBoolean() && !stopped) {
+            stream.close();
+            AudioInputStream next = reopen();
+            if (next != null) {
+                stream = next;
+                framePosition = 0;
+                Minesongs.LOGGER.info("Looping current song");
+                read = readFrames(stream, buffer, offset, length);
+            }
+        }
+        if (read <= 0 || stopped) {
+            return -1;
+        }
+
+        framePosition += read / frameSize;
+        float trackGain = gain;
+        if (trackGain != 1.0f) {
+            DspChain.scale(buffer, offset, read, trackGain);
+        }
+        if (firstAudioListener != null) {
+            Runnable listener = firstAudioListener;
+            firstAudioListener = null;
+            listener.run();
+        }
+        return read;
+    }
+
+    // Frames left before the end of the track, or -1 when unknown or looping
+    long framesRemaining() {
+        if (totalFrames == AudioSystem.NOT_SPECIFIED || looping.getAsBoolean()) {
+            return -1;
+        }
+        return Math.max(0, totalFrames - framePosition);
+    }
+
+    private AudioInputStream reopen() {
+        try {
+            AudioInputStream next = source.open();
+            if (next.getFormat().matches(format)) {
+                return next;
+            }
+            next.close();
+            Minesongs.LOGGER.warn("Track format changed on reopen, cannot loop");
+        } catch (Exception e) {
+            Minesongs.LOGGER.warn("Failed to reopen track: {}", e.getMessage());
+        }
+        return null;
+    }
+
+    // Through the source's seek index when it has one; otherwise reopen and skip forward, which
+    // decodes everything before the target
+    private AudioInputStream openAt(long frame) {
+        try {
+            AudioInputStream positioned = source.openAt(frame);
+            if (positioned != null) {
+                if (positioned.getFormat().matches(format)) {
+                    return positioned;
+                }
+                closeQuietly(positioned);
+            }
+        } catch (Exception e) {
+            Minesongs.LOGGER.warn("Indexed seek failed, skipping from the start: {}", e.getMessage());
+        }
+
+        AudioInputStream next = reopen();
+        if (next == null) {
+            return null;
+        }
+        try {
+            long remaining = frame * frameSize;
+            while (remaining > 0) {
+                long skipped = next.skip(remaining);
+                if (skipped <= 0) {
+                    break;
+                }
+                remaining -= skipped;
+            }
+            return next;
+        } catch (IOException e) {
+            Minesongs.LOGGER.warn("Seek failed: {}", e.getMessage());
+            closeQuietly(next);
+            return null;
+        }
+    }
+
+    // Fills the buffer as far as the stream allows, trimmed to whole frames
+    private int readFrames(AudioInputStream in, byte[] buffer, int offset, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int read = in.read(buffer, offset + total, length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total - (total % frameSize);
+    }
+
+    // Safe from any thread; a voice the mixer is using is closed by the mixer thread
+    public void stop() {
+        synchronized (this) {
+            stopped = true;
+            if (attached) {
+                return;
+            }
+        }
+        release();
+    }
+
+    // Mixer thread, or the owner of a voice that was never attached
+    void release() {
+        AudioInputStream current = stream;
+        if (current != null) {
+            closeQuietly(current);
+        }
+        SeekPoint seek = pendingSeek.getAndSet(null);
+        if (seek != null) {
+            seek.discard();
+        }
+    }
+
+    private static void closeQuietly(AudioInputStream in) {
+        try {
+            in.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    public boolean isOpen() {
+        return !stopped && stream != null;
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    // Worker thread: opens the track at a position, which can mean building its seek index or decoding
+    // everything before the position, so neither the engine nor the mixer waits for it. Null if the track
+    // cannot be reopened; hand the result to seek() or discard it.
+    public SeekPoint prepareSeek(long positionMillis) {
+        AudioFormat current = format;
+        if (current == null || stopped) {
+            return null;
+        }
+        long frame = Math.max(0, (long) (positionMillis * current.getFrameRate() / 1000));
+        AudioInputStream positioned = openAt(frame);
+        return positioned != null ? new SeekPoint(positioned, frame) : null;
+    }
+
+    // Applied by the mixer before it reads the next chunk; replaces a seek it has not applied yet
+    void seek(SeekPoint seek) {
+        SeekPoint replaced = pendingSeek.getAndSet(seek);
+        if (replaced != null) {
+            replaced.discard();
+        }
+        // Stopped meanwhile: release() may already have run, so nothing else would close it
+        if (stopped) {
+            SeekPoint left = pendingSeek.getAndSet(null);
+            if (left != null) {
+                left.discard();
+            }
+        }
+    }
+
+    // Length of the track, or 0 when unknown
+    public long getDurationMillis() {
+        AudioFormat current = format;
+        long total = totalFrames;
+        if (current == null || total == AudioSystem.NOT_SPECIFIED) {
+            return 0;
+        }
+        return (long) (total * 1000 / current.getFrameRate());
+    }
+
+    // Position of the audio read so far; the mixer subtracts what is still queued in the line
+    public long getPositionMillis() {
+        AudioFormat current = format;
+        if (current == null) {
+            return 0;
+        }
+        return (long) (framePosition * 1000 / current.getFrameRate());
+    }
+}
@@ -0,0 +1,344 @@
+package nls.minesongs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+
+// Title, artist, album and duration of a local file, read from its tags without decoding any audio:
+// ID3v2 (falling back to ID3v1) for MP3, Vorbis comments in FLAC and Ogg (Vorbis and Opus), and the
+// header of WAV and AIFF files. Only the start and end of a file are read, so large cover art is
+// never loaded. Anything unknown is left empty.
+public final class TagReader {
+    // What is read from the start of a file; text tags come well before this in practice
+    private static final int HEAD_BYTES = 256 * 1024;
+    private static final int TAIL_BYTES = 64 * 1024;
+    // How far past the tags the first MPEG frame is looked for
+    private static final int MPEG_SEARCH_BYTES = 16 * 1024;
+
+    public record Tags(String title, String artist, String album, long durationSeconds) {
+        public static final Tags EMPTY = new Tags("", "", "", 0);
+    }
+
+    private TagReader() {
+    }
+
+    public static Tags read(Path file) throws IOException {
+        try (SeekableByteChannel channel = Files.newByteChannel(file)) {
+            long size = channel.size();
+            ByteBuffer head = readAt(channel, 0, (int) Math.min(size, HEAD_BYTES));
+            int start = 0;
+            Fields fields = new Fields();
+            if (head.limit() >= 10 && is(head, 0, "ID3")) {
+                start = 10 + syncsafe(head, 6) + ((head.get(5) & 0x10) != 0 ? 10 : 0);
+                readId3v2(head, fields);
+            }
+            if (start + 4 <= head.limit() && is(head, start, "fLaC")) {
+                readFlac(head, start + 4, fields);
+            } else if (head.limit() >= 4 && is(head, 0, "OggS")) {
+                readOgg(channel, head, fields);
+            } else if (head.limit() >= 12 && (is(head, 0, "RIFF") || is(head, 0, "FORM"))) {
+                MappedPcm.Header header = MappedPcm.readHeader(file);
+                if (header != null) {
+                    fields.durationSeconds = (long) (header.frames() / header.format().getFrameRate());
+                }
+            } else {
+                // Possibly MPEG audio; ID3v1 sits in the last 128 bytes
+                if (fields.title.isEmpty() && size >= 128) {
+                    readId3v1(readAt(channel, size - 128, 128), fields);
+                }
+                if (fields.durationSeconds == 0) {
+                    fields.durationSeconds = mpegDuration(channel, start, size);
+                }
+            }
+            return new Tags(fields.title, fields.artist, fields.album, fields.durationSeconds);
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            // Damaged or truncated tags: keep whatever the file name gives
+            return Tags.EMPTY;
+        }
+    }
+
+    private static final class Fields {
+        String title = "";
+        String artist = "";
+        String album = "";
+        long durationSeconds = 0;
+    }
+
+    private static ByteBuffer readAt(SeekableByteChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        channel.position(position);
+        while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+            // Keep reading
+        }
+        return buffer.flip();
+    }
+
+    private static void readId3v2(ByteBuffer head, Fields fields) {
+        int version = head.get(3);
+        int flags = head.get(5);
+        int end = Math.min(head.limit(), 10 + syncsafe(head, 6));
+        byte[] tag = new byte[end - 10];
+        head.get(10, tag);
+        if ((flags & 0x80) != 0 && version < 4) {
+            tag = resync(tag);
+        }
+        ByteBuffer frames = ByteBuffer.wrap(tag);
+        int position = 0;
+        if ((flags & 0x40) != 0 && version >= 3) {
+            // Extended header: its size excludes itself in 2.3 and includes itself in 2.4
+            position = version == 3 ? 4 + frames.getInt(0) : syncsafe(frames, 0);
+        }
+
+        int idLength = version == 2 ? 3 : 4;
+        int headerLength = version == 2 ? 6 : 10;
+        while (position + headerLength <= tag.length && tag[position] != 0) {
+            String id = new String(tag, position, idLength, StandardCharsets.ISO_8859_1);
+            int size = version == 2 ? (frames.getInt(position + 2) >>> 8)
+                    : version == 4 ? syncsafe(frames, position + 4) : frames.getInt(position + 4);
+            int body = position + headerLength;
+            if (size <= 0 || body + size > tag.length) {
+                break;
+            }
+            switch (id) {
+                case "TIT2", "TT2" -> fields.title = text(tag, body, size);
+                case "TPE1", "TP1" -> fields.artist = text(tag, body, size);
+                case "TALB", "TAL" -> fields.album = text(tag, body, size);
+                case "TLEN", "TLE" -> {
+                    try {
+                        fields.durationSeconds = Long.parseLong(text(tag, body, size)) / 1000;
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+                default -> {
+                }
+            }
+            position = body + size;
+        }
+    }
+
+    // Undoes unsynchronisation: every 0xFF 0x00 pair loses its zero
+    private static byte[] resync(byte[] tag) {
+        byte[] out = new byte[tag.length];
+        int length = 0;
+        for (int i = 0; i < tag.length; i++) {
+            out[length++] = tag[i];
+            if ((tag[i] & 0xFF) == 0xFF && i + 1 < tag.length && tag[i + 1] == 0) {
+                i++;
+            }
+        }
+        return Arrays.copyOf(out, length);
+    }
+
+    // A text frame: an encoding byte, then one or more null-separated values; the first one is kept
+    private static String text(byte[] tag, int offset, int size) {
+        if (size < 2) {
+            return "";
+        }
+        Charset charset = switch (tag[offset]) {
+            case 1 -> StandardCharsets.UTF_16;
+            case 2 -> StandardCharsets.UTF_16BE;
+            case 3 -> StandardCharsets.UTF_8;
+            default -> StandardCharsets.ISO_8859_1;
+        };
+        String value = new String(tag, offset + 1, size - 1, charset);
+        int nul = value.indexOf('\0');
+        return clean(nul >= 0 ? value.substring(0, nul) : value);
+    }
+
+    private static void readId3v1(ByteBuffer tail, Fields fields) {
+        if (tail.limit() < 128 || !is(tail, 0, "TAG")) {
+            return;
+        }
+        fields.title = latin1(tail, 3, 30);
+        fields.artist = latin1(tail, 33, 30);
+        fields.album = latin1(tail, 63, 30);
+    }
+
+    private static String latin1(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        String value = new String(bytes, StandardCharsets.ISO_8859_1);
+        int nul = value.indexOf('\0');
+        return clean(nul >= 0 ? value.substring(0, nul) : value);
+    }
+
+    // From the Xing/Info header of a VBR file, or estimated from the first frame's bitrate. Read
+    // separately, since a large ID3 tag can push the first frame past the head read above.
+    private static long mpegDuration(SeekableByteChannel channel, long start, long size) throws IOException {
+        if (start >= size) {
+            return 0;
+        }
+        ByteBuffer head = readAt(channel, start, (int) Math.min(size - start, MPEG_SEARCH_BYTES));
+        for (int position = 0; position + 4 <= head.limit(); position++) {
+            int[] frame = SeekIndex.parseMpegHeader(head.getInt(position));
+            if (frame == null) {
+                continue;
+            }
+            int rate = frame[0];
+            int samples = frame[1];
+            int header = head.getInt(position);
+            boolean mpeg1 = ((header >>> 19) & 3) == 3;
+            boolean mono = ((header >>> 6) & 3) == 3;
+            int xing = position + 4 + (mpeg1 ? (mono ? 17 : 32) : (mono ? 9 : 17));
+            if (xing + 12 <= head.limit() && (is(head, xing, "Xing") || is(head, xing, "Info"))
+                    && (head.getInt(xing + 4) & 1) != 0) {
+                return (head.getInt(xing + 8) & 0xFFFFFFFFL) * samples / rate;
+            }
+            // Constant bitrate: every frame is (about) this long
+            return Math.round((double) (size - start - position) / frame[2] * samples / rate);
+        }
+        return 0;
+    }
+
+    private static void readFlac(ByteBuffer head, int position, Fields fields) {
+        boolean last = false;
+        while (!last && position + 4 <= head.limit()) {
+            int blockHeader = head.getInt(position);
+            last = (blockHeader & 0x80000000) != 0;
+            int type = (blockHeader >>> 24) & 0x7F;
+            int length = blockHeader & 0xFFFFFF;
+            int body = position + 4;
+            if (type == 0 && body + 18 <= head.limit()) {
+                // STREAMINFO: 20 bits of sample rate, then channels, bits per sample and 36 bits of samples
+                long packed = head.getLong(body + 10);
+                int rate = (int) (packed >>> 44);
+                long total = packed & 0xFFFFFFFFFL;
+                if (rate > 0) {
+                    fields.durationSeconds = total / rate;
+                }
+            } else if (type == 4) {
+                readVorbisComments(head, body, Math.min(head.limit(), body + length), fields);
+            }
+            position = body + length;
+        }
+    }
+
+    // Vendor string, then KEY=value comments, all with little-endian lengths
+    private static void readVorbisComments(ByteBuffer data, int position, int end, Fields fields) {
+        ByteBuffer le = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (position + 4 > end) {
+            return;
+        }
+        position += 4 + le.getInt(position);
+        if (position + 4 > end) {
+            return;
+        }
+        int count = le.getInt(position);
+        position += 4;
+        for (int i = 0; i < count && position + 4 <= end; i++) {
+            int length = le.getInt(position);
+            position += 4;
+            if (length < 0 || position + length > end) {
+                return;
+            }
+            byte[] bytes = new byte[length];
+            le.get(position, bytes);
+            position += length;
+            String comment = new String(bytes, StandardCharsets.UTF_8);
+            int equals = comment.indexOf('=');
+            if (equals <= 0) {
+                continue;
+            }
+            String value = clean(comment.substring(equals + 1));
+            switch (comment.substring(0, equals).toUpperCase(Locale.ROOT)) {
+                case "TITLE" -> fields.title = fields.title.isEmpty() ? value : fields.title;
+                case "ARTIST" -> fields.artist = fields.artist.isEmpty() ? value : fields.artist;
+                case "ALBUM" -> fields.album = fields.album.isEmpty() ? value : fields.album;
+                default -> {
+                }
+            }
+        }
+    }
+
+    // The first packets (identification, then comments) are put back together from the pages at the
+    // start; the length comes from the granule position of the last page
+    private static void readOgg(SeekableByteChannel channel, ByteBuffer head, Fields fields) throws IOException {
+        ByteBuffer packets = ByteBuffer.allocate(head.limit());
+        int[] packetEnds = new int[2];
+        int complete = 0;
+        int position = 0;
+        while (complete < 2 && position + 27 <= head.limit() && is(head, position, "OggS")) {
+            int segments = head.get(position + 26) & 0xFF;
+            int data = position + 27 + segments;
+            for (int i = 0; i < segments && complete < 2; i++) {
+                int lacing = head.get(position + 27 + i) & 0xFF;
+                if (data + lacing > head.limit()) {
+                    break;
+                }
+                packets.put(packets.position(), head, data, lacing);
+                packets.position(packets.position() + lacing);
+                data += lacing;
+                if (lacing < 255) {
+                    packetEnds[complete++] = packets.position();
+                }
+            }
+            position = data;
+        }
+        if (complete == 0) {
+            return;
+        }
+        // The comment packet may be cut off by the read limit; whatever fits is used
+        int commentEnd = complete == 2 ? packetEnds[1] : packets.position();
+
+        ByteBuffer le = packets.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        double rate;
+        long preSkip = 0;
+        if (is(packets, 0, "\u0001vor")) {
+            rate = le.getInt(12);
+            if (is(packets, packetEnds[0], "\u0003vor")) {
+                readVorbisComments(packets, packetEnds[0] + 7, commentEnd, fields);
+            }
+        } else if (is(packets, 0, "Opus")) {
+            // Opus granule positions always count 48 kHz samples
+            rate = 48000;
+            preSkip = le.getShort(10) & 0xFFFF;
+            if (packetEnds[0] + 8 <= commentEnd && is(packets, packetEnds[0], "Opus")) {
+                readVorbisComments(packets, packetEnds[0] + 8, commentEnd, fields);
+            }
+        } else {
+            return;
+        }
+
+        long size = channel.size();
+        ByteBuffer tail = readAt(channel, Math.max(0, size - TAIL_BYTES), (int) Math.min(size, TAIL_BYTES))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        for (int at = tail.limit() - 27; at >= 0; at--) {
+            if (is(tail, at, "OggS")) {
+                long granule = tail.getLong(at + 6);
+                if (granule > 0 && rate > 0) {
+                    fields.durationSeconds = (long) ((granule - preSkip) / rate);
+                }
+                break;
+            }
+        }
+    }
+
+    private static int syncsafe(ByteBuffer buffer, int offset) {
+        return ((buffer.get(offset) & 0x7F) << 21) | ((buffer.get(offset + 1) & 0x7F) << 14)
+                | ((buffer.get(offset + 2) & 0x7F) << 7) | (buffer.get(offset + 3) & 0x7F);
+    }
+
+    private static boolean is(ByteBuffer buffer, int offset, String id) {
+        if (offset < 0 || offset + id.length() > buffer.limit()) {
+            return false;
+        }
+        for (int i = 0; i < id.length(); i++) {
+            if (buffer.get(offset + i) != (byte) id.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Tags end up in one-line TSV records
+    private static String clean(String value) {
+        return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ').trim();
+    }
+}
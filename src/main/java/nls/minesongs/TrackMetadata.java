@@ -0,0 +1,5 @@
+package nls.minesongs;
+
+// What yt-dlp reports about a song. durationSeconds is 0 and thumbnailUrl/format are empty when unknown.
+public record TrackMetadata(String key, String title, long durationSeconds, String thumbnailUrl, String format) {
+}
@@ -0,0 +1,119 @@
+package nls.minesongs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.junit.jupiter.api.Test;
+
+class DspChainTest {
+    private static final float RATE = 48000;
+    private static final AudioFormat MONO = new AudioFormat(RATE, 16, 1, true, false);
+
+    // A volume change glides to the new gain a little every frame instead of jumping
+    @Test
+    void gainRampsToTheNewVolume() {
+        DspChain dsp = new DspChain(MONO, 24000);
+        short[] samples = constant(24000, 16384);
+        dsp.setVolume(50);
+        samples = process(dsp, samples);
+        assertTrue(samples[0] > 16300, "first frame " + samples[0]);
+        for (int i = 1; i < samples.length; i++) {
+            int step = samples[i - 1] - samples[i];
+            assertTrue(step >= 0 && step <= 10, "step of " + step + " at frame " + i);
+        }
+        // Half on the slider is a quarter of the amplitude
+        assertEquals(4096, samples[samples.length - 1], 2);
+    }
+
+    @Test
+    void flatEqualizerAtFullVolumeLeavesTheSignal() {
+        DspChain dsp = new DspChain(MONO, 4800);
+        short[] in = sine(4800, 1000, 0.5);
+        dsp.setEqualizer(3, 0, 0);
+        process(dsp, in);
+        dsp.setEqualizer(0, 0, 0);
+        short[] out = process(dsp, in);
+        for (int i = 0; i < in.length; i++) {
+            assertEquals(in[i], out[i], 1);
+        }
+    }
+
+    // Each band boosts its own frequencies by its gain and leaves the others mostly alone
+    @Test
+    void biquadsBoostTheirBands() {
+        assertEquals(6, boostDb(1000, 0, 6, 0), 0.1);
+        assertTrue(Math.abs(boostDb(60, 0, 6, 0)) < 1);
+        assertEquals(-6, boostDb(1000, 0, -6, 0), 0.1);
+        assertEquals(6, boostDb(30, 6, 0, 0), 0.3);
+        assertTrue(Math.abs(boostDb(1000, 6, 0, 0)) < 0.5);
+        assertEquals(6, boostDb(18000, 0, 0, 6), 0.5);
+    }
+
+    // Nothing comes out above the limiter threshold, and the gain recovers once the peaks are gone
+    @Test
+    void limiterCatchesPeaksAndReleases() {
+        DspChain dsp = new DspChain(MONO, 48000);
+        dsp.setEqualizer(0, 0, 12);
+        short[] loud = process(dsp, sine(48000, 5000, 0.9));
+        int peak = 0;
+        for (short sample : loud) {
+            peak = Math.max(peak, Math.abs(sample));
+        }
+        // The boost alone would clip, so the limiter is what holds the peak at its threshold
+        assertTrue(peak <= 0.977 * 32767 + 1 && peak > 0.96 * 32767, "peak " + peak);
+        dsp.setEqualizer(0, 0, 0);
+        process(dsp, sine(48000, 1000, 0.1));
+        assertEquals(rms(sine(48000, 1000, 0.1)), rms(process(dsp, sine(48000, 1000, 0.1))), 0.001);
+    }
+
+    // Steady-state gain of a sine through the EQ, in dB
+    private static double boostDb(double frequency, float low, float mid, float high) {
+        DspChain dsp = new DspChain(MONO, 48000);
+        dsp.setVolume(100);
+        dsp.setEqualizer(low, mid, high);
+        short[] in = sine(48000, frequency, 0.1);
+        process(dsp, in);
+        return 20 * Math.log10(rms(process(dsp, in)) / rms(in));
+    }
+
+    private static short[] constant(int frames, int value) {
+        short[] samples = new short[frames];
+        Arrays.fill(samples, (short) value);
+        return samples;
+    }
+
+    // A whole number of cycles, so it continues seamlessly when processed again
+    private static short[] sine(int frames, double frequency, double amplitude) {
+        short[] samples = new short[frames];
+        for (int i = 0; i < frames; i++) {
+            samples[i] = (short) Math.round(amplitude * 32767 * Math.sin(2 * Math.PI * frequency * i / RATE));
+        }
+        return samples;
+    }
+
+    private static short[] process(DspChain dsp, short[] samples) {
+        byte[] pcm = new byte[samples.length * 2];
+        for (int i = 0; i < samples.length; i++) {
+            pcm[2 * i] = (byte) samples[i];
+            pcm[2 * i + 1] = (byte) (samples[i] >> 8);
+        }
+        dsp.process(pcm, pcm.length);
+        short[] out = new short[samples.length];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = (short) ((pcm[2 * i] & 0xFF) | (pcm[2 * i + 1] << 8));
+        }
+        return out;
+    }
+
+    private static double rms(short[] samples) {
+        double sum = 0;
+        for (short sample : samples) {
+            sum += (sample / 32768.0) * (sample / 32768.0);
+        }
+        return Math.sqrt(sum / samples.length);
+    }
+}
@@ -0,0 +1,88 @@
+package nls.minesongs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.junit.jupiter.api.Test;
+
+class LoudnessAnalyzerTest {
+    private static final float RATE = 48000;
+
+    // The BS.1770 calibration: a 997 Hz sine at -20 dBFS measures -23 LUFS in one channel. Channels
+    // are summed unweighted, so the same tone in both channels of a stereo file is 3 dB louder.
+    @Test
+    void referenceToneMeasuresMinus23() throws IOException {
+        LoudnessAnalyzer.Result mono = analyze(tone(1, 10, 0.1), format(1, false));
+        assertEquals(-23, mono.integratedLufs(), 0.1);
+        assertEquals(-20, mono.peakDb(), 0.01);
+
+        LoudnessAnalyzer.Result stereo = analyze(tone(2, 10, 0.1), format(2, true));
+        assertEquals(-20, stereo.integratedLufs(), 0.1);
+    }
+
+    // Silence in a track is gated out instead of pulling the measurement down
+    @Test
+    void silenceIsGated() throws IOException {
+        byte[] tone = tone(1, 5, 0.1);
+        byte[] withGap = new byte[tone.length * 2];
+        System.arraycopy(tone, 0, withGap, 0, tone.length);
+        assertEquals(-23, analyze(withGap, format(1, false)).integratedLufs(), 0.2);
+
+        LoudnessAnalyzer.Result silence = analyze(new byte[(int) RATE * 4], format(1, false));
+        assertTrue(Double.isInfinite(silence.integratedLufs()));
+        assertEquals(0, silence.gainDb(-14), 0);
+    }
+
+    // Quiet tracks are turned up only as far as their peaks, and the boost limit, allow
+    @Test
+    void gainRespectsPeakAndBoostLimits() {
+        assertEquals(-9, new LoudnessAnalyzer.Result(-5, -0.5).gainDb(-14), 1e-9);
+        assertEquals(5, new LoudnessAnalyzer.Result(-19, -10).gainDb(-14), 1e-9);
+        assertEquals(9, new LoudnessAnalyzer.Result(-30, -10).gainDb(-14), 1e-9);
+        assertEquals(12, new LoudnessAnalyzer.Result(-40, -30).gainDb(-14), 1e-9);
+    }
+
+    @Test
+    void cancellationStopsTheAnalysis() throws IOException {
+        byte[] pcm = tone(1, 2, 0.1);
+        assertNull(LoudnessAnalyzer.analyze(new ByteArrayInputStream(pcm), format(1, false), () -> true));
+    }
+
+    @Test
+    void onlySixteenBitPcmIsAccepted() {
+        AudioFormat format = new AudioFormat(RATE, 24, 1, true, false);
+        assertThrows(IOException.class, () -> analyze(new byte[0], format));
+    }
+
+    private static LoudnessAnalyzer.Result analyze(byte[] pcm, AudioFormat format) throws IOException {
+        return LoudnessAnalyzer.analyze(new ByteArrayInputStream(pcm), format, () -> false);
+    }
+
+    private static AudioFormat format(int channels, boolean bigEndian) {
+        return new AudioFormat(RATE, 16, channels, true, bigEndian);
+    }
+
+    // 997 Hz keeps the tone from lining up with the sample rate. Stereo is written big-endian so both
+    // byte orders are read.
+    private static byte[] tone(int channels, int seconds, double amplitude) {
+        int frames = (int) RATE * seconds;
+        byte[] pcm = new byte[frames * channels * 2];
+        for (int frame = 0; frame < frames; frame++) {
+            int value = (int) Math.round(amplitude * 32768 * Math.sin(2 * Math.PI * 997 * frame / RATE));
+            for (int channel = 0; channel < channels; channel++) {
+                int i = (frame * channels + channel) * 2;
+                boolean bigEndian = channels == 2;
+                pcm[i] = (byte) (bigEndian ? value >> 8 : value);
+                pcm[i + 1] = (byte) (bigEndian ? value : value >> 8);
+            }
+        }
+        return pcm;
+    }
+}
@@ -0,0 +1,181 @@
+package nls.minesongs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+import org.junit.jupiter.api.Test;
+
+class PcmConverterTest {
+    private static final AudioFormat STEREO_44 = new AudioFormat(44100, 16, 2, true, false);
+
+    // Same rate and layout, so every sample maps straight across whatever its size and byte order
+    @Test
+    void sampleFormatsAndByteOrders() throws IOException {
+        int[] values = {0, 1, -1, 256, 12345, -12345, Short.MAX_VALUE, Short.MIN_VALUE};
+        for (AudioFormat source : new AudioFormat[]{
+                new AudioFormat(44100, 16, 2, true, true),
+                new AudioFormat(44100, 24, 2, true, false),
+                new AudioFormat(44100, 24, 2, true, true),
+                new AudioFormat(44100, 32, 2, true, true),
+                new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, 44100, 32, 2, 8, 44100, false),
+                new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, 44100, 32, 2, 8, 44100, true)}) {
+            short[] out = convert(encode(values, source), source, STEREO_44);
+            assertEquals(values.length, out.length, source.toString());
+            for (int i = 0; i < values.length; i++) {
+                assertEquals(values[i], out[i], 1, source + " sample " + i);
+            }
+        }
+    }
+
+    @Test
+    void unsignedEightBit() throws IOException {
+        AudioFormat source = new AudioFormat(44100, 8, 1, false, false);
+        short[] out = convert(new byte[]{(byte) 128, (byte) 255, 0}, source, STEREO_44);
+        // Mono goes to both sides
+        assertEquals(6, out.length);
+        assertEquals(0, out[0]);
+        assertEquals(out[0], out[1]);
+        assertEquals(127 << 8, out[2], 1);
+        assertEquals(out[2], out[3]);
+        assertEquals(Short.MIN_VALUE, out[4], 1);
+    }
+
+    @Test
+    void bigEndianOutput() throws IOException {
+        AudioFormat target = new AudioFormat(44100, 16, 1, true, true);
+        AudioFormat source = new AudioFormat(44100, 16, 1, true, false);
+        byte[] raw = readAll(new ByteArrayInputStream(new byte[]{0x34, 0x12}), source, target);
+        assertEquals(0x12, raw[0]);
+        assertEquals(0x34, raw[1]);
+    }
+
+    // Stereo folds to mono by averaging; 5.1 keeps the center on both sides and drops the LFE
+    @Test
+    void channelMatrix() throws IOException {
+        AudioFormat mono = new AudioFormat(44100, 16, 1, true, false);
+        short[] folded = convert(encode(new int[]{10000, 2000}, STEREO_44), STEREO_44, mono);
+        assertEquals(6000, folded[0], 1);
+
+        AudioFormat surround = new AudioFormat(44100, 16, 6, true, false);
+        short[] center = convert(encode(new int[]{0, 0, 10000, 0, 0, 0}, surround), surround, STEREO_44);
+        assertTrue(center[0] > 0 && center[0] == center[1], center[0] + " " + center[1]);
+        short[] lfe = convert(encode(new int[]{0, 0, 0, 10000, 0, 0}, surround), surround, STEREO_44);
+        assertEquals(0, lfe[0]);
+        assertEquals(0, lfe[1]);
+        short[] rearLeft = convert(encode(new int[]{0, 0, 0, 0, 10000, 0}, surround), surround, STEREO_44);
+        assertTrue(rearLeft[0] > 0, "left " + rearLeft[0]);
+        assertEquals(0, rearLeft[1]);
+    }
+
+    // Quad has no center, so each rear channel stays on its own side
+    @Test
+    void quadRearsKeepTheirSides() throws IOException {
+        AudioFormat quad = new AudioFormat(44100, 16, 4, true, false);
+        short[] rearLeft = convert(encode(new int[]{0, 0, 10000, 0}, quad), quad, STEREO_44);
+        assertTrue(rearLeft[0] > 0, "left " + rearLeft[0]);
+        assertEquals(0, rearLeft[1]);
+        short[] rearRight = convert(encode(new int[]{0, 0, 0, 10000}, quad), quad, STEREO_44);
+        assertEquals(0, rearRight[0]);
+        assertTrue(rearRight[1] > 0, "right " + rearRight[1]);
+    }
+
+    // A tone keeps its level and pitch through the resampler, and the output has the matching length
+    @Test
+    void resamplingKeepsTheTone() throws IOException {
+        AudioFormat source = new AudioFormat(48000, 16, 1, true, false);
+        AudioFormat target = new AudioFormat(44100, 16, 1, true, false);
+        short[] out = convert(encode(sine(48000, 48000, 1000, 0.5), source), source, target);
+        assertEquals(44100, out.length, 1);
+        // Away from the edges, where the filter runs into the silence around the input
+        short[] middle = Arrays.copyOfRange(out, 4410, 39690);
+        assertEquals(0.5 / Math.sqrt(2), rms(middle), 0.005);
+        int crossings = 0;
+        for (int i = 1; i < middle.length; i++) {
+            if ((middle[i - 1] < 0) != (middle[i] < 0)) {
+                crossings++;
+            }
+        }
+        assertEquals(2 * 1000 * middle.length / 44100.0, crossings, 4);
+    }
+
+    // Content above the new Nyquist frequency is filtered out rather than folded back down
+    @Test
+    void downsamplingDoesNotAlias() throws IOException {
+        AudioFormat source = new AudioFormat(48000, 16, 1, true, false);
+        AudioFormat target = new AudioFormat(22050, 16, 1, true, false);
+        short[] out = convert(encode(sine(48000, 48000, 15000, 0.5), source), source, target);
+        short[] middle = Arrays.copyOfRange(out, 2205, out.length - 2205);
+        assertTrue(20 * Math.log10(rms(middle) / (0.5 / Math.sqrt(2))) < -60, "level " + rms(middle));
+    }
+
+    @Test
+    void unsupportedFormatsAreRejected() {
+        AudioFormat ulaw = new AudioFormat(AudioFormat.Encoding.ULAW, 8000, 8, 1, 1, 8000, false);
+        AudioInputStream stream = new AudioInputStream(new ByteArrayInputStream(new byte[0]), ulaw, 0);
+        assertThrows(IllegalArgumentException.class, () -> PcmConverter.convert(stream, STEREO_44));
+    }
+
+    private static int[] sine(int frames, float rate, double frequency, double amplitude) {
+        int[] values = new int[frames];
+        for (int i = 0; i < frames; i++) {
+            values[i] = (int) Math.round(amplitude * 32767 * Math.sin(2 * Math.PI * frequency * i / rate));
+        }
+        return values;
+    }
+
+    // 16-bit values written in the source format, scaled up to its sample size
+    private static byte[] encode(int[] values, AudioFormat format) {
+        int bytes = format.getSampleSizeInBits() / 8;
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * bytes)
+                .order(format.isBigEndian() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        for (int value : values) {
+            if (format.getEncoding().equals(AudioFormat.Encoding.PCM_FLOAT)) {
+                buffer.putFloat(value / 32768f);
+            } else if (bytes == 2) {
+                buffer.putShort((short) value);
+            } else if (bytes == 4) {
+                buffer.putInt(value << 16);
+            } else {
+                int wide = value << 8;
+                byte[] sample = format.isBigEndian()
+                        ? new byte[]{(byte) (wide >> 16), (byte) (wide >> 8), (byte) wide}
+                        : new byte[]{(byte) wide, (byte) (wide >> 8), (byte) (wide >> 16)};
+                buffer.put(sample);
+            }
+        }
+        return buffer.array();
+    }
+
+    private static short[] convert(byte[] pcm, AudioFormat source, AudioFormat target) throws IOException {
+        ByteBuffer raw = ByteBuffer.wrap(readAll(new ByteArrayInputStream(pcm), source, target))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        short[] samples = new short[raw.remaining() / 2];
+        raw.asShortBuffer().get(samples);
+        return samples;
+    }
+
+    private static byte[] readAll(ByteArrayInputStream in, AudioFormat source, AudioFormat target) throws IOException {
+        AudioInputStream stream = new AudioInputStream(in, source, in.available() / source.getFrameSize());
+        try (AudioInputStream converted = PcmConverter.convert(stream, target)) {
+            return converted.readAllBytes();
+        }
+    }
+
+    private static double rms(short[] samples) {
+        double sum = 0;
+        for (short sample : samples) {
+            sum += (sample / 32767.0) * (sample / 32767.0);
+        }
+        return Math.sqrt(sum / samples.length);
+    }
+}
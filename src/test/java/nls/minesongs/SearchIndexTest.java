@@ -0,0 +1,115 @@
+package nls.minesongs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class SearchIndexTest {
+    private static final String[] WORDS = ("love night heart dream fire rain blue summer dance light moon star "
+            + "road home time wild gold river shadow ocean").split(" ");
+    private static final String[] QUERIES = {"l", "lo", "ove", "ight", "night", "river g", "s", "dream1", "ocean",
+            "e", "a b", "zz"};
+
+    // Songs added, retitled and removed at random; every query must find exactly what a scan over the
+    // surviving songs finds
+    @Test
+    void churnMatchesAScan() {
+        Random random = new Random(5);
+        SearchIndex index = new SearchIndex();
+        Map<String, String> titles = new HashMap<>();
+        for (int step = 0; step < 60000; step++) {
+            String key = "k" + random.nextInt(3000);
+            if (random.nextInt(3) == 0) {
+                index.remove(key, SearchIndex.CACHE);
+                titles.remove(key);
+            } else {
+                String title = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)]
+                        + Integer.toString(random.nextInt(5000), 36);
+                if (titles.containsKey(key)) {
+                    index.describe(key, title, 1);
+                } else {
+                    index.add(key, "u" + key, title, "", "", 1, SearchIndex.CACHE);
+                }
+                titles.put(key, title);
+            }
+            if (step % 10000 == 9999) {
+                assertEquals(titles.size(), index.size());
+                for (String query : QUERIES) {
+                    assertEquals(scan(titles, query), found(index, query), query);
+                }
+            }
+        }
+    }
+
+    // Prefix matches come before matches inside a word
+    @Test
+    void wordStartsRankFirst() {
+        SearchIndex index = new SearchIndex();
+        index.add("a", "a", "Glove Story", "", "", 0, SearchIndex.CACHE);
+        index.add("b", "b", "Love Story", "", "", 0, SearchIndex.CACHE);
+        List<SearchIndex.Hit> hits = index.search("love", 10);
+        assertEquals(2, hits.size());
+        assertEquals("b", hits.get(0).url());
+    }
+
+    @Test
+    void accentsAndCaseAreIgnored() {
+        SearchIndex index = new SearchIndex();
+        index.add("a", "a", "Café Del Mar", "Beyoncé", "", 0, SearchIndex.LIBRARY);
+        assertEquals(1, index.search("cafe", 10).size());
+        assertEquals(1, index.search("BEYONCE", 10).size());
+    }
+
+    // The version only moves when the results could change
+    @Test
+    void versionFollowsThePostings() {
+        SearchIndex index = new SearchIndex();
+        index.add("a", "a", "Love Story", "Artist", "", 0, SearchIndex.HISTORY);
+        int version = index.version();
+        index.add("a", "a", "Love Story", "Artist", "", 0, SearchIndex.HISTORY);
+        index.add("a", "a", "", "", "", 0, SearchIndex.CACHE);
+        index.remove("a", SearchIndex.CACHE);
+        assertEquals(version, index.version());
+        index.add("a", "a", "Love Story (Remastered)", "Artist", "", 0, SearchIndex.LIBRARY);
+        assertTrue(index.version() > version);
+        version = index.version();
+        index.remove("a", SearchIndex.HISTORY);
+        assertEquals(version, index.version());
+        index.remove("a", SearchIndex.LIBRARY);
+        assertTrue(index.version() > version);
+        assertEquals(0, index.size());
+    }
+
+    private static Set<String> found(SearchIndex index, String query) {
+        Set<String> urls = new HashSet<>();
+        for (SearchIndex.Hit hit : index.search(query, 100_000)) {
+            urls.add(hit.url());
+        }
+        return urls;
+    }
+
+    // Every query word must start a word of the song, or for three letters and more, be inside one
+    private static Set<String> scan(Map<String, String> titles, String query) {
+        Set<String> urls = new HashSet<>();
+        for (Map.Entry<String, String> song : titles.entrySet()) {
+            String url = "u" + song.getKey();
+            String text = " " + SearchIndex.normalize(song.getValue() + " " + url);
+            boolean all = true;
+            for (String token : SearchIndex.normalize(query).split(" ")) {
+                all &= token.length() < 3 ? text.contains(" " + token) : text.contains(token);
+            }
+            if (all) {
+                urls.add(url);
+            }
+        }
+        return urls;
+    }
+}
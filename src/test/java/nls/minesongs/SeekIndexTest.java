@@ -0,0 +1,145 @@
+package nls.minesongs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SeekIndexTest {
+    // MPEG-1 layer III, 128 kbit/s, 44.1 kHz, stereo: 417 bytes and 1152 samples per frame
+    private static final int FRAME_HEADER = 0xFFFB9000;
+    private static final int FRAME_BYTES = 417;
+    private static final int FRAME_SAMPLES = 1152;
+    private static final int ID3_BYTES = 30;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void mpegHeaderIsParsed() {
+        int[] frame = SeekIndex.parseMpegHeader(FRAME_HEADER);
+        assertNotNull(frame);
+        assertEquals(44100, frame[0]);
+        assertEquals(FRAME_SAMPLES, frame[1]);
+        assertEquals(FRAME_BYTES, frame[2]);
+    }
+
+    // A point about every second, at the header of the frame it names, counted from after the ID3 tag
+    @Test
+    void mpegFramesAreWalked() throws IOException {
+        Path file = dir.resolve("song.mp3");
+        Files.write(file, mpeg(400, new byte[0]));
+        SeekIndex index = SeekIndex.build(file);
+        assertEquals(SeekIndex.Kind.MPEG, index.kind());
+        assertEquals(44100, index.sampleRate(), 0);
+        assertEquals(0, index.frameAt(0));
+        assertEquals(ID3_BYTES, index.offsetAt(0));
+        // 39 frames is the first whole frame past one second
+        assertEquals(39 * FRAME_SAMPLES, index.frameAt(1));
+        assertEquals(ID3_BYTES + 39 * FRAME_BYTES, index.offsetAt(1));
+        assertEquals(1 + (400 - 1) / 39, index.points());
+        assertEquals(2, index.pointFor(100_000));
+        assertEquals(0, index.pointFor(44_100));
+    }
+
+    // The Xing frame most encoders start with holds no audio, so sample 0 is in the frame after it
+    @Test
+    void xingFrameIsSkipped() throws IOException {
+        byte[] xing = new byte[36];
+        // After the 32 bytes of side information of a stereo MPEG-1 frame
+        xing[32] = 'X';
+        xing[33] = 'i';
+        xing[34] = 'n';
+        xing[35] = 'g';
+        Path file = dir.resolve("xing.mp3");
+        Files.write(file, mpeg(400, xing));
+        SeekIndex index = SeekIndex.build(file);
+        assertEquals(0, index.frameAt(0));
+        assertEquals(ID3_BYTES + FRAME_BYTES, index.offsetAt(0));
+        assertEquals(39 * FRAME_SAMPLES, index.frameAt(1));
+        assertEquals(ID3_BYTES + 40 * FRAME_BYTES, index.offsetAt(1));
+    }
+
+    // Bytes that aren't a frame header are stepped over one at a time until the frames line up again
+    @Test
+    void walkResyncsAfterGarbage() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(mpeg(39, new byte[0]));
+        out.write(new byte[]{1, 2, 3, 4, 5});
+        out.write(frames(39));
+        Path file = dir.resolve("garbage.mp3");
+        Files.write(file, out.toByteArray());
+        SeekIndex index = SeekIndex.build(file);
+        assertEquals(2, index.points());
+        assertEquals(39 * FRAME_SAMPLES, index.frameAt(1));
+        assertEquals(ID3_BYTES + 39 * FRAME_BYTES + 5, index.offsetAt(1));
+    }
+
+    // WAV needs a single point: the start of its sample data
+    @Test
+    void pcmOffsetsFollowTheDataChunk() throws IOException {
+        AudioFormat format = new AudioFormat(44100, 16, 2, true, false);
+        Path file = dir.resolve("song.wav");
+        byte[] pcm = new byte[44100 * 4];
+        AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(pcm), format, 44100),
+                AudioFileFormat.Type.WAVE, file.toFile());
+        SeekIndex index = SeekIndex.build(file);
+        assertEquals(SeekIndex.Kind.PCM, index.kind());
+        long dataStart = Files.size(file) - pcm.length;
+        assertEquals(dataStart, index.offsetAt(0));
+        assertEquals(dataStart + 1000 * 4, index.pcmOffset(1000));
+    }
+
+    @Test
+    void indexSurvivesTheSidecarFile() throws IOException {
+        Path file = dir.resolve("song.mp3");
+        Files.write(file, mpeg(200, new byte[0]));
+        SeekIndex index = SeekIndex.build(file);
+        Path sidecar = dir.resolve("song.mp3.seek");
+        index.write(sidecar);
+        SeekIndex read = SeekIndex.read(sidecar);
+        assertNotNull(read);
+        assertEquals(index.kind(), read.kind());
+        assertEquals(index.points(), read.points());
+        for (int point = 0; point < index.points(); point++) {
+            assertEquals(index.frameAt(point), read.frameAt(point));
+            assertEquals(index.offsetAt(point), read.offsetAt(point));
+        }
+    }
+
+    // An ID3v2 tag followed by frames; first is the payload of the first frame after its header
+    private static byte[] mpeg(int count, byte[] first) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{'I', 'D', '3', 3, 0, 0, 0, 0, 0, ID3_BYTES - 10});
+        out.write(new byte[ID3_BYTES - 10]);
+        byte[] frames = frames(count);
+        System.arraycopy(first, 0, frames, 4, first.length);
+        out.write(frames);
+        return out.toByteArray();
+    }
+
+    // Frames with silent payloads, which never contain a sync word
+    private static byte[] frames(int count) {
+        byte[] frames = new byte[count * FRAME_BYTES];
+        for (int i = 0; i < count; i++) {
+            int at = i * FRAME_BYTES;
+            frames[at] = (byte) (FRAME_HEADER >>> 24);
+            frames[at + 1] = (byte) (FRAME_HEADER >>> 16);
+            frames[at + 2] = (byte) (FRAME_HEADER >>> 8);
+            frames[at + 3] = (byte) FRAME_HEADER;
+        }
+        return frames;
+    }
+}
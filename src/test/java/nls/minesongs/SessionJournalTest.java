@@ -0,0 +1,193 @@
+package nls.minesongs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SessionJournalTest {
+    @TempDir
+    Path dir;
+
+    // What the manager would publish; the journal reads it back when it compacts
+    private PlaybackState state = PlaybackState.INITIAL;
+    private long position;
+
+    // Random edits of a live queue, replayed from the journal into a fresh one. Long enough to compact
+    // several times along the way.
+    @Test
+    void replayMatchesTheLiveQueue() {
+        Path file = dir.resolve("session.journal");
+        Random random = new Random(3);
+        SongQueue queue = new SongQueue(20);
+        SessionJournal journal = attach(file, queue);
+        for (int step = 0; step < 5000; step++) {
+            edit(random, queue, journal, step);
+            if (step % 500 == 499) {
+                journal.flush();
+                assertReplays(file, queue);
+            }
+        }
+        journal.flush();
+        assertReplays(file, queue);
+    }
+
+    // Starting again from a replayed journal keeps recording on top of it
+    @Test
+    void replayedSessionKeepsRecording() {
+        Path file = dir.resolve("session.journal");
+        Random random = new Random(4);
+        SongQueue queue = new SongQueue(20);
+        for (int run = 0; run < 5; run++) {
+            SongQueue restored = new SongQueue(20);
+            SessionJournal journal = new SessionJournal(file, Runnable::run);
+            journal.replay(restored, PlaybackState.INITIAL.volume());
+            assertEquals(queue.snapshot().entries(), restored.snapshot().entries());
+            queue = restored;
+            journal.attach(queue, () -> state, () -> position);
+            for (int step = 0; step < 300; step++) {
+                edit(random, queue, journal, run * 1000 + step);
+            }
+            journal.flush();
+        }
+        assertReplays(file, queue);
+    }
+
+    // A crash in the middle of a write leaves a torn last line, which replay skips
+    @Test
+    void tornLastLineIsIgnored() throws IOException {
+        Path file = dir.resolve("session.journal");
+        SongQueue queue = new SongQueue(20);
+        SessionJournal journal = attach(file, queue);
+        queue.add("song1", "Song 1", 100);
+        queue.add("song2", "Song 2", 200);
+        journal.flush();
+        Files.writeString(file, "A\t9\t0\t-1\t0\t0\tso", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        assertReplays(file, queue);
+    }
+
+    // The song a restart resumes with keeps its place and position until it is played, however many
+    // times the game is restarted before that
+    @Test
+    void resumePointSurvivesRestarts() {
+        Path file = dir.resolve("session.journal");
+        SongQueue queue = new SongQueue(20);
+        SessionJournal journal = attach(file, queue);
+        queue.add("next", null, 0);
+        setTrack(journal, "interrupted");
+        position = 61_000;
+        journal.positionChanged(position);
+        journal.flush();
+
+        setTrack(null, "");
+        position = 0;
+        for (int restart = 0; restart < 3; restart++) {
+            SongQueue restored = new SongQueue(20);
+            SessionJournal next = new SessionJournal(file, Runnable::run);
+            SessionJournal.Session session = next.replay(restored, PlaybackState.INITIAL.volume());
+            SongQueue.Entry resume = session.resumeHandle() != 0 ? restored.get(session.resumeHandle()) : null;
+            if (!session.track().isEmpty()) {
+                resume = restored.addNext(session.track(), null, 0);
+            }
+            assertNotNull(resume);
+            assertEquals("interrupted", resume.url());
+            assertEquals(61_000, session.positionMillis());
+            assertEquals(2, restored.size());
+            next.resumeWith(resume.handle(), session.positionMillis());
+            next.attach(restored, () -> state, () -> position);
+            next.flush();
+        }
+    }
+
+    private SessionJournal attach(Path file, SongQueue queue) {
+        SessionJournal journal = new SessionJournal(file, Runnable::run);
+        journal.replay(queue, PlaybackState.INITIAL.volume());
+        journal.attach(queue, () -> state, () -> position);
+        return journal;
+    }
+
+    private void edit(Random random, SongQueue queue, SessionJournal journal, int step) {
+        List<SongQueue.Entry> entries = queue.snapshot().entries();
+        SongQueue.Entry some = entries.isEmpty() ? null : entries.get(random.nextInt(entries.size()));
+        SongQueue.Entry other = entries.isEmpty() ? null : entries.get(random.nextInt(entries.size()));
+        switch (random.nextInt(20)) {
+            case 0, 1, 2, 3, 4 -> queue.add("song" + step, random.nextBoolean() ? "Song " + step : null, step);
+            case 5, 6 -> queue.addNext("next" + step, null, 0);
+            case 7, 8 -> {
+                if (some != null) {
+                    queue.remove(some.handle());
+                }
+            }
+            case 9, 10 -> {
+                if (some != null) {
+                    queue.move(some.handle(), other.handle(), random.nextBoolean());
+                }
+            }
+            case 11 -> {
+                if (some != null) {
+                    queue.moveToFront(some.handle());
+                }
+            }
+            case 12 -> {
+                SongQueue.Entry played = queue.poll();
+                if (played != null) {
+                    queue.pushHistory(played.url());
+                    setTrack(journal, played.url());
+                }
+            }
+            case 13 -> queue.popHistory();
+            case 14 -> queue.setShuffled(!queue.isShuffled());
+            case 15 -> {
+                if (random.nextInt(10) == 0) {
+                    queue.clear();
+                }
+            }
+            case 16 -> {
+                PlaybackState before = state;
+                state = state.withLooping(!state.looping());
+                journal.stateChanged(before, state);
+            }
+            case 17 -> {
+                PlaybackState before = state;
+                state = state.withVolume(random.nextInt(101));
+                journal.stateChanged(before, state);
+            }
+            default -> {
+                position += random.nextInt(5000);
+                journal.positionChanged(position);
+            }
+        }
+    }
+
+    private void setTrack(SessionJournal journal, String track) {
+        PlaybackState before = state;
+        state = state.withTrack(track);
+        position = 0;
+        if (journal != null) {
+            journal.stateChanged(before, state);
+        }
+    }
+
+    private void assertReplays(Path file, SongQueue live) {
+        SongQueue replayed = new SongQueue(20);
+        SessionJournal.Session session = new SessionJournal(file, Runnable::run)
+                .replay(replayed, PlaybackState.INITIAL.volume());
+        assertEquals(live.isShuffled(), replayed.isShuffled());
+        assertEquals(live.snapshot().entries(), replayed.snapshot().entries());
+        assertEquals(live.arranged(), replayed.arranged());
+        assertEquals(live.history(), replayed.history());
+        assertEquals(state.track(), session.track());
+        assertEquals(position, session.positionMillis());
+        assertEquals(state.looping(), session.looping());
+        assertEquals(state.volume(), session.volume());
+    }
+}
@@ -0,0 +1,111 @@
+package nls.minesongs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class SongQueueTest {
+    // Random edits of an unshuffled queue, checked against a plain list after every step
+    @Test
+    void randomEditsMatchAList() {
+        Random random = new Random(1);
+        SongQueue queue = new SongQueue(10);
+        List<SongQueue.Entry> expected = new ArrayList<>();
+        for (int step = 0; step < 20000; step++) {
+            int op = random.nextInt(6);
+            if (op == 0 || expected.isEmpty()) {
+                expected.add(queue.add("song" + step, "Song " + step, step));
+            } else if (op == 1) {
+                expected.add(0, queue.addNext("song" + step, null, 0));
+            } else if (op == 2) {
+                SongQueue.Entry entry = expected.remove(random.nextInt(expected.size()));
+                assertTrue(queue.remove(entry.handle()));
+            } else if (op == 3) {
+                SongQueue.Entry entry = expected.remove(random.nextInt(expected.size()));
+                if (expected.isEmpty()) {
+                    expected.add(entry);
+                    continue;
+                }
+                SongQueue.Entry anchor = expected.get(random.nextInt(expected.size()));
+                boolean after = random.nextBoolean();
+                expected.add(expected.indexOf(anchor) + (after ? 1 : 0), entry);
+                assertTrue(queue.move(entry.handle(), anchor.handle(), after));
+            } else if (op == 4) {
+                SongQueue.Entry entry = expected.remove(random.nextInt(expected.size()));
+                expected.add(0, entry);
+                assertTrue(queue.moveToFront(entry.handle()));
+            } else {
+                assertEquals(expected.remove(0), queue.poll());
+            }
+            assertEquals(expected, queue.snapshot().entries());
+            assertEquals(expected.size(), queue.size());
+        }
+    }
+
+    // Shuffling reorders the same entries, and turning it off brings back the arranged order
+    @Test
+    void shuffleKeepsEveryEntry() {
+        Random random = new Random(2);
+        SongQueue queue = new SongQueue(10);
+        for (int i = 0; i < 50; i++) {
+            queue.add("song" + i, null, 0);
+        }
+        queue.setShuffled(true);
+        for (int step = 0; step < 2000; step++) {
+            if (random.nextBoolean() || queue.size() == 0) {
+                queue.add("more" + step, null, 0);
+            } else {
+                List<SongQueue.Entry> entries = queue.snapshot().entries();
+                queue.remove(entries.get(random.nextInt(entries.size())).handle());
+            }
+            assertEquals(new HashSet<>(queue.arranged()), new HashSet<>(queue.snapshot().entries()));
+            assertEquals(queue.size(), queue.snapshot().size());
+        }
+        queue.setShuffled(false);
+        assertEquals(queue.arranged(), queue.snapshot().entries());
+    }
+
+    // A song added while shuffled is equally likely to go anywhere among the songs to come, first included
+    @Test
+    void shuffledAddCanComeFirst() {
+        int trials = 3000;
+        int[] positions = new int[4];
+        for (int trial = 0; trial < trials; trial++) {
+            SongQueue queue = new SongQueue(10);
+            for (int i = 0; i < 3; i++) {
+                queue.add("song" + i, null, 0);
+            }
+            queue.setShuffled(true);
+            SongQueue.Entry added = queue.add("new", null, 0);
+            positions[queue.snapshot().entries().indexOf(added)]++;
+        }
+        for (int count : positions) {
+            assertTrue(Math.abs(count - trials / 4) < trials / 10, Arrays.toString(positions));
+        }
+    }
+
+    @Test
+    void historyKeepsTheNewestSongs() {
+        SongQueue queue = new SongQueue(3);
+        for (int i = 0; i < 5; i++) {
+            queue.pushHistory("song" + i);
+        }
+        List<String> urls = new ArrayList<>();
+        for (SongQueue.Entry entry : queue.history()) {
+            urls.add(entry.url());
+        }
+        assertEquals(List.of("song4", "song3", "song2"), urls);
+        assertEquals("song4", queue.popHistory().url());
+        assertEquals("song3", queue.popHistory().url());
+        assertEquals("song2", queue.popHistory().url());
+        assertNull(queue.popHistory());
+    }
+}